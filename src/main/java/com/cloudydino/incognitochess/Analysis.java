@@ -0,0 +1,85 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * What AnalysisService found out about one position. Immutable, so cached
+ * results can be handed to any number of callers.
+ */
+final class Analysis {
+
+    private final Position position;
+    private final int evaluation;
+    private final int legalMoves;
+    private final boolean inCheck;
+    private final GameStatus status;
+    private final int whiteVisible;
+    private final int blackVisible;
+
+    Analysis(Position position, int evaluation, int legalMoves, boolean inCheck,
+             GameStatus status, int whiteVisible, int blackVisible) {
+        this.position = position;
+        this.evaluation = evaluation;
+        this.legalMoves = legalMoves;
+        this.inCheck = inCheck;
+        this.status = status;
+        this.whiteVisible = whiteVisible;
+        this.blackVisible = blackVisible;
+    }
+
+    Position getPosition() {
+        return position;
+    }
+
+    /**
+     * @return Analysis these results for the position, which must be equal to
+     * this one's but may have different move counters
+     */
+    Analysis withPosition(Position position) {
+        return position == this.position ? this
+            : new Analysis(position, evaluation, legalMoves, inCheck, status, whiteVisible, blackVisible);
+    }
+
+    /**
+     * @return int the tapered static evaluation in centipawns, as
+     * Board.getEvaluation, positive when white is better
+     */
+    int getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * @return int the number of legal moves for the side to move, counting each
+     * promotion once
+     */
+    int getLegalMoves() {
+        return legalMoves;
+    }
+
+    /**
+     * @return boolean if the side to move is in check
+     */
+    boolean isInCheck() {
+        return inCheck;
+    }
+
+    /**
+     * @return GameStatus WHITE_WON or BLACK_WON on checkmate, STALEMATE, or
+     * IN_PROGRESS. Clocks and the 50 move rule aren't part of a position so
+     * are never reported
+     */
+    GameStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return int how many squares the side can see through the fog
+     */
+    int getVisible(boolean isWhite) {
+        return isWhite ? whiteVisible : blackVisible;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s  eval %d  moves %d  check %b  %s  visible %d/%d",
+            position.toFen(), evaluation, legalMoves, inCheck, status, whiteVisible, blackVisible);
+    }
+}
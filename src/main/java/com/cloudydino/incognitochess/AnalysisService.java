@@ -0,0 +1,229 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Scores batches of positions in parallel. A batch is cut into chunks that a
+ * fixed number of worker threads share; once the work queue is full the thread
+ * submitting the batch works through chunks itself, so a huge batch can't pile
+ * up unbounded work. Results are cached by Position, least recently used
+ * first out. Positions are equal whatever their move counters, which none of
+ * the results depend on, so a cached result is handed back with the position
+ * that was asked about. The cache is split into segments by hash, each an LRU
+ * of its own share of the entries behind its own lock, so workers looking up
+ * different positions rarely wait on each other.
+ */
+class AnalysisService implements AutoCloseable {
+
+    static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    private static final int CHUNK_SIZE = 64;
+    private static final int QUEUE_PER_WORKER = 4;
+    private static final int CACHE_SEGMENTS = 16;
+
+    private final ThreadPoolExecutor workers;
+    private final List<Map<Position, Analysis>> cache = new ArrayList<>(CACHE_SEGMENTS);
+
+    AnalysisService() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CACHE_SIZE);
+    }
+
+    AnalysisService(int threads, int cacheSize) {
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER),
+            r -> {
+                Thread thread = new Thread(r, "analysis-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        int segmentSize = Math.max(1, (cacheSize + CACHE_SEGMENTS - 1) / CACHE_SEGMENTS);
+        for (int i = 0; i < CACHE_SEGMENTS; i++) {
+            cache.add(new LinkedHashMap<Position, Analysis>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Position, Analysis> eldest) {
+                    return size() > segmentSize;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return List<Analysis> the analysis of each position, in the same order
+     */
+    List<Analysis> analyze(List<Position> positions) throws InterruptedException {
+        return analyzeAll(positions, Function.identity());
+    }
+
+    /**
+     * Reads each FEN on a worker rather than the calling thread.
+     *
+     * @return List<Analysis> the analysis of each position, in the same order,
+     * with null for any FEN that couldn't be read
+     */
+    List<Analysis> analyzeFens(List<String> fens) throws InterruptedException {
+        return analyzeAll(fens, fen -> {
+            try {
+                return new Board(fen).getPosition();
+            } catch (IllegalArgumentException e) {
+                Log.warn("Skipping %s: %s", fen, e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    Analysis analyze(Position position) {
+        Map<Position, Analysis> segment = getSegment(position);
+        Analysis analysis;
+        synchronized (segment) {
+            analysis = segment.get(position);
+        }
+        if (analysis != null) {
+            Metrics.increment(Metrics.Counter.ANALYSIS_CACHE_HITS);
+            return analysis.withPosition(position);
+        }
+
+        analysis = compute(position);
+        synchronized (segment) {
+            segment.put(position, analysis);
+        }
+        return analysis;
+    }
+
+    private Map<Position, Analysis> getSegment(Position position) {
+        int hash = position.hashCode();
+        // Mix the high bits in, so segments don't hang on the lowest few alone
+        hash ^= hash >>> 16;
+        return cache.get(hash & (CACHE_SEGMENTS - 1));
+    }
+
+    private <T> List<Analysis> analyzeAll(List<T> inputs, Function<T, Position> toPosition)
+            throws InterruptedException {
+        Analysis[] results = new Analysis[inputs.size()];
+        List<Future<?>> chunks = new ArrayList<>();
+        for (int from = 0; from < inputs.size(); from += CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(from + CHUNK_SIZE, inputs.size());
+            chunks.add(workers.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    Position position = toPosition.apply(inputs.get(i));
+                    if (position != null) {
+                        results[i] = analyze(position);
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> chunk : chunks) {
+            try {
+                chunk.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Analysis failed", e.getCause());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private static Analysis compute(Position position) {
+        Metrics.begin();
+        try {
+            return evaluate(position);
+        } finally {
+            Metrics.end(Metrics.Operation.ANALYZE);
+        }
+    }
+
+    private static Analysis evaluate(Position position) {
+        Board board = new Board(position);
+        boolean whiteTurn = position.getTurn();
+        int legalMoves = board.getLegalMoveCount();
+        boolean inCheck = position.isInCheck(whiteTurn);
+
+        GameStatus status = GameStatus.IN_PROGRESS;
+        if (legalMoves == 0) {
+            if (inCheck) {
+                status = whiteTurn ? GameStatus.BLACK_WON : GameStatus.WHITE_WON;
+            } else {
+                status = GameStatus.STALEMATE;
+            }
+        }
+
+        int whiteVisible = 0;
+        int blackVisible = 0;
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            if (position.isVisible(true, square)) {
+                whiteVisible++;
+            }
+            if (position.isVisible(false, square)) {
+                blackVisible++;
+            }
+        }
+
+        return new Analysis(position, board.getEvaluation(), legalMoves, inCheck,
+            status, whiteVisible, blackVisible);
+    }
+
+    int getCacheSize() {
+        int size = 0;
+        for (Map<Position, Analysis> segment : cache) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    /**
+     * Analyzes the FENs read from standard input, one per line, and prints a
+     * line per position.
+     *
+     * Usage: AnalysisService [threads] < positions.fen
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        List<String> fens = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                fens.add(line);
+            }
+        }
+
+        try (AnalysisService service = new AnalysisService(threads, DEFAULT_CACHE_SIZE)) {
+            long start = System.nanoTime();
+            List<Analysis> results = service.analyzeFens(fens);
+            long nanos = System.nanoTime() - start;
+
+            for (Analysis analysis : results) {
+                if (analysis != null) {
+                    System.out.println(analysis);
+                }
+            }
+            System.err.printf("%d positions in %.1fms on %d threads%n", fens.size(), nanos / 1e6, threads);
+        }
+    }
+}
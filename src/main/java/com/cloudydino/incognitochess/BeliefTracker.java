@@ -0,0 +1,541 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * Tracks, for one player, where each of the opponent's pieces could be. Every
+ * opponent piece has a mask of the squares it might be on, which only grows by
+ * the squares it could have moved to and is cut back by what the player can
+ * actually see:
+ *  - squares the player can see empty, or holds, have no hidden piece on them
+ *  - a piece seen on a square is one of the pieces of that type that could be
+ *    there, and if only one could it's pinned down to that square
+ *  - when the opponent takes a piece, only a piece that could reach the square
+ *    has moved, and if only one could the others have stayed put
+ *  - being in check, or not, says which pieces can be on the squares that
+ *    attack the king
+ *  - an opponent piece the player took is removed
+ *  - the opponent can castle only while its king and that rook could both
+ *    still be on their start squares
+ *
+ * Call observe with the new Position after every move of either side. Only
+ * the squares visible to the player are read from it, so the tracker knows no
+ * more than the player does. The masks are kept in flat arrays and updated in
+ * place, so observing a move doesn't allocate.
+ */
+final class BeliefTracker {
+
+    // A pawn that could have promoted, so could now be anything but a king
+    static final int PROMOTED = 7;
+
+    private static final int MAX_PIECES = 16;
+    private static final long FIRST_RANK = 0x0101010101010101L;
+    private static final long LAST_RANK = FIRST_RANK << (Board.SIZE - 1);
+
+    private final boolean isWhite;
+    private final long[] masks = new long[MAX_PIECES];
+    private final byte[] types = new byte[MAX_PIECES];
+    private int count;
+
+    // The opponent's castling rights the player can't rule out, kingside in
+    // bit 0 and queenside in bit 1, and the start squares they need
+    private int castling;
+    private int kingStart = -1;
+    private final int[] rookStarts = new int[2];
+
+    // What the player knew after the last move
+    private Position last;
+    private long own;
+    private long enemySeen;
+
+    /**
+     * @param isWhite the side of the player doing the tracking
+     * @param start the position tracking starts from, which the player is
+     *              assumed to know completely (as with the starting position)
+     */
+    BeliefTracker(boolean isWhite, Position start) {
+        this.isWhite = isWhite;
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int code = start.getCode(square);
+            if (code == PieceCode.EMPTY) {
+                continue;
+            }
+            if (PieceCode.isWhite(code) == isWhite) {
+                own |= 1L << square;
+            } else if (count < MAX_PIECES) {
+                masks[count] = 1L << square;
+                types[count] = (byte) PieceCode.type(code);
+                if (types[count] == PieceCode.KING) {
+                    kingStart = square;
+                }
+                count++;
+            }
+        }
+        int first = Board.castlingRight(!isWhite, true);
+        castling = kingStart == -1 ? 0 : start.getCastling() >>> first & 3;
+        for (int right = 0; right < rookStarts.length; right++) {
+            if ((castling >>> right & 1) != 0) {
+                rookStarts[right] = start.getCastlingRook(first + right);
+            }
+        }
+        for (long v = start.getAttackMask(isWhite) & ~own; v != 0; v &= v - 1) {
+            int square = Long.numberOfTrailingZeros(v);
+            if (start.getCode(square) != PieceCode.EMPTY) {
+                enemySeen |= 1L << square;
+            }
+        }
+        last = start;
+    }
+
+    /**
+     * @return int how many opponent pieces are left
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return long a mask of the squares the i-th opponent piece could be on
+     */
+    long getMask(int i) {
+        return masks[i];
+    }
+
+    /**
+     * @return int the PieceCode type of the i-th opponent piece, or PROMOTED
+     */
+    int getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * @return boolean if the i-th opponent piece can only be on one square
+     */
+    boolean isKnown(int i) {
+        return Long.bitCount(masks[i]) == 1;
+    }
+
+    /**
+     * @return long a mask of the squares some opponent piece could be on
+     */
+    long getPossibleSquares() {
+        long squares = 0;
+        for (int i = 0; i < count; i++) {
+            squares |= masks[i];
+        }
+        return squares;
+    }
+
+    /**
+     * @return long a mask of the squares an opponent piece of the type (or a
+     * promoted pawn, unless the type is a king) could be on
+     */
+    long getPossibleSquares(int type) {
+        long squares = 0;
+        for (int i = 0; i < count; i++) {
+            if (matches(types[i], type)) {
+                squares |= masks[i];
+            }
+        }
+        return squares;
+    }
+
+    /**
+     * Updates the beliefs with the position after a move of either side.
+     */
+    void observe(Position now) {
+        Metrics.begin();
+        try {
+            update(now);
+        } finally {
+            Metrics.end(Metrics.Operation.BELIEF_UPDATE);
+        }
+    }
+
+    private void update(Position now) {
+        long ownNow = 0;
+        int king = -1;
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int code = now.getCode(square);
+            if (code != PieceCode.EMPTY && PieceCode.isWhite(code) == isWhite) {
+                ownNow |= 1L << square;
+                if (PieceCode.type(code) == PieceCode.KING) {
+                    king = square;
+                }
+            }
+        }
+
+        long visible = now.getAttackMask(isWhite) | ownNow;
+        long seenNow = 0;
+        for (long v = visible & ~ownNow; v != 0; v &= v - 1) {
+            int square = Long.numberOfTrailingZeros(v);
+            if (now.getCode(square) != PieceCode.EMPTY) {
+                seenNow |= 1L << square;
+            }
+        }
+
+        if (now.getTurn() == isWhite) {
+            opponentMoved(ownNow);
+        } else {
+            playerMoved(now, ownNow, visible, seenNow);
+        }
+        constrain(now, ownNow, visible, seenNow, king);
+        updateCastling();
+
+        last = now;
+        own = ownNow;
+        enemySeen = seenNow;
+    }
+
+    private void opponentMoved(long ownNow) {
+        // What was known to be in the way before the move, so a rook can still
+        // castle past the square its king lands on
+        long blockers = own | enemySeen;
+        long lost = own & ~ownNow;
+
+        if (lost == 0) {
+            for (int i = 0; i < count; i++) {
+                masks[i] |= reach(i, blockers, 0);
+            }
+        } else {
+            // Only the piece that took ours moved, and it's on that square or,
+            // for en passant, just behind it
+            int square = Long.numberOfTrailingZeros(lost);
+            long captures = lost;
+            if (last.getEnPassant() == square) {
+                captures |= 1L << (isWhite ? square - 1 : square + 1);
+            }
+
+            int movers = 0;
+            int mover = -1;
+            long moverMask = 0;
+            for (int i = 0; i < count; i++) {
+                long r = reach(i, blockers, captures) & captures;
+                if (r != 0) {
+                    movers++;
+                    mover = i;
+                    moverMask = r;
+                    masks[i] |= r;
+                }
+            }
+            if (movers == 1) {
+                masks[mover] = moverMask;
+            }
+        }
+
+        long promotion = isWhite ? FIRST_RANK : LAST_RANK;
+        for (int i = 0; i < count; i++) {
+            if (types[i] == PieceCode.PAWN && (masks[i] & promotion) != 0) {
+                types[i] = PROMOTED;
+            }
+        }
+    }
+
+    private void playerMoved(Position now, long ownNow, long visible, long seenNow) {
+        // The opponent can't move on the player's turn, so a piece seen last
+        // time that is now gone from view was taken
+        long taken = enemySeen & (ownNow | visible & ~seenNow);
+
+        // A pawn that went diagonally onto the square behind the pawn that
+        // just moved two took it en passant, whether it was seen or not
+        int passed = last.getEnPassant();
+        long from = own & ~ownNow;
+        if (passed != -1 && from != 0) {
+            int behind = isWhite ? passed + 1 : passed - 1;
+            if ((ownNow & ~own) == 1L << behind
+                    && PieceCode.type(now.getCode(behind)) == PieceCode.PAWN
+                    && Board.squareX(Long.numberOfTrailingZeros(from)) != Board.squareX(behind)) {
+                taken |= 1L << passed;
+            }
+        }
+
+        for (; taken != 0; taken &= taken - 1) {
+            int square = Long.numberOfTrailingZeros(taken);
+            int type = PieceCode.type(last.getCode(square));
+            int victim = -1;
+            for (int i = 0; i < count; i++) {
+                if ((masks[i] >>> square & 1) == 0 || !matches(types[i], type)) {
+                    continue;
+                }
+                if (masks[i] == 1L << square) {
+                    victim = i;
+                    break;
+                }
+                if (victim == -1 || (types[victim] != type && types[i] == type)) {
+                    victim = i;
+                }
+            }
+            if (victim == -1) {
+                continue;
+            }
+
+            // If it's not certain which piece was taken, each piece that could
+            // have been could also be the one that's left
+            if (masks[victim] != 1L << square) {
+                for (int i = 0; i < count; i++) {
+                    if (i != victim && (masks[i] >>> square & 1) != 0 && matches(types[i], type)) {
+                        masks[i] |= masks[victim] & ~(1L << square);
+                        if (types[i] != types[victim]) {
+                            types[i] = PROMOTED;
+                        }
+                    }
+                }
+            }
+            remove(victim);
+        }
+    }
+
+    private void constrain(Position now, long ownNow, long visible, long seenNow, int king) {
+        long seenEmpty = visible & ~ownNow & ~seenNow;
+        for (int i = 0; i < count; i++) {
+            masks[i] &= ~(ownNow | seenEmpty);
+        }
+
+        for (long seen = seenNow; seen != 0; seen &= seen - 1) {
+            int square = Long.numberOfTrailingZeros(seen);
+            int type = PieceCode.type(now.getCode(square));
+            int candidates = 0;
+            int candidate = -1;
+            for (int i = 0; i < count; i++) {
+                if ((masks[i] >>> square & 1) == 0) {
+                    continue;
+                }
+                if (matches(types[i], type)) {
+                    candidates++;
+                    candidate = i;
+                } else {
+                    masks[i] &= ~(1L << square);
+                }
+            }
+            if (candidates == 0) {
+                // Lost track of it somewhere, so take the least certain piece
+                // that could be it
+                for (int i = 0; i < count; i++) {
+                    if (matches(types[i], type)
+                            && (candidate == -1 || Long.bitCount(masks[i]) > Long.bitCount(masks[candidate]))) {
+                        candidate = i;
+                    }
+                }
+                if (candidate == -1 && count < MAX_PIECES) {
+                    candidate = count++;
+                }
+            }
+            if (candidates <= 1 && candidate != -1) {
+                masks[candidate] = 1L << square;
+                types[candidate] = (byte) type;
+            }
+        }
+
+        if (king != -1) {
+            constrainChecks(king, now.isInCheck(isWhite), seenEmpty, ownNow | seenNow);
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (masks[i] == 0) {
+                masks[i] = ~(ownNow | seenEmpty | seenNow);
+            }
+        }
+    }
+
+    /**
+     * If the king isn't in check no piece can be on a square it would attack
+     * the king from, and if it is in check and only one piece could be giving
+     * it then that piece is on one of those squares.
+     *
+     * Lines out from the king only rule squares out up to the first square not
+     * known to be empty, but can give check from anywhere up to the first
+     * square known to be occupied.
+     */
+    private void constrainChecks(int king, boolean inCheck, long seenEmpty, long occupied) {
+        long lineBlockers = inCheck ? occupied : ~seenEmpty;
+        long straight = Board.slide(king, true, lineBlockers);
+        long diagonal = Board.slide(king, false, lineBlockers);
+
+        int checkers = 0;
+        int checker = -1;
+        for (int i = 0; i < count; i++) {
+            long from = attackersOf(types[i], king, straight, diagonal);
+            if (!inCheck) {
+                // A promoted pawn could still be a pawn or be a knight, which
+                // never attack from the same square, so it can't be ruled out
+                if (types[i] != PROMOTED) {
+                    masks[i] &= ~from;
+                }
+            } else if ((masks[i] & from) != 0) {
+                checkers++;
+                checker = i;
+            }
+        }
+        if (checkers == 1) {
+            masks[checker] &= attackersOf(types[checker], king, straight, diagonal);
+        }
+    }
+
+    /**
+     * @return long the squares an opponent piece of the type would attack the
+     * king from, with straight and diagonal the lines out from the king
+     */
+    private long attackersOf(int type, int king, long straight, long diagonal) {
+        switch (type) {
+            case PieceCode.PAWN:
+                return pawnAttackersOf(king);
+            case PieceCode.KNIGHT:
+                return Board.knightTargets(king);
+            case PieceCode.BISHOP:
+                return diagonal;
+            case PieceCode.ROOK:
+                return straight;
+            case PieceCode.QUEEN:
+                return straight | diagonal;
+            case PieceCode.KING:
+                return Board.kingTargets(king);
+            default:
+                return straight | diagonal | Board.knightTargets(king) | pawnAttackersOf(king);
+        }
+    }
+
+    private long pawnAttackersOf(int king) {
+        // Opponent pawns move towards the player, so attack the king from
+        // one rank further away
+        int y = Board.squareY(king) + (isWhite ? 1 : -1);
+        int x = Board.squareX(king);
+        long squares = 0;
+        if (0 <= y && y < Board.SIZE) {
+            if (x > 0) {
+                squares |= 1L << Board.squareToInteger(x - 1, y);
+            }
+            if (x < Board.SIZE - 1) {
+                squares |= 1L << Board.squareToInteger(x + 1, y);
+            }
+        }
+        return squares;
+    }
+
+    /**
+     * @return long the squares the i-th piece could move to from any square in
+     * its mask. Squares it can't see past are only the ones known to be
+     * occupied, so this can only overestimate. Pawns only move diagonally onto
+     * the captures squares
+     */
+    private long reach(int i, long blockers, long captures) {
+        long reach = 0;
+        for (long from = masks[i]; from != 0; from &= from - 1) {
+            int square = Long.numberOfTrailingZeros(from);
+            switch (types[i]) {
+                case PieceCode.PAWN:
+                    reach |= pawnReach(square, blockers, captures);
+                    break;
+                case PieceCode.KNIGHT:
+                    reach |= Board.knightTargets(square);
+                    break;
+                case PieceCode.BISHOP:
+                    reach |= Board.slide(square, false, blockers);
+                    break;
+                case PieceCode.ROOK:
+                    reach |= Board.slide(square, true, blockers) | castlingReach(square);
+                    break;
+                case PieceCode.QUEEN:
+                    reach |= Board.slide(square, true, blockers) | Board.slide(square, false, blockers);
+                    break;
+                case PieceCode.KING:
+                    reach |= Board.kingTargets(square) | castlingReach(square);
+                    break;
+                default:
+                    reach |= Board.slide(square, true, blockers) | Board.slide(square, false, blockers)
+                        | Board.knightTargets(square) | pawnReach(square, blockers, captures);
+                    break;
+            }
+        }
+        return reach;
+    }
+
+    private long pawnReach(int square, long blockers, long captures) {
+        int dy = isWhite ? -1 : 1;
+        int x = Board.squareX(square);
+        int y = Board.squareY(square) + dy;
+        if (y < 0 || y >= Board.SIZE) {
+            return 0;
+        }
+
+        long reach = 0;
+        int ahead = Board.squareToInteger(x, y);
+        if ((blockers >>> ahead & 1) == 0) {
+            reach |= 1L << ahead;
+            int twoAhead = ahead + dy;
+            if (y - dy == (isWhite ? Board.SIZE - 2 : 1) && (blockers >>> twoAhead & 1) == 0) {
+                reach |= 1L << twoAhead;
+            }
+        }
+        if (x > 0) {
+            reach |= captures & 1L << Board.squareToInteger(x - 1, y);
+        }
+        if (x < Board.SIZE - 1) {
+            reach |= captures & 1L << Board.squareToInteger(x + 1, y);
+        }
+        return reach;
+    }
+
+    /**
+     * Drops each castling right once the king or its rook is known to have
+     * left its start square, by being seen elsewhere, seeing the square
+     * empty or taking the rook. The right can't come back, even if the
+     * piece might be back on its square.
+     */
+    private void updateCastling() {
+        if (castling == 0) {
+            return;
+        }
+        if (!couldBeOn(PieceCode.KING, kingStart)) {
+            castling = 0;
+            return;
+        }
+        for (int right = 0; right < rookStarts.length; right++) {
+            if ((castling >>> right & 1) != 0 && !couldBeOn(PieceCode.ROOK, rookStarts[right])) {
+                castling &= ~(1 << right);
+            }
+        }
+    }
+
+    /**
+     * @return boolean if an opponent piece believed to be of exactly the type
+     * could be on the square
+     */
+    private boolean couldBeOn(int type, int square) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == type && (masks[i] >>> square & 1) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return long where castling can put a king or rook on the square, which
+     * in Chess960 could be anywhere on the back rank, while the opponent might
+     * still have the right
+     */
+    private long castlingReach(int square) {
+        int rank = isWhite ? Board.SIZE - 1 : 0;
+        int rights = castling;
+        if (rights == 0 || Board.squareY(square) != rank) {
+            return 0;
+        }
+
+        long reach = 0;
+        if ((rights & 1) != 0) {
+            reach |= 1L << Board.squareToInteger(Board.SIZE - 2, rank) | 1L << Board.squareToInteger(Board.SIZE - 3, rank);
+        }
+        if ((rights & 2) != 0) {
+            reach |= 1L << Board.squareToInteger(2, rank) | 1L << Board.squareToInteger(3, rank);
+        }
+        return reach;
+    }
+
+    private static boolean matches(int believed, int seen) {
+        return believed == seen || (believed == PROMOTED && seen != PieceCode.KING);
+    }
+
+    private void remove(int i) {
+        count--;
+        masks[i] = masks[count];
+        types[i] = types[count];
+    }
+}
@@ -1,30 +1,207 @@
 package com.cloudydino.incognitochess;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 class Board {
 
     static final int SIZE = 8;
+    // How many moves unmove() can take back. Plenty for a search or stepping
+    // back to a replay's keyframe, and it stops a board played for a whole
+    // game holding a snapshot of every position in it
+    static final int MAX_UNDO = 64;
 
-    private char[][] spaces = new char[SIZE][SIZE];
+    // Squares as (dx, dy) steps, rook directions first then bishop directions
+    private static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    private static final long[] KNIGHT_TARGETS = new long[SIZE * SIZE];
+    private static final long[] KING_TARGETS = new long[SIZE * SIZE];
+
+    static {
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            int x = squareX(square);
+            int y = squareY(square);
+            for (int dx = -2; dx <= 2; dx++) {
+                for (int dy = -2; dy <= 2; dy++) {
+                    if (!onBoard(x + dx, y + dy)) {
+                        continue;
+                    }
+                    if (Math.abs(dx * dy) == 2) {
+                        KNIGHT_TARGETS[square] |= 1L << squareToInteger(x + dx, y + dy);
+                    } else if ((dx != 0 || dy != 0) && Math.abs(dx) <= 1 && Math.abs(dy) <= 1) {
+                        KING_TARGETS[square] |= 1L << squareToInteger(x + dx, y + dy);
+                    }
+                }
+            }
+        }
+    }
+
+    // Recomputes the evaluation from scratch after every move and throws if
+    // the incremental one has drifted from it
+    static final boolean CHECK_EVALUATION = Boolean.getBoolean("incognitochess.evaluation.check");
+
+    // One PieceCode per square, indexed by squareToInteger
+    private final byte[] squares = new byte[SIZE * SIZE];
     private boolean whiteTurn;
-    private boolean castleWK, castleWQ, castleBK, castleBQ;
+    // Castling rights as a mask of Position.WHITE_KINGSIDE etc.
+    private int castling;
+    // The square of the rook each right castles with, indexed by the right's
+    // bit, see castlingRight()
+    private final int[] castlingRooks = {
+        squareToInteger(SIZE - 1, 0), squareToInteger(0, 0),
+        squareToInteger(SIZE - 1, SIZE - 1), squareToInteger(0, SIZE - 1)};
     private int enPassant;
-    private Set<Integer> whiteAttack, blackAttack;
+    private long whiteAttack, blackAttack;
     private boolean whiteInCheck, blackInCheck;
     private int movesSincePawnOrCapture;
+    private int fullMoves = 1;
+    // Sums of the Evaluation terms of every piece on the board
+    private int material, middlegame, endgame, phase;
+    private ChessClock clock;
+    private volatile Position position;
+    // What each of the last MAX_UNDO moves changed, so they can be taken back
+    private final Deque<Undo> history = new ArrayDeque<>();
 
     Board() {
         setupBoard();
         whiteTurn = true;
-        castleWK = true;
-        castleWQ = true;
-        castleBK = true;
-        castleBQ = true;
+        castling = Position.WHITE_KINGSIDE | Position.WHITE_QUEENSIDE
+            | Position.BLACK_KINGSIDE | Position.BLACK_QUEENSIDE;
         enPassant = -1;
         updateAttack();
         movesSincePawnOrCapture = 0;
+        publishPosition();
+    }
+
+    /**
+     * Sets up the position described by the FEN string, e.g.
+     * "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"
+     * The move counters are optional. Castling rights can name the rook's file
+     * as in Shredder-FEN ("HAha") as well as KQkq, which mean the outermost
+     * rook on that side of the king, so Chess960 positions can be read.
+     * Rights without a king and rook on the back rank to castle with are
+     * dropped.
+     */
+    Board(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new IllegalArgumentException(String.format("Can't read FEN %s", fen));
+        }
+
+        String[] ranks = fields[0].split("/");
+        if (ranks.length != SIZE) {
+            throw new IllegalArgumentException(String.format("Can't read FEN %s", fen));
+        }
+        for (int i = 0; i < SIZE; i++) {
+            int y = SIZE - 1 - i;
+            int x = 0;
+            for (char c : ranks[i].toCharArray()) {
+                if (Character.isDigit(c)) {
+                    x += c - '0';
+                } else {
+                    int code = PieceCode.fromChar(c);
+                    if (code == PieceCode.EMPTY || x >= SIZE) {
+                        throw new IllegalArgumentException(String.format("Can't read FEN %s", fen));
+                    }
+                    place(squareToInteger(x++, y), code);
+                }
+            }
+            if (x != SIZE) {
+                throw new IllegalArgumentException(String.format("Can't read FEN %s", fen));
+            }
+        }
+
+        whiteTurn = fields[1].equals("w");
+        for (char c : fields[2].toCharArray()) {
+            if (c != '-' && !addCastlingRight(c)) {
+                throw new IllegalArgumentException(String.format("Can't read FEN %s", fen));
+            }
+        }
+
+        // FEN names the square behind the pawn, the board tracks the pawn itself
+        enPassant = -1;
+        if (!fields[3].equals("-")) {
+            int x = fields[3].charAt(0) - 'a';
+            int y = fields[3].charAt(1) - '1';
+            enPassant = squareToInteger(x, y == 2 ? 3 : 4);
+        }
+
+        if (fields.length > 4) {
+            movesSincePawnOrCapture = Integer.parseInt(fields[4]);
+        }
+        if (fields.length > 5) {
+            fullMoves = Integer.parseInt(fields[5]);
+        }
+        updateAttack();
+        publishPosition();
+    }
+
+    /**
+     * Sets up the position in the snapshot, without going through FEN.
+     */
+    Board(Position position) {
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            if (position.getCode(square) != PieceCode.EMPTY) {
+                place(square, position.getCode(square));
+            }
+        }
+        whiteTurn = position.getTurn();
+        castling = position.getCastling();
+        for (int right = 0; right < castlingRooks.length; right++) {
+            if ((castling >>> right & 1) != 0) {
+                castlingRooks[right] = position.getCastlingRook(right);
+            }
+        }
+        enPassant = position.getEnPassant();
+        movesSincePawnOrCapture = position.getHalfMoves();
+        fullMoves = position.getFullMoves();
+        updateAttack();
+        publishPosition();
+    }
+
+    /**
+     * Sets up Chess960 start position number 0 to 959, numbered as in
+     * Scharnagl's scheme so 518 is the standard start.
+     */
+    static Board chess960(int number) {
+        if (number < 0 || number >= 960) {
+            throw new IllegalArgumentException("No Chess960 position " + number);
+        }
+        char[] rank = new char[SIZE];
+        int n = number;
+        rank[(n % 4) * 2 + 1] = 'b';
+        n /= 4;
+        rank[(n % 4) * 2] = 'b';
+        n /= 4;
+        putOnEmpty(rank, n % 6, 'q');
+        n /= 6;
+        // The knights take two of the five files left, in one of ten ways
+        int[][] knights = {{0, 1}, {0, 2}, {0, 3}, {0, 4}, {1, 2}, {1, 3}, {1, 4}, {2, 3}, {2, 4}, {3, 4}};
+        putOnEmpty(rank, knights[n][1], 'n');
+        putOnEmpty(rank, knights[n][0], 'n');
+        putOnEmpty(rank, 0, 'r');
+        putOnEmpty(rank, 0, 'k');
+        putOnEmpty(rank, 0, 'r');
+
+        String black = new String(rank);
+        return new Board(black + "/pppppppp/8/8/8/8/PPPPPPPP/" + black.toUpperCase() + " w KQkq - 0 1");
+    }
+
+    /**
+     * Puts the piece on the nth empty square of the rank.
+     */
+    private static void putOnEmpty(char[] rank, int n, char piece) {
+        for (int x = 0; x < rank.length; x++) {
+            if (rank[x] == 0 && n-- == 0) {
+                rank[x] = piece;
+                return;
+            }
+        }
     }
 
     /**
@@ -38,22 +215,73 @@ class Board {
      *  1) P P P P P P P P
      *  0) R N B Q K B N R
      *     0 1 2 3 4 5 6 7
-     * Where spaces[4][0] == 'K'
+     * Where getBoard()[4][0] == 'K'
      */
     private void setupBoard() {
-        char[] setup = {'r', 'n', 'b', 'q', 'k', 'b', 'n', 'r'};
+        Piece[] setup = {Piece.ROOK, Piece.KNIGHT, Piece.BISHOP, Piece.QUEEN,
+            Piece.KING, Piece.BISHOP, Piece.KNIGHT, Piece.ROOK};
         for (int i = 0; i < SIZE; i++) {
-            spaces[i][7] = setup[i];
-            spaces[i][6] = 'p';
-            spaces[i][1] = 'P';
-            spaces[i][0] = Character.toUpperCase(setup[i]);
+            place(squareToInteger(i, 7), PieceCode.of(setup[i], false));
+            place(squareToInteger(i, 6), PieceCode.of(Piece.PAWN, false));
+            place(squareToInteger(i, 1), PieceCode.of(Piece.PAWN, true));
+            place(squareToInteger(i, 0), PieceCode.of(setup[i], true));
         }
     }
 
+    /**
+     * @return char[][] a copy of the board with a piece character (or 0) per
+     * square, for code that still wants the board as characters. Prefer
+     * getPosition(), which doesn't copy
+     */
     char[][] getBoard() {
+        char[][] spaces = new char[SIZE][SIZE];
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            spaces[squareX(square)][squareY(square)] = PieceCode.toChar(squares[square]);
+        }
         return spaces;
     }
 
+    /**
+     * @return int the PieceCode on the square
+     */
+    int getCode(int square) {
+        return squares[square];
+    }
+
+    ChessClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Charges every move from now on to the clock. Pass null for an untimed game.
+     */
+    void setClock(ChessClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return String the position in Forsyth-Edwards Notation, which is enough
+     * to rebuild an identical Board with Board(String)
+     */
+    String toFen() {
+        return position.toFen();
+    }
+
+    /**
+     * @return Position an immutable snapshot of the board as of the last move.
+     * Safe to hand to other threads; a new one is published after every move
+     * rather than this one changing.
+     */
+    Position getPosition() {
+        return position;
+    }
+
+    private void publishPosition() {
+        position = new Position(squares, whiteTurn, castling, castlingRooks, enPassant,
+            whiteAttack, blackAttack, whiteInCheck, blackInCheck,
+            movesSincePawnOrCapture, fullMoves);
+    }
+
     boolean getTurn() {
         return whiteTurn;
     }
@@ -76,26 +304,78 @@ class Board {
         return -1;
     }
 
+    static int squareX(int square) {
+        return square >>> 3;
+    }
+
+    static int squareY(int square) {
+        return square & 7;
+    }
+
+    /**
+     * Allocates; squareX and squareY don't.
+     */
     static int[] integerToSquare(int i) {
-        return new int[]{i / SIZE, i % SIZE};
+        return new int[]{squareX(i), squareY(i)};
     }
 
-    private boolean onBoard(int x, int y) {
+    private static boolean onBoard(int x, int y) {
         return 0 <= x && x < SIZE
                 && 0 <= y && y < SIZE;
     }
 
+    /**
+     * @return long a mask of the squares a knight on the square jumps to
+     */
+    static long knightTargets(int square) {
+        return KNIGHT_TARGETS[square];
+    }
+
+    /**
+     * @return long a mask of the squares next to the square
+     */
+    static long kingTargets(int square) {
+        return KING_TARGETS[square];
+    }
+
+    /**
+     * Slides from the square along rook lines if straight, otherwise bishop
+     * lines, stopping at the edge or at the first square in blockers.
+     *
+     * @return long a mask of the squares passed over, including the blockers
+     * that were hit
+     */
+    static long slide(int square, boolean straight, long blockers) {
+        long squares = 0;
+        for (int d = straight ? 0 : 4; d < (straight ? 4 : 8); d++) {
+            int currX = squareX(square) + DX[d];
+            int currY = squareY(square) + DY[d];
+            while (onBoard(currX, currY)) {
+                int target = squareToInteger(currX, currY);
+                squares |= 1L << target;
+                if ((blockers >>> target & 1) != 0) {
+                    break;
+                }
+                currX += DX[d];
+                currY += DY[d];
+            }
+        }
+        return squares;
+    }
+
     GameStatus getGameStatus() {
+        if (clock != null && clock.hasFlagged(whiteTurn)) {
+            return whiteTurn ? GameStatus.BLACK_WON_ON_TIME : GameStatus.WHITE_WON_ON_TIME;
+        }
+
         // If there exist possible moves for the current color then the game is
         // either drawn by the 50 move rule or is still in progress
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                if (spaces[x][y] != 0 && whiteTurn == Character.isUpperCase(spaces[x][y]) && getLegalMoves(x, y).size() > 0) {
-                    if (movesSincePawnOrCapture == 100) {
-                        return GameStatus.DRAW;
-                    }
-                    return GameStatus.IN_PROGRESS;
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            if (isOwn(square) && getLegalMoves(square) != 0) {
+                if (movesSincePawnOrCapture == 100) {
+                    return GameStatus.DRAW;
                 }
+                return GameStatus.IN_PROGRESS;
             }
         }
 
@@ -108,46 +388,87 @@ class Board {
         return GameStatus.STALEMATE;
     }
 
+    private boolean isOwn(int square) {
+        int code = squares[square];
+        return code != PieceCode.EMPTY && whiteTurn == PieceCode.isWhite(code);
+    }
+
     private void updateAttack() {
+        Metrics.begin();
+        try {
+            computeAttack();
+        } finally {
+            Metrics.end(Metrics.Operation.UPDATE_ATTACK);
+        }
+    }
+
+    private void computeAttack() {
         int whiteKing = -1;
         int blackKing = -1;
-        whiteAttack = new HashSet<>();
-        blackAttack = new HashSet<>();
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                switch (spaces[x][y]) {
-                    case 'K':
-                        whiteKing = squareToInteger(x, y);
-                        break;
-                    case 'k':
-                        blackKing = squareToInteger(x, y);
-                        break;
+        whiteAttack = 0;
+        blackAttack = 0;
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            int code = squares[square];
+            if (code == PieceCode.EMPTY) {
+                continue;
+            }
+            if (PieceCode.type(code) == PieceCode.KING) {
+                if (PieceCode.isWhite(code)) {
+                    whiteKing = square;
+                } else {
+                    blackKing = square;
                 }
+            }
 
-                Set<Integer> moves = getAttackingSquares(x, y);
-                if (!moves.isEmpty()) {
-                    if (Character.isUpperCase(spaces[x][y])) {
-                        whiteAttack.addAll(moves);
-                    } else {
-                        blackAttack.addAll(moves);
-                    }
-                }
+            if (PieceCode.isWhite(code)) {
+                whiteAttack |= getAttackingSquares(square);
+            } else {
+                blackAttack |= getAttackingSquares(square);
             }
         }
 
-        whiteInCheck = blackAttack.contains(whiteKing);
-        blackInCheck = whiteAttack.contains(blackKing);
+        whiteInCheck = whiteKing != -1 && (blackAttack >>> whiteKing & 1) != 0;
+        blackInCheck = blackKing != -1 && (whiteAttack >>> blackKing & 1) != 0;
     }
 
     Set<Integer> getAttacking(boolean isWhite) {
-        if (isWhite) {
-            return whiteAttack;
+        Set<Integer> attacking = new HashSet<>();
+        for (long mask = getAttackMask(isWhite); mask != 0; mask &= mask - 1) {
+            attacking.add(Long.numberOfTrailingZeros(mask));
         }
-        return blackAttack;
+        return attacking;
+    }
+
+    /**
+     * @return long a mask with bit n set if the side attacks square n
+     */
+    long getAttackMask(boolean isWhite) {
+        return isWhite ? whiteAttack : blackAttack;
+    }
+
+    /**
+     * @return long a mask of the squares the piece on the square attacks, or 0
+     * if it's empty
+     */
+    long getAttackMask(int square) {
+        return getAttackingSquares(square);
+    }
+
+    boolean isInCheck(boolean isWhite) {
+        return isWhite ? whiteInCheck : blackInCheck;
     }
 
     boolean doesPromote(int startX, int startY, int destY) {
-        return (Character.toLowerCase(spaces[startX][startY]) == 'p') && (destY == 0 || destY == SIZE - 1);
+        return PieceCode.type(squares[squareToInteger(startX, startY)]) == PieceCode.PAWN
+            && (destY == 0 || destY == SIZE - 1);
+    }
+
+    /**
+     * @return boolean if a pawn may promote to the piece: a queen, rook,
+     * bishop or knight
+     */
+    static boolean canPromoteTo(Piece piece) {
+        return piece == Piece.QUEEN || piece == Piece.ROOK || piece == Piece.BISHOP || piece == Piece.KNIGHT;
     }
 
     boolean move(int startX, int startY, int destX, int destY) {
@@ -157,73 +478,292 @@ class Board {
     /**
      * Makes the move of the piece from (startX, startY) to (destX, destY) and
      * then promotes the piece to promoteTo if it is a pawn that has reached the
-     * other end. Only does the move if it is valid
+     * other end. Only does the move if it is valid and, in a timed game, the
+     * mover still has time on their clock
      *
      * @return boolean if the move was valid and thus changed the board
      */
     boolean move(int startX, int startY, int destX, int destY, Piece promoteTo) {
+        Metrics.begin();
+        try {
+            return makeMove(startX, startY, destX, destY, promoteTo);
+        } finally {
+            Metrics.end(Metrics.Operation.BOARD_MOVE);
+        }
+    }
+
+    private boolean makeMove(int startX, int startY, int destX, int destY, Piece promoteTo) {
         // Check for validity
         if (!isValidMove(startX, startY, destX, destY)) {
             return false;
         }
+        if (doesPromote(startX, startY, destY) && !canPromoteTo(promoteTo)) {
+            return false;
+        }
+        if (clock != null && !clock.press(whiteTurn)) {
+            return false;
+        }
 
-        updateCastling(startX, startY);
+        int start = squareToInteger(startX, startY);
+        int dest = squareToInteger(destX, destY);
+        int code = squares[start];
+
+        Undo undo = new Undo(this, start);
+        if (history.size() == MAX_UNDO) {
+            history.removeFirst();
+        }
+        history.addLast(undo);
+        updateCastling(start, dest);
 
         // Make the update
         enPassant = -1;
         movesSincePawnOrCapture++;
-        if (spaces[destX][destY] != 0) {
-            movesSincePawnOrCapture = 0;
-        }
 
-        Piece piece = Piece.fromChar(spaces[startX][startY]);
+        int type = PieceCode.type(code);
+        int rook = PieceCode.EMPTY;
 
-        if (piece == Piece.KING && Math.abs(startX - destX) == 2) {
-            // castle
-            int rookX = (startX > destX ? 0 : SIZE - 1);
-            spaces[(startX + destX) / 2][startY] = spaces[rookX][startY];
-            spaces[rookX][startY] = 0;
+        if (type == PieceCode.KING && (Math.abs(startX - destX) == 2
+                || squares[dest] != PieceCode.EMPTY && !PieceCode.areEnemies(code, squares[dest]))) {
+            // castle, the king and rook land on the same files wherever they
+            // started
+            boolean kingside = destX > startX;
+            undo.rookFrom = castlingRooks[castlingRight(whiteTurn, kingside)];
+            undo.rookTo = squareToInteger(kingside ? SIZE - 3 : 3, startY);
+            dest = squareToInteger(kingside ? SIZE - 2 : 2, startY);
+            rook = lift(undo.rookFrom);
 
-        } else if (piece == Piece.PAWN) {
+        } else if (type == PieceCode.PAWN) {
             movesSincePawnOrCapture = 0;
             if (Math.abs(startY - destY) == 2) {
                 // moved two spaces
-                enPassant = squareToInteger(destX, destY);
-            } else if (destX != startX && spaces[destX][destY] == 0) {
+                enPassant = dest;
+            } else if (destX != startX && squares[dest] == PieceCode.EMPTY) {
                 // en passant
-                spaces[destX][startY] = 0;
+                undo.capturedSquare = squareToInteger(destX, startY);
+                undo.captured = lift(undo.capturedSquare);
             } else if (destY == 0 || destY == SIZE - 1) {
                 // pawn promotion
-                spaces[startX][startY] = promoteTo.toChar(whiteTurn);
+                code = PieceCode.of(promoteTo, whiteTurn);
             }
         }
 
-        spaces[destX][destY] = spaces[startX][startY];
-        spaces[startX][startY] = 0;
+        lift(start);
+        if (squares[dest] != PieceCode.EMPTY) {
+            movesSincePawnOrCapture = 0;
+            undo.capturedSquare = dest;
+            undo.captured = lift(dest);
+        }
+        place(dest, code);
+        if (rook != PieceCode.EMPTY) {
+            place(undo.rookTo, rook);
+        }
+        undo.dest = dest;
 
+        if (CHECK_EVALUATION) {
+            checkEvaluation();
+        }
+        if (!whiteTurn) {
+            fullMoves++;
+        }
         toggleTurn();
         updateAttack();
+        publishPosition();
+        return true;
+    }
+
+    /**
+     * Takes back the last move made with move(), putting the board exactly as
+     * it was before it, without recomputing attacks or the evaluation. The
+     * clock isn't given back the time spent on the move.
+     *
+     * @return boolean false if there are no moves to take back, since the board
+     * was set up or made from a FEN or Position, or MAX_UNDO moves have
+     * already been taken back in a row
+     */
+    boolean unmove() {
+        if (history.isEmpty()) {
+            return false;
+        }
+        Undo undo = history.removeLast();
+
+        // In Chess960 the king and rook can land on each other's start
+        // squares, so both come off before either goes back
+        lift(undo.dest);
+        int rook = undo.rookFrom == -1 ? PieceCode.EMPTY : lift(undo.rookTo);
+        place(undo.start, undo.moved);
+        if (rook != PieceCode.EMPTY) {
+            place(undo.rookFrom, rook);
+        }
+        if (undo.captured != PieceCode.EMPTY) {
+            place(undo.capturedSquare, undo.captured);
+        }
+
+        whiteTurn = !whiteTurn;
+        castling = undo.castling;
+        enPassant = undo.enPassant;
+        whiteAttack = undo.whiteAttack;
+        blackAttack = undo.blackAttack;
+        whiteInCheck = undo.whiteInCheck;
+        blackInCheck = undo.blackInCheck;
+        movesSincePawnOrCapture = undo.movesSincePawnOrCapture;
+        fullMoves = undo.fullMoves;
+        position = undo.position;
+
+        if (CHECK_EVALUATION) {
+            checkEvaluation();
+        }
         return true;
     }
 
-    private void updateCastling(int startX, int startY) {
-        if (startY == 0) {
-            if (spaces[startX][startY] == 'K') {
-                castleWK = false;
-                castleWQ = false;
-            } else if (startX == 0) {
-                castleWQ = false;
-            } else if (startX == SIZE) {
-                castleWK = false;
+    /**
+     * @return int how many moves unmove() can take back
+     */
+    int getUndoCount() {
+        return history.size();
+    }
+
+    /**
+     * Puts the piece on the empty square and adds its evaluation terms.
+     */
+    private void place(int square, int code) {
+        squares[square] = (byte) code;
+        material += Evaluation.material(code);
+        middlegame += Evaluation.middlegame(code, square);
+        endgame += Evaluation.endgame(code, square);
+        phase += Evaluation.phase(code);
+    }
+
+    /**
+     * Takes the piece off the square and subtracts its evaluation terms.
+     *
+     * @return int the PieceCode that was on the square
+     */
+    private int lift(int square) {
+        int code = squares[square];
+        squares[square] = PieceCode.EMPTY;
+        material -= Evaluation.material(code);
+        middlegame -= Evaluation.middlegame(code, square);
+        endgame -= Evaluation.endgame(code, square);
+        phase -= Evaluation.phase(code);
+        return code;
+    }
+
+    private void checkEvaluation() {
+        int m = 0, mg = 0, eg = 0, p = 0;
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            int code = squares[square];
+            if (code != PieceCode.EMPTY) {
+                m += Evaluation.material(code);
+                mg += Evaluation.middlegame(code, square);
+                eg += Evaluation.endgame(code, square);
+                p += Evaluation.phase(code);
             }
-        } else if (startY == SIZE) {
-            if (spaces[startX][startY] == 'k') {
-                castleBK = false;
-                castleBQ = false;
-            } else if (startX == 0) {
-                castleBQ = false;
-            } else if (startX == SIZE) {
-                castleBK = false;
+        }
+        if (m != material || mg != middlegame || eg != endgame || p != phase) {
+            throw new IllegalStateException(String.format(
+                "Evaluation drifted: material %d/%d middlegame %d/%d endgame %d/%d phase %d/%d",
+                material, m, middlegame, mg, endgame, eg, phase, p));
+        }
+    }
+
+    /**
+     * @return int the material balance in centipawns, positive when white is
+     * ahead
+     */
+    int getMaterial() {
+        return material;
+    }
+
+    int getMiddlegameScore() {
+        return middlegame;
+    }
+
+    int getEndgameScore() {
+        return endgame;
+    }
+
+    /**
+     * @return int Evaluation.MAX_PHASE with all the pieces on, down to 0 with
+     * only kings and pawns
+     */
+    int getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return int the tapered static evaluation in centipawns, positive when
+     * white is better
+     */
+    int getEvaluation() {
+        return Evaluation.taper(middlegame, endgame, phase);
+    }
+
+    /**
+     * @return int the index of the castling right's bit, which is also its
+     * rook's index in castlingRooks
+     */
+    static int castlingRight(boolean isWhite, boolean kingside) {
+        return (isWhite ? 0 : 2) + (kingside ? 0 : 1);
+    }
+
+    /**
+     * Adds the castling right for a letter of a FEN castling field.
+     *
+     * @return boolean false if the letter isn't a castling right
+     */
+    private boolean addCastlingRight(char c) {
+        boolean isWhite = Character.isUpperCase(c);
+        char letter = Character.toUpperCase(c);
+        int y = isWhite ? 0 : SIZE - 1;
+        int rookCode = PieceCode.of(Piece.ROOK, isWhite);
+        int king = findKing(isWhite);
+        if (king == -1 || squareY(king) != y) {
+            return letter == 'K' || letter == 'Q' || ('A' <= letter && letter <= 'H');
+        }
+
+        int rook = -1;
+        if (letter == 'K' || letter == 'Q') {
+            // The outermost rook on that side of the king
+            boolean kingside = letter == 'K';
+            for (int x = squareX(king); 0 <= x && x < SIZE; x += kingside ? 1 : -1) {
+                if (squares[squareToInteger(x, y)] == rookCode) {
+                    rook = squareToInteger(x, y);
+                }
+            }
+        } else if ('A' <= letter && letter <= 'H') {
+            int square = squareToInteger(letter - 'A', y);
+            if (squares[square] == rookCode && square != king) {
+                rook = square;
+            }
+        } else {
+            return false;
+        }
+
+        if (rook != -1) {
+            int right = castlingRight(isWhite, rook > king);
+            castling |= 1 << right;
+            castlingRooks[right] = rook;
+        }
+        return true;
+    }
+
+    /**
+     * Takes away the rights the move loses: all of the mover's if it's the
+     * king, and the right of any rook that leaves or is taken on its square.
+     */
+    private void updateCastling(int start, int dest) {
+        if (castling == 0) {
+            return;
+        }
+        int code = squares[start];
+        if (PieceCode.type(code) == PieceCode.KING) {
+            castling &= PieceCode.isWhite(code)
+                ? ~(Position.WHITE_KINGSIDE | Position.WHITE_QUEENSIDE)
+                : ~(Position.BLACK_KINGSIDE | Position.BLACK_QUEENSIDE);
+        }
+        for (int right = 0; right < castlingRooks.length; right++) {
+            if (castlingRooks[right] == start || castlingRooks[right] == dest) {
+                castling &= ~(1 << right);
             }
         }
     }
@@ -232,250 +772,414 @@ class Board {
      * @return boolean if the piece can go from (startX, startY) to (destX, destY)
      */
     private boolean isValidMove(int startX, int startY, int destX, int destY) {
-
-        if (spaces[startX][startY] == 0
-                || whiteTurn != Character.isUpperCase(spaces[startX][startY])) {
+        int start = squareToInteger(startX, startY);
+        if (!isOwn(start)) {
             return false;
         }
 
-        return getLegalMoves(startX, startY).contains(squareToInteger(destX, destY));
+        return (getLegalMoves(start) >>> squareToInteger(destX, destY) & 1) != 0;
     }
 
     /**
-     * @return Set<Integer> a nonnull set of integers corresponding to the
-     * squares that the starting square can legally go to
+     * @return List<int[]> every legal move for the side to move, each as
+     * {startX, startY, destX, destY}
      */
-    private Set<Integer> getLegalMoves(int startX, int startY) {
-        Set<Integer> possibleMoves = getPossibleMoves(startX, startY);
-        Set<Integer> legalMoves = new HashSet<>();
-
-        for (int pm : possibleMoves) {
-            int[] pmSquare = integerToSquare(pm);
-            int destX = pmSquare[0];
-            int destY = pmSquare[1];
+    List<int[]> getAllLegalMoves() {
+        List<int[]> moves = new ArrayList<>();
+        for (int start = 0; start < SIZE * SIZE; start++) {
+            if (isOwn(start)) {
+                for (long legal = getLegalMoves(start); legal != 0; legal &= legal - 1) {
+                    int dest = Long.numberOfTrailingZeros(legal);
+                    moves.add(new int[]{squareX(start), squareY(start), squareX(dest), squareY(dest)});
+                }
+            }
+        }
+        return moves;
+    }
 
-            char[][] temp = new char[SIZE][];
-            for (int x = 0; x < SIZE; x++) {
-                temp[x] = spaces[x].clone();
+    /**
+     * @return int how many legal moves the side to move has, without building
+     * the moves themselves
+     */
+    int getLegalMoveCount() {
+        int count = 0;
+        for (int start = 0; start < SIZE * SIZE; start++) {
+            if (isOwn(start)) {
+                count += Long.bitCount(getLegalMoves(start));
             }
+        }
+        return count;
+    }
+
+    /**
+     * Tries each possible move on the board in place, and undoes it after
+     * checking whether it leaves the mover's king attacked.
+     *
+     * @return long a mask of the squares the piece on start can legally go to
+     */
+    private long getLegalMoves(int start) {
+        Metrics.begin();
+        try {
+            return findLegalMoves(start);
+        } finally {
+            Metrics.end(Metrics.Operation.LEGAL_MOVES);
+        }
+    }
 
-            if (Piece.fromChar(spaces[startX][startY]) == Piece.PAWN
-                    && destX != startX
-                    && spaces[destX][destY] == 0) {
+    private long findLegalMoves(int start) {
+        long possibleMoves = getPossibleMoves(start);
+        long legalMoves = 0;
+
+        byte code = squares[start];
+        boolean isWhite = PieceCode.isWhite(code);
+        boolean isKing = PieceCode.type(code) == PieceCode.KING;
+        int king = isKing ? start : findKing(isWhite);
+
+        for (long pm = possibleMoves; pm != 0; pm &= pm - 1) {
+            int dest = Long.numberOfTrailingZeros(pm);
+            byte captured = squares[dest];
+
+            int passed = -1;
+            byte passedCode = PieceCode.EMPTY;
+            if (PieceCode.type(code) == PieceCode.PAWN
+                    && squareX(dest) != squareX(start)
+                    && captured == PieceCode.EMPTY) {
                 // en passant
-                spaces[destX][startY] = 0;
+                passed = squareToInteger(squareX(dest), squareY(start));
+                passedCode = squares[passed];
+                squares[passed] = PieceCode.EMPTY;
             }
 
-            spaces[destX][destY] = spaces[startX][startY];
-            spaces[startX][startY] = 0;
+            squares[dest] = code;
+            squares[start] = PieceCode.EMPTY;
 
-            int king = -1;
-            Set<Integer> attacked = new HashSet<>();
-            for (int x = 0; x < SIZE; x++) {
-                for (int y = 0; y < SIZE; y++) {
-                    if (spaces[x][y] == (whiteTurn ? 'K' : 'k')) {
-                        king = squareToInteger(x, y);
-                    }
+            int kingNow = isKing ? dest : king;
+            if (kingNow == -1 || !isAttacked(kingNow, !isWhite)) {
+                legalMoves |= 1L << dest;
+            }
 
-                    Set<Integer> moves = getPossibleMoves(x, y);
-                    if (!moves.isEmpty() && whiteTurn != Piece.isWhite(spaces[x][y])) {
-                        attacked.addAll(moves);
-                    }
-                }
+            squares[start] = code;
+            squares[dest] = captured;
+            if (passed != -1) {
+                squares[passed] = passedCode;
             }
+        }
+        if (isKing) {
+            legalMoves |= getCastlingMoves(start);
+        }
+        return legalMoves;
+    }
+
+    private int findKing(boolean isWhite) {
+        int king = PieceCode.of(Piece.KING, isWhite);
+        for (int square = 0; square < SIZE * SIZE; square++) {
+            if (squares[square] == king) {
+                return square;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return boolean if any piece of the given color could capture on the
+     * square, looking outward from the square rather than generating every
+     * move of that color
+     */
+    private boolean isAttacked(int square, boolean byWhite) {
+        int color = byWhite ? 0 : PieceCode.BLACK;
+        int x = squareX(square);
+        int y = squareY(square);
 
-            for (int x = 0; x < SIZE; x++) {
-                spaces[x] = temp[x].clone();
+        int pawnY = y - (byWhite ? 1 : -1);
+        for (int dx = -1; dx <= 1; dx += 2) {
+            if (onBoard(x + dx, pawnY)
+                    && squares[squareToInteger(x + dx, pawnY)] == (PieceCode.PAWN | color)) {
+                return true;
             }
+        }
 
-            if (!attacked.contains(king)) {
-                legalMoves.add(pm);
+        if (anyOn(KNIGHT_TARGETS[square], PieceCode.KNIGHT | color)
+                || anyOn(KING_TARGETS[square], PieceCode.KING | color)) {
+            return true;
+        }
+
+        for (int d = 0; d < DX.length; d++) {
+            int slider = (d < 4 ? PieceCode.ROOK : PieceCode.BISHOP) | color;
+            int currX = x + DX[d];
+            int currY = y + DY[d];
+            while (onBoard(currX, currY)) {
+                int code = squares[squareToInteger(currX, currY)];
+                if (code != PieceCode.EMPTY) {
+                    if (code == slider || code == (PieceCode.QUEEN | color)) {
+                        return true;
+                    }
+                    break;
+                }
+                currX += DX[d];
+                currY += DY[d];
             }
         }
-        return legalMoves;
+        return false;
     }
 
-    private Set<Integer> getAttackingSquares(int x, int y) {
-        char piece = spaces[x][y];
-        if (piece == 0) {
-            return new HashSet<>();
+    private boolean anyOn(long mask, int code) {
+        for (; mask != 0; mask &= mask - 1) {
+            if (squares[Long.numberOfTrailingZeros(mask)] == code) {
+                return true;
+            }
         }
-        if (Piece.fromChar(piece) == Piece.PAWN) {
-            return getPawnAttackingSquares(x, y);
+        return false;
+    }
+
+    /**
+     * @return long a mask of the squares the piece on the square can capture
+     * on or see into. Castling isn't an attack so kings only count their steps
+     */
+    private long getAttackingSquares(int square) {
+        int code = squares[square];
+        switch (PieceCode.type(code)) {
+            case PieceCode.EMPTY:
+                return 0;
+            case PieceCode.PAWN:
+                return getPawnAttackingSquares(square);
+            case PieceCode.KING:
+                return getStepMoves(square, KING_TARGETS[square]);
+            default:
+                return getPossibleMoves(square);
         }
-        return getPossibleMoves(x, y);
     }
 
-    private Set<Integer> getPawnAttackingSquares(int x, int y) {
-        Set<Integer> attacking = new HashSet<>();
-        boolean isWhite = Piece.isWhite(spaces[x][y]);
-        int dy = (isWhite ? 1 : -1);
-        int currY = y + dy;
+    private long getPawnAttackingSquares(int square) {
+        long attacking = 0;
+        int code = squares[square];
+        int x = squareX(square);
+        int currY = squareY(square) + (PieceCode.isWhite(code) ? 1 : -1);
 
         for (int dx = -1; dx <= 1; dx += 2) {
             int currX = x + dx;
-            if (onBoard(currX, currY)
-                    && (spaces[currX][currY] == 0 || isWhite != Piece.isWhite(spaces[currX][currY]))) {
-                attacking.add(squareToInteger(currX, currY));
+            if (onBoard(currX, currY)) {
+                int target = squareToInteger(currX, currY);
+                if (squares[target] == PieceCode.EMPTY || PieceCode.areEnemies(code, squares[target])) {
+                    attacking |= 1L << target;
+                }
             }
         }
 
         return attacking;
     }
 
-    private Set<Integer> getPossibleMoves(int x, int y) {
-        char piece = spaces[x][y];
-        if (piece == 0) {
-            return new HashSet<>();
-        }
-        switch (Piece.fromChar(piece)) {
-            case PAWN:
-                return getPossiblePawnMoves(x, y);
-            case KNIGHT:
-                return getPossibleKnightMoves(x, y);
-            case BISHOP:
-                return getPossibleBishopMoves(x, y);
-            case ROOK:
-                return getPossibleRookMoves(x, y);
-            case QUEEN:
-                return getPossibleQueenMoves(x, y);
-            case KING:
-                return getPossibleKingMoves(x, y);
+    private long getPossibleMoves(int square) {
+        switch (PieceCode.type(squares[square])) {
+            case PieceCode.PAWN:
+                return getPossiblePawnMoves(square);
+            case PieceCode.KNIGHT:
+                return getStepMoves(square, KNIGHT_TARGETS[square]);
+            case PieceCode.BISHOP:
+                return getSlidingMoves(square, 4, 8);
+            case PieceCode.ROOK:
+                return getSlidingMoves(square, 0, 4);
+            case PieceCode.QUEEN:
+                return getSlidingMoves(square, 0, 8);
+            case PieceCode.KING:
+                return getStepMoves(square, KING_TARGETS[square]);
             default:
-                return new HashSet<>();
+                return 0;
         }
     }
 
-    private Set<Integer> getPossiblePawnMoves(int x, int y) {
-        Set<Integer> possibleMoves = new HashSet<>();
-        boolean isWhite = Piece.isWhite(spaces[x][y]);
+    private long getPossiblePawnMoves(int square) {
+        long possibleMoves = 0;
+        int code = squares[square];
+        boolean isWhite = PieceCode.isWhite(code);
+        int x = squareX(square);
+        int y = squareY(square);
         int dy = (isWhite ? 1 : -1);
         int startY = (isWhite ? 1 : 6);
         int currY = y + dy;
-        if (onBoard(x, currY) && spaces[x][currY] == 0) {
-            possibleMoves.add(squareToInteger(x, currY));
-        }
-        if (possibleMoves.size() > 0 && y == startY && spaces[x][y + 2 * dy] == 0) {
-            possibleMoves.add(squareToInteger(x, currY + dy));
+        if (onBoard(x, currY) && squares[squareToInteger(x, currY)] == PieceCode.EMPTY) {
+            possibleMoves |= 1L << squareToInteger(x, currY);
+            if (y == startY && squares[squareToInteger(x, currY + dy)] == PieceCode.EMPTY) {
+                possibleMoves |= 1L << squareToInteger(x, currY + dy);
+            }
         }
 
         for (int dx = -1; dx <= 1; dx += 2) {
             int currX = x + dx;
-            if (onBoard(currX, currY)
-                    && ((spaces[currX][currY] != 0 && isWhite != Piece.isWhite(spaces[currX][currY]))
-                    || (spaces[currX][currY] == 0 && squareToInteger(currX, y) == enPassant))) {
-                possibleMoves.add(squareToInteger(currX, currY));
+            if (onBoard(currX, currY)) {
+                int target = squareToInteger(currX, currY);
+                if (PieceCode.areEnemies(code, squares[target])
+                        || (squares[target] == PieceCode.EMPTY && squareToInteger(currX, y) == enPassant)) {
+                    possibleMoves |= 1L << target;
+                }
             }
         }
         return possibleMoves;
     }
 
-    private Set<Integer> getPossibleKnightMoves(int x, int y) {
-        Set<Integer> possibleMoves = new HashSet<>();
-        for (int dx = -2; dx <= 2; dx++) {
-            for (int dy = -2; dy <= 2; dy++) {
-                if (dx != dy && dx != 0 && dy != 0 && dx + dy != 0) {
-                    int currX = x + dx;
-                    int currY = y + dy;
-                    if (onBoard(currX, currY) && (spaces[currX][currY] == 0
-                            || whiteTurn != Character.isUpperCase(spaces[currX][currY]))) {
-                        possibleMoves.add(squareToInteger(currX, currY));
-                    }
-                }
-
+    /**
+     * @return long the targets that are empty or hold an enemy of the piece
+     */
+    private long getStepMoves(int square, long targets) {
+        int code = squares[square];
+        long possibleMoves = 0;
+        for (; targets != 0; targets &= targets - 1) {
+            int target = Long.numberOfTrailingZeros(targets);
+            if (squares[target] == PieceCode.EMPTY || PieceCode.areEnemies(code, squares[target])) {
+                possibleMoves |= 1L << target;
             }
         }
         return possibleMoves;
     }
 
-    private Set<Integer> getPossibleRookMoves(int x, int y) {
-        return getPossibleBishopRookQueenMoves(x, y, false, true);
-    }
-
-    private Set<Integer> getPossibleBishopMoves(int x, int y) {
-        return getPossibleBishopRookQueenMoves(x, y, true, false);
-    }
-
-    private Set<Integer> getPossibleQueenMoves(int x, int y) {
-        return getPossibleBishopRookQueenMoves(x, y, true, true);
-    }
-
-    private Set<Integer> getPossibleBishopRookQueenMoves(int x, int y, boolean isBishop, boolean isRook) {
-        Set<Integer> possibleMoves = new HashSet<>();
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                if ((dx != 0 || dy != 0)
-                        && ((isBishop && Math.abs(dx) == Math.abs(dy))
-                        || (isRook && Math.abs(dx) != Math.abs(dy)))) {
-                    int currX = x;
-                    int currY = y;
-                    boolean stop = false;
-                    while (!stop) {
-                        currX += dx;
-                        currY += dy;
-                        if (onBoard(currX, currY)) {
-                            if (spaces[currX][currY] == 0) {
-                                possibleMoves.add(squareToInteger(currX, currY));
-                            } else {
-                                stop = true;
-                                if (Character.isUpperCase(spaces[x][y]) != Character.isUpperCase(spaces[currX][currY])) {
-                                    possibleMoves.add(squareToInteger(currX, currY));
-                                }
-                            }
-                        } else {
-                            stop = true;
-                        }
+    /**
+     * Slides along the DX/DY directions from firstDirection up to (not
+     * including) lastDirection until hitting the edge or a piece, which is
+     * included if it's an enemy.
+     */
+    private long getSlidingMoves(int square, int firstDirection, int lastDirection) {
+        int code = squares[square];
+        int x = squareX(square);
+        int y = squareY(square);
+        long possibleMoves = 0;
+        for (int d = firstDirection; d < lastDirection; d++) {
+            int currX = x + DX[d];
+            int currY = y + DY[d];
+            while (onBoard(currX, currY)) {
+                int target = squareToInteger(currX, currY);
+                if (squares[target] == PieceCode.EMPTY) {
+                    possibleMoves |= 1L << target;
+                } else {
+                    if (PieceCode.areEnemies(code, squares[target])) {
+                        possibleMoves |= 1L << target;
                     }
+                    break;
                 }
+                currX += DX[d];
+                currY += DY[d];
             }
         }
         return possibleMoves;
     }
 
-    private Set<Integer> getPossibleKingMoves(int x, int y) {
-        Set<Integer> possibleMoves = new HashSet<>();
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int currX = x + dx;
-                int currY = y + dy;
-                if ((dx != 0 || dy != 0)
-                        && onBoard(currX, currY)
-                        && (spaces[currX][currY] == 0
-                        || whiteTurn != Character.isUpperCase(spaces[currX][currY]))) {
-                    possibleMoves.add(squareToInteger(currX, currY));
-                }
-            }
+    /**
+     * Castling is shown as the king moving two squares when the king and rook
+     * start where they do in a standard game, so the moves players already
+     * send keep working. Otherwise, as in Chess960 where the king might move
+     * one square or none, it's shown as the king moving onto its own rook.
+     *
+     * @return long a mask of where the king can be moved to castle, already
+     * checked to be legal
+     */
+    private long getCastlingMoves(int king) {
+        boolean isWhite = PieceCode.isWhite(squares[king]);
+        int first = castlingRight(isWhite, true);
+        if ((castling >>> first & 3) == 0 || (isWhite ? whiteInCheck : blackInCheck)) {
+            return 0;
         }
 
-        Set<Integer> attacked = (whiteTurn ? blackAttack : whiteAttack);
-
-        boolean kingInCheck = (whiteTurn ? whiteInCheck : blackInCheck);
-        boolean castleK = !kingInCheck && (whiteTurn ? castleWK : castleBK);
-        boolean castleQ = !kingInCheck && (whiteTurn ? castleWQ : castleBQ);
-
-        for (int currX = x + 1; castleK && currX < SIZE - 1; currX++) {
-            if (spaces[currX][y] != 0
-                    || (currX - x <= 2
-                    && attacked.contains(squareToInteger(currX, y)))) {
-                castleK = false;
+        long moves = 0;
+        for (int right = first; right < first + 2; right++) {
+            if ((castling >>> right & 1) == 0 || !canCastle(king, right)) {
+                continue;
+            }
+            int rook = castlingRooks[right];
+            boolean kingside = right == first;
+            if (squareX(king) == 4 && squareX(rook) == (kingside ? SIZE - 1 : 0)) {
+                moves |= 1L << squareToInteger(kingside ? 6 : 2, squareY(king));
+            } else {
+                moves |= 1L << rook;
             }
         }
+        return moves;
+    }
 
-        for (int currX = x - 1; castleQ && currX > 0; currX--) {
-            if (spaces[currX][y] != 0
-                    || (x - currX <= 2
-                    && attacked.contains(squareToInteger(currX, y)))) {
-                castleQ = false;
+    /**
+     * @return boolean if nothing but the king and rook is on or between the
+     * squares they start and land on, and the king doesn't pass through or
+     * land on an attacked square
+     */
+    private boolean canCastle(int king, int right) {
+        boolean kingside = (right & 1) == 0;
+        int rook = castlingRooks[right];
+        int y = squareY(king);
+        int kingX = squareX(king);
+        int rookX = squareX(rook);
+        int kingToX = kingside ? SIZE - 2 : 2;
+        int rookToX = kingside ? SIZE - 3 : 3;
+
+        int from = Math.min(Math.min(kingX, kingToX), Math.min(rookX, rookToX));
+        int to = Math.max(Math.max(kingX, kingToX), Math.max(rookX, rookToX));
+        for (int x = from; x <= to; x++) {
+            int square = squareToInteger(x, y);
+            if (squares[square] != PieceCode.EMPTY && square != king && square != rook) {
+                return false;
             }
         }
 
-        if (castleK) {
-            possibleMoves.add(squareToInteger(x + 2, y));
+        int step = kingToX > kingX ? 1 : -1;
+        long path = 0;
+        for (int x = kingX; x != kingToX + step; x += step) {
+            path |= 1L << squareToInteger(x, y);
+        }
+        boolean isWhite = PieceCode.isWhite(squares[king]);
+        if (((isWhite ? blackAttack : whiteAttack) & path) != 0) {
+            return false;
         }
-        if (castleQ) {
-            possibleMoves.add(squareToInteger(x - 2, y));
+        if (kingX == 4 && rookX == (kingside ? SIZE - 1 : 0)) {
+            // Anything the king or rook blocks from the path would be giving
+            // check already, so the attack masks are enough
+            return true;
         }
 
-        return possibleMoves;
+        // Otherwise the rook might be blocking an attack on the path, so check
+        // again with both off the board
+        byte kingCode = squares[king];
+        byte rookCode = squares[rook];
+        squares[king] = PieceCode.EMPTY;
+        squares[rook] = PieceCode.EMPTY;
+        boolean safe = true;
+        for (long p = path; safe && p != 0; p &= p - 1) {
+            safe = !isAttacked(Long.numberOfTrailingZeros(p), !isWhite);
+        }
+        squares[king] = kingCode;
+        squares[rook] = rookCode;
+        return safe;
+    }
+
+    /**
+     * The board as it was before a move, plus what the move took off and moved
+     * besides the piece itself.
+     */
+    private static class Undo {
+
+        final int start;
+        int dest;
+        final int moved;
+        int captured = PieceCode.EMPTY;
+        int capturedSquare = -1;
+        int rookFrom = -1;
+        int rookTo = -1;
+
+        final int castling;
+        final int enPassant;
+        final long whiteAttack, blackAttack;
+        final boolean whiteInCheck, blackInCheck;
+        final int movesSincePawnOrCapture;
+        final int fullMoves;
+        final Position position;
+
+        Undo(Board board, int start) {
+            this.start = start;
+            moved = board.squares[start];
+            castling = board.castling;
+            enPassant = board.enPassant;
+            whiteAttack = board.whiteAttack;
+            blackAttack = board.blackAttack;
+            whiteInCheck = board.whiteInCheck;
+            blackInCheck = board.blackInCheck;
+            movesSincePawnOrCapture = board.movesSincePawnOrCapture;
+            fullMoves = board.fullMoves;
+            position = board.position;
+        }
     }
 }
@@ -1,12 +1,137 @@
 package com.cloudydino.incognitochess;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Renders a board as text, one line for whose turn it is and one per rank.
+ * Rendering writes straight into whatever it's given, so text for logs or
+ * spectators can go into a reused StringBuilder or ByteBuffer without any
+ * console I/O. A fog of war view blanks out the squares the color can't see
+ * and is drawn from that color's side.
+ *
+ * A printer reuses its own state between calls, so give each thread its own.
+ */
 abstract class BoardPrinter {
 
     protected Board board;
+    private final Utf8Buffer bytes = new Utf8Buffer();
 
     BoardPrinter(Board board) {
         this.board = board;
     }
 
-    abstract void printBoard();
+    /**
+     * @return char what to draw for the piece character, or for 0 (empty)
+     */
+    abstract char getSymbol(char piece);
+
+    /**
+     * @return char what to draw for a square hidden by the fog
+     */
+    abstract char getHiddenSymbol();
+
+    void printBoard() {
+        try {
+            render(board.getPosition(), System.out);
+        } catch (IOException e) {
+            Log.error("Couldn't print the board: %s", e);
+        }
+    }
+
+    void render(Position position, Appendable out) throws IOException {
+        write(position, false, true, out);
+    }
+
+    /**
+     * Renders what the viewer can see.
+     */
+    void render(Position position, boolean viewer, Appendable out) throws IOException {
+        write(position, true, viewer, out);
+    }
+
+    /**
+     * Renders UTF-8 encoded into the buffer from its position on.
+     *
+     * @throws java.nio.BufferOverflowException if it doesn't fit
+     */
+    void render(Position position, ByteBuffer out) {
+        bytes.wrap(out);
+        try {
+            write(position, false, true, bytes);
+        } catch (IOException e) {
+            // Utf8Buffer doesn't throw
+        }
+    }
+
+    /**
+     * Renders what the viewer can see UTF-8 encoded into the buffer from its
+     * position on.
+     *
+     * @throws java.nio.BufferOverflowException if it doesn't fit
+     */
+    void render(Position position, boolean viewer, ByteBuffer out) {
+        bytes.wrap(out);
+        try {
+            write(position, true, viewer, bytes);
+        } catch (IOException e) {
+            // Utf8Buffer doesn't throw
+        }
+    }
+
+    private void write(Position position, boolean fog, boolean viewer, Appendable out) throws IOException {
+        out.append("Turn: ").append(position.getTurn() ? "White" : "Black").append('\n');
+
+        for (int row = 0; row < Board.SIZE; row++) {
+            int y = viewer ? Board.SIZE - 1 - row : row;
+            for (int column = 0; column < Board.SIZE; column++) {
+                int x = viewer ? column : Board.SIZE - 1 - column;
+                if (fog && !position.isVisible(viewer, Board.squareToInteger(x, y))) {
+                    out.append(getHiddenSymbol());
+                } else {
+                    out.append(getSymbol(position.get(x, y)));
+                }
+                out.append(' ');
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Appends chars to a ByteBuffer as UTF-8. Board text never has surrogate
+     * pairs, so each char is encoded on its own.
+     */
+    private static class Utf8Buffer implements Appendable {
+
+        private ByteBuffer buffer;
+
+        void wrap(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        public Appendable append(CharSequence csq, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        public Appendable append(char c) {
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+            return this;
+        }
+    }
 }
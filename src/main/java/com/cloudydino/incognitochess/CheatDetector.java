@@ -0,0 +1,447 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks through the saved games in a ResultsStore for players who play like
+ * they can see through the fog of war or have an engine helping them. Each
+ * named player's moves are summed up in a PlayerStats:
+ *
+ * - how often they played the move a Search of the whole board would, and
+ *   how many centipawns their moves lost against it on average,
+ * - how often they moved a piece out of an attack they couldn't see, since
+ *   none of the attackers stood on a square in their Board.getAttackMask,
+ *   against how often they did for attacks they could see,
+ * - how long their moves took, and how much that varied.
+ *
+ * Players are then ranked by how far their numbers stand out from everyone
+ * else's in the archive, in the direction cheating would push them.
+ *
+ * Games are read and replayed a chunk of records at a time on worker threads,
+ * with the same bounded queue as AnalysisService, so only a few chunks of
+ * games are in memory at once however big the archive is. Games saved without
+ * their moves are skipped.
+ */
+class CheatDetector implements AutoCloseable {
+
+    static final int DEFAULT_DEPTH = 2;
+    static final int DEFAULT_MIN_MOVES = 40;
+
+    // Openings are played from memory, so they say nothing about anyone
+    private static final int OPENING_PLIES = 10;
+    // Keeps a blunder from the engine's horizon from swamping the average
+    private static final int MAX_LOSS = 1000;
+    // Below this a reaction rate is too noisy to count
+    private static final int MIN_THREATS = 5;
+    private static final int CHUNK_SIZE = 16;
+    private static final int QUEUE_PER_WORKER = 4;
+
+    private final int depth;
+    private final ThreadPoolExecutor workers;
+    private final ThreadLocal<Search> searches;
+    private final Map<String, PlayerStats> players = new ConcurrentHashMap<>();
+    private final AtomicInteger games = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private int pending;
+
+    CheatDetector() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_DEPTH);
+    }
+
+    CheatDetector(int threads, int depth) {
+        this.depth = depth;
+        searches = ThreadLocal.withInitial(() -> new Search(depth));
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER),
+            r -> {
+                Thread thread = new Thread(r, "cheat-detector-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Analyzes every game in the store, adding to whatever earlier calls found,
+     * and returns once they're all done.
+     */
+    void analyze(ResultsStore store) throws InterruptedException {
+        int size = store.size();
+        for (int from = 0; from < size; from += CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(from + CHUNK_SIZE, size);
+            synchronized (this) {
+                pending++;
+            }
+            workers.execute(() -> {
+                try {
+                    analyzeRange(store, start, end);
+                } finally {
+                    synchronized (this) {
+                        pending--;
+                        notifyAll();
+                    }
+                }
+            });
+        }
+
+        synchronized (this) {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    private void analyzeRange(ResultsStore store, int from, int to) {
+        List<GameResult> results;
+        try {
+            results = store.getRange(from, to);
+        } catch (IOException e) {
+            Log.error("Couldn't read records %d to %d: %s", from, to, e);
+            skipped.addAndGet(to - from);
+            return;
+        }
+        for (GameResult result : results) {
+            if (!result.hasMoves() || (result.getWhite().isEmpty() && result.getBlack().isEmpty())) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            try {
+                analyze(result);
+                games.incrementAndGet();
+            } catch (IllegalArgumentException e) {
+                Log.warn("Skipping %s: %s", result, e.getMessage());
+                skipped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Replays the game, comparing every move after the opening with the
+     * engine's and checking whether it dodged an attack, then adds what it
+     * found to both players' totals.
+     *
+     * @throws IllegalArgumentException if the game can't be replayed
+     */
+    void analyze(GameResult result) {
+        Search search = searches.get();
+        PlayerStats white = new PlayerStats(result.getWhite());
+        PlayerStats black = new PlayerStats(result.getBlack());
+        Board board = new Board(result.getStart());
+        int[] moves = result.getMoves();
+
+        for (int ply = 0; ply < moves.length; ply++) {
+            boolean mover = board.getTurn();
+            PlayerStats stats = mover ? white : black;
+            int[] move = MoveLog.unpackMove(moves[ply]);
+
+            boolean counts = ply >= OPENING_PLIES && board.getLegalMoveCount() > 1;
+            if (counts) {
+                int[] best = search.bestMove(board);
+                boolean matched = best[1] == move[0] && best[2] == move[1]
+                    && best[3] == move[2] && best[4] == move[3];
+                int loss = matched ? 0 : best[0] - search.score(board, move);
+                stats.addMove(matched, Math.max(0, Math.min(loss, MAX_LOSS)));
+                stats.addTime(result.getMoveMillis(ply));
+            }
+
+            int threatened = !board.isInCheck(mover) ? findThreatened(board, mover) : -1;
+            boolean hidden = threatened != -1 && isHidden(board, mover, threatened);
+
+            if (!MoveLog.applyPacked(board, moves[ply])) {
+                throw new IllegalArgumentException(String.format("Illegal move %s at ply %d",
+                    Replay.toText(moves[ply]), ply + 1));
+            }
+
+            if (threatened != -1) {
+                int dest = Board.squareToInteger(move[2], move[3]);
+                boolean reacted = Board.squareToInteger(move[0], move[1]) == threatened
+                    && (board.getAttackMask(!mover) >>> dest & 1) == 0;
+                stats.addThreat(hidden, reacted);
+            }
+        }
+
+        white.addGame();
+        black.addGame();
+        add(white);
+        add(black);
+    }
+
+    /**
+     * @return int the square of the mover's most valuable piece, other than
+     * the king, that's attacked and either undefended or attacked by something
+     * worth less, or -1 if there isn't one
+     */
+    private static int findThreatened(Board board, boolean mover) {
+        long attacked = board.getAttackMask(!mover);
+        long defended = board.getAttackMask(mover);
+        int threatened = -1;
+        int threatenedValue = 0;
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int code = board.getCode(square);
+            if (code == PieceCode.EMPTY || PieceCode.isWhite(code) != mover
+                    || PieceCode.type(code) == PieceCode.KING || (attacked >>> square & 1) == 0) {
+                continue;
+            }
+            int value = Math.abs(Evaluation.material(code));
+            if (value > threatenedValue && ((defended >>> square & 1) == 0
+                    || getCheapestAttacker(board, !mover, square) < value)) {
+                threatened = square;
+                threatenedValue = value;
+            }
+        }
+        return threatened;
+    }
+
+    private static int getCheapestAttacker(Board board, boolean isWhite, int target) {
+        int cheapest = Integer.MAX_VALUE;
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int code = board.getCode(square);
+            if (code != PieceCode.EMPTY && PieceCode.isWhite(code) == isWhite
+                    && (board.getAttackMask(square) >>> target & 1) != 0) {
+                cheapest = Math.min(cheapest, Math.abs(Evaluation.material(code)));
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     * @return boolean if none of the pieces attacking the square stand where
+     * the mover can see them
+     */
+    private static boolean isHidden(Board board, boolean mover, int target) {
+        long seen = board.getAttackMask(mover);
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int code = board.getCode(square);
+            if (code != PieceCode.EMPTY && PieceCode.isWhite(code) != mover
+                    && (board.getAttackMask(square) >>> target & 1) != 0
+                    && (seen >>> square & 1) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(PlayerStats game) {
+        if (game.getName().isEmpty()) {
+            return;
+        }
+        PlayerStats total = players.computeIfAbsent(game.getName(), PlayerStats::new);
+        synchronized (total) {
+            total.merge(game);
+        }
+    }
+
+    /**
+     * Scores every player with at least minMoves moves analyzed. Each of their
+     * match rate, average loss, hidden reaction rate and move time variation
+     * is turned into how many standard deviations it is from the mean over
+     * those players, signed so that more suspicious is higher, and the score
+     * is the sum.
+     *
+     * @return List<Suspicion> the players, most suspicious first
+     */
+    List<Suspicion> report(int minMoves) {
+        List<PlayerStats> eligible = new ArrayList<>();
+        for (PlayerStats stats : players.values()) {
+            synchronized (stats) {
+                if (stats.getMoves() >= minMoves) {
+                    PlayerStats copy = new PlayerStats(stats.getName());
+                    copy.merge(stats);
+                    eligible.add(copy);
+                }
+            }
+        }
+
+        Scale match = new Scale();
+        Scale loss = new Scale();
+        Scale hidden = new Scale();
+        Scale time = new Scale();
+        for (PlayerStats stats : eligible) {
+            match.add(stats.getMatchRate());
+            loss.add(stats.getAverageLoss());
+            if (stats.getHiddenThreats() >= MIN_THREATS) {
+                hidden.add(stats.getHiddenReactionRate());
+            }
+            time.add(stats.getTimeVariation());
+        }
+
+        List<Suspicion> report = new ArrayList<>(eligible.size());
+        for (PlayerStats stats : eligible) {
+            double[] scores = {
+                match.score(stats.getMatchRate()),
+                -loss.score(stats.getAverageLoss()),
+                stats.getHiddenThreats() >= MIN_THREATS ? hidden.score(stats.getHiddenReactionRate()) : 0,
+                -time.score(stats.getTimeVariation()),
+            };
+            report.add(new Suspicion(stats, scores));
+        }
+        report.sort(Comparator.comparingDouble((Suspicion s) -> s.getScore()).reversed()
+            .thenComparing(s -> s.getStats().getName()));
+        return report;
+    }
+
+    /**
+     * @return PlayerStats the player's totals so far, or null if none of their
+     * games have been analyzed
+     */
+    PlayerStats getStats(String player) {
+        PlayerStats stats = players.get(player);
+        if (stats == null) {
+            return null;
+        }
+        synchronized (stats) {
+            PlayerStats copy = new PlayerStats(player);
+            copy.merge(stats);
+            return copy;
+        }
+    }
+
+    int getGameCount() {
+        return games.get();
+    }
+
+    /**
+     * @return int how many games couldn't be analyzed, most often because
+     * they were saved without their moves
+     */
+    int getSkippedCount() {
+        return skipped.get();
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    /**
+     * The mean and standard deviation of one number across players.
+     */
+    private static class Scale {
+
+        private int count;
+        private double sum;
+        private double sumSquares;
+
+        void add(double value) {
+            count++;
+            sum += value;
+            sumSquares += value * value;
+        }
+
+        /**
+         * @return double how many standard deviations the value is above the
+         * mean, or 0 if the players don't differ at all
+         */
+        double score(double value) {
+            if (count < 2) {
+                return 0;
+            }
+            double mean = sum / count;
+            double deviation = Math.sqrt(Math.max(sumSquares / count - mean * mean, 0));
+            return deviation < 1e-9 ? 0 : (value - mean) / deviation;
+        }
+    }
+
+    /**
+     * One player's line of the report. Immutable.
+     */
+    static final class Suspicion {
+
+        static final String[] SIGNALS = {"engine match", "low loss", "hidden reactions", "steady times"};
+        // Standard deviations past which a signal is named in the report
+        static final double NOTABLE = 2;
+
+        private final PlayerStats stats;
+        private final double[] scores;
+        private final double score;
+
+        Suspicion(PlayerStats stats, double[] scores) {
+            this.stats = stats;
+            this.scores = scores.clone();
+            double sum = 0;
+            for (double s : scores) {
+                sum += s;
+            }
+            score = sum;
+        }
+
+        /**
+         * @return PlayerStats a copy of the player's totals the report was
+         * made from, which nothing else changes
+         */
+        PlayerStats getStats() {
+            return stats;
+        }
+
+        double getScore() {
+            return score;
+        }
+
+        /**
+         * @return double the score for one signal, as indexed in SIGNALS
+         */
+        double getScore(int signal) {
+            return scores[signal];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("%6.2f  %s", score, stats));
+            String separator = "  <- ";
+            for (int i = 0; i < scores.length; i++) {
+                if (scores[i] >= NOTABLE) {
+                    sb.append(separator).append(SIGNALS[i]).append(String.format(" %+.1f", scores[i]));
+                    separator = ", ";
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Analyzes every game in a results file and prints the players, most
+     * suspicious first.
+     *
+     * Usage: CheatDetector results.log [top count] [search depth] [min moves] [threads]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: CheatDetector results.log [top count] [search depth] [min moves] [threads]");
+            return;
+        }
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+        int minMoves = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MIN_MOVES;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        try (ResultsStore store = new ResultsStore(Paths.get(args[0]));
+             CheatDetector detector = new CheatDetector(threads, depth)) {
+            long start = System.nanoTime();
+            detector.analyze(store);
+            long nanos = System.nanoTime() - start;
+
+            List<Suspicion> report = detector.report(minMoves);
+            for (int i = 0; i < Math.min(count, report.size()); i++) {
+                System.out.printf("%3d. %s%n", i + 1, report.get(i));
+            }
+            System.err.printf("%d games analyzed, %d skipped, %d players ranked in %.1fms on %d threads%n",
+                detector.getGameCount(), detector.getSkippedCount(), report.size(), nanos / 1e6, threads);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * A chess clock with a base time and a per-move increment (Fischer). Time is
+ * only charged to the side to move, and only while the clock is running.
+ */
+class ChessClock {
+
+    private final long increment;
+    private long whiteRemaining, blackRemaining;
+    private boolean whiteRunning;
+    private long turnStart = -1;
+
+    ChessClock(long baseMillis, long incrementMillis) {
+        this.increment = incrementMillis;
+        this.whiteRemaining = baseMillis;
+        this.blackRemaining = baseMillis;
+    }
+
+    /**
+     * A clock carrying on a game timed elsewhere, with each side's time left.
+     * It isn't running until resume() or a press.
+     */
+    ChessClock(long whiteMillis, long blackMillis, long incrementMillis) {
+        this.increment = incrementMillis;
+        this.whiteRemaining = whiteMillis;
+        this.blackRemaining = blackMillis;
+    }
+
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * @return String the time as minutes:seconds
+     */
+    static String format(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    synchronized void start() {
+        start(now());
+    }
+
+    /**
+     * Starts white's clock.
+     */
+    synchronized void start(long now) {
+        whiteRunning = true;
+        turnStart = now;
+    }
+
+    /**
+     * Starts the clock of the side to move, for a game that's already under
+     * way.
+     */
+    synchronized void resume(boolean whiteToMove) {
+        whiteRunning = whiteToMove;
+        turnStart = now();
+    }
+
+    long getIncrement() {
+        return increment;
+    }
+
+    synchronized boolean isRunning() {
+        return turnStart != -1;
+    }
+
+    synchronized boolean press(boolean isWhite) {
+        return press(isWhite, now());
+    }
+
+    /**
+     * Stops the mover's clock, adds the increment and starts the opponent's.
+     * Starts the clock on the first press if it hasn't been started yet.
+     *
+     * @return boolean false if the mover had already run out of time, in which
+     * case nothing is charged
+     */
+    synchronized boolean press(boolean isWhite, long now) {
+        if (turnStart == -1) {
+            start(now);
+        }
+        if (isWhite != whiteRunning || getRemaining(isWhite, now) <= 0) {
+            return false;
+        }
+
+        long spent = now - turnStart;
+        if (isWhite) {
+            whiteRemaining += increment - spent;
+        } else {
+            blackRemaining += increment - spent;
+        }
+        whiteRunning = !whiteRunning;
+        turnStart = now;
+        return true;
+    }
+
+    synchronized long getRemaining(boolean isWhite) {
+        return getRemaining(isWhite, now());
+    }
+
+    synchronized long getRemaining(boolean isWhite, long now) {
+        long remaining = isWhite ? whiteRemaining : blackRemaining;
+        if (turnStart != -1 && isWhite == whiteRunning) {
+            remaining -= now - turnStart;
+        }
+        return Math.max(remaining, 0);
+    }
+
+    synchronized boolean hasFlagged(boolean isWhite) {
+        return isRunning() && getRemaining(isWhite) <= 0;
+    }
+}
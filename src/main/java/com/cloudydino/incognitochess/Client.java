@@ -21,7 +21,7 @@ public class Client implements Runnable {
         // establish a connection
         try {
             socket = new Socket(address, port);
-            System.out.println("Connected");
+            Log.info("Connected");
 
             // takes input from terminal
             input = new DataInputStream(System.in);
@@ -44,7 +44,7 @@ public class Client implements Runnable {
         }
 
         try {
-            System.out.println("Sent: " + l);
+            Log.debug("Sent: %d", l);
             out.writeLong(l);
         } catch (IOException e) {
             e.printStackTrace();
@@ -66,7 +66,7 @@ public class Client implements Runnable {
             e.printStackTrace();
         }
 
-        System.out.printf("Sent:\t\t(%d, %d) to (%d, %d) - %c%n", move[0], move[1], move[2], move[3], promotion);
+        Log.debug("Sent:\t\t(%d, %d) to (%d, %d) - %c", move[0], move[1], move[2], move[3], promotion);
     }
 
     public void disconnect() {
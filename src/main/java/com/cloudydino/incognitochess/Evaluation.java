@@ -0,0 +1,168 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * Piece values and piece-square tables for a tapered evaluation. Every piece
+ * adds a middlegame and an endgame score for its square, and the two are
+ * blended by the game phase, which starts at MAX_PHASE and drops as knights,
+ * bishops, rooks and queens come off.
+ *
+ * The terms only depend on a piece and its square, so Board keeps their sums
+ * up to date as pieces are placed and lifted rather than scanning the board.
+ * All scores are in centipawns, positive when white is better.
+ */
+final class Evaluation {
+
+    static final int MAX_PHASE = 24;
+
+    // Indexed by PieceCode.type
+    private static final int[] MATERIAL = {0, 100, 320, 330, 500, 900, 0};
+    private static final int[] MIDDLEGAME_VALUE = {0, 82, 337, 365, 477, 1025, 0};
+    private static final int[] ENDGAME_VALUE = {0, 94, 281, 297, 512, 936, 0};
+    private static final int[] PHASE = {0, 0, 1, 1, 2, 4, 0};
+
+    // From white's side, rank 8 first and the a file first in each rank
+    private static final int[] PAWN_MIDDLEGAME = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+         50,  50,  50,  50,  50,  50,  50,  50,
+         10,  10,  20,  30,  30,  20,  10,  10,
+          5,   5,  10,  25,  25,  10,   5,   5,
+          0,   0,   0,  20,  20,   0,   0,   0,
+          5,  -5, -10,   0,   0, -10,  -5,   5,
+          5,  10,  10, -20, -20,  10,  10,   5,
+          0,   0,   0,   0,   0,   0,   0,   0,
+    };
+
+    private static final int[] PAWN_ENDGAME = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+         80,  80,  80,  80,  80,  80,  80,  80,
+         50,  50,  50,  50,  50,  50,  50,  50,
+         30,  30,  30,  30,  30,  30,  30,  30,
+         15,  15,  15,  15,  15,  15,  15,  15,
+          5,   5,   5,   5,   5,   5,   5,   5,
+          0,   0,   0,   0,   0,   0,   0,   0,
+          0,   0,   0,   0,   0,   0,   0,   0,
+    };
+
+    private static final int[] KNIGHT_TABLE = {
+        -50, -40, -30, -30, -30, -30, -40, -50,
+        -40, -20,   0,   0,   0,   0, -20, -40,
+        -30,   0,  10,  15,  15,  10,   0, -30,
+        -30,   5,  15,  20,  20,  15,   5, -30,
+        -30,   0,  15,  20,  20,  15,   0, -30,
+        -30,   5,  10,  15,  15,  10,   5, -30,
+        -40, -20,   0,   5,   5,   0, -20, -40,
+        -50, -40, -30, -30, -30, -30, -40, -50,
+    };
+
+    private static final int[] BISHOP_TABLE = {
+        -20, -10, -10, -10, -10, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,  10,  10,   5,   0, -10,
+        -10,   5,   5,  10,  10,   5,   5, -10,
+        -10,   0,  10,  10,  10,  10,   0, -10,
+        -10,  10,  10,  10,  10,  10,  10, -10,
+        -10,   5,   0,   0,   0,   0,   5, -10,
+        -20, -10, -10, -10, -10, -10, -10, -20,
+    };
+
+    private static final int[] ROOK_TABLE = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+          5,  10,  10,  10,  10,  10,  10,   5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+          0,   0,   0,   5,   5,   0,   0,   0,
+    };
+
+    private static final int[] QUEEN_TABLE = {
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,   5,   5,   5,   0, -10,
+         -5,   0,   5,   5,   5,   5,   0,  -5,
+          0,   0,   5,   5,   5,   5,   0,  -5,
+        -10,   5,   5,   5,   5,   5,   0, -10,
+        -10,   0,   5,   0,   0,   0,   0, -10,
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+    };
+
+    private static final int[] KING_MIDDLEGAME = {
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -20, -30, -30, -40, -40, -30, -30, -20,
+        -10, -20, -20, -20, -20, -20, -20, -10,
+         20,  20,   0,   0,   0,   0,  20,  20,
+         20,  30,  10,   0,   0,  10,  30,  20,
+    };
+
+    private static final int[] KING_ENDGAME = {
+        -50, -40, -30, -20, -20, -30, -40, -50,
+        -30, -20, -10,   0,   0, -10, -20, -30,
+        -30, -10,  20,  30,  30,  20, -10, -30,
+        -30, -10,  30,  40,  40,  30, -10, -30,
+        -30, -10,  30,  40,  40,  30, -10, -30,
+        -30, -10,  20,  30,  30,  20, -10, -30,
+        -30, -30,   0,   0,   0,   0, -30, -30,
+        -50, -30, -30, -30, -30, -30, -30, -50,
+    };
+
+    private static final int[][] MIDDLEGAME_TABLES = {null, PAWN_MIDDLEGAME, KNIGHT_TABLE,
+        BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_MIDDLEGAME};
+    private static final int[][] ENDGAME_TABLES = {null, PAWN_ENDGAME, KNIGHT_TABLE,
+        BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_ENDGAME};
+
+    // Signed value plus table entry, indexed by PieceCode then Board square
+    private static final int[][] MIDDLEGAME = new int[16][Board.SIZE * Board.SIZE];
+    private static final int[][] ENDGAME = new int[16][Board.SIZE * Board.SIZE];
+
+    static {
+        for (int type = PieceCode.PAWN; type <= PieceCode.KING; type++) {
+            for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+                int x = Board.squareX(square);
+                int y = Board.squareY(square);
+                int white = (Board.SIZE - 1 - y) * Board.SIZE + x;
+                int black = y * Board.SIZE + x;
+
+                MIDDLEGAME[type][square] = MIDDLEGAME_VALUE[type] + MIDDLEGAME_TABLES[type][white];
+                ENDGAME[type][square] = ENDGAME_VALUE[type] + ENDGAME_TABLES[type][white];
+                MIDDLEGAME[type | PieceCode.BLACK][square] = -MIDDLEGAME_VALUE[type] - MIDDLEGAME_TABLES[type][black];
+                ENDGAME[type | PieceCode.BLACK][square] = -ENDGAME_VALUE[type] - ENDGAME_TABLES[type][black];
+            }
+        }
+    }
+
+    private Evaluation() {
+    }
+
+    /**
+     * @return int the plain material value of the piece, negative for black
+     */
+    static int material(int code) {
+        int value = MATERIAL[PieceCode.type(code)];
+        return PieceCode.isWhite(code) ? value : -value;
+    }
+
+    static int middlegame(int code, int square) {
+        return MIDDLEGAME[code][square];
+    }
+
+    static int endgame(int code, int square) {
+        return ENDGAME[code][square];
+    }
+
+    static int phase(int code) {
+        return PHASE[PieceCode.type(code)];
+    }
+
+    /**
+     * Blends the two scores by the phase. Promotions can push the phase past
+     * MAX_PHASE, which still counts as a full middlegame.
+     */
+    static int taper(int middlegame, int endgame, int phase) {
+        int p = Math.min(phase, MAX_PHASE);
+        return (middlegame * p + endgame * (MAX_PHASE - p)) / MAX_PHASE;
+    }
+}
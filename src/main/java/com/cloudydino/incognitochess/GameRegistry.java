@@ -0,0 +1,169 @@
+package com.cloudydino.incognitochess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * All rooms that are open or being played, keyed by room id, and the session
+ * tokens of their players. Backed by ConcurrentHashMaps so creating, joining,
+ * resuming and finishing rooms only ever touches the bin for that key and
+ * there is no registry-wide lock.
+ *
+ * On a ShardNode only ids the node owns are handed out, and every room's
+ * progress is reported to a Replicator so a copy can be kept on another node.
+ */
+class GameRegistry {
+
+    /**
+     * Hears about every started game's progress. Called with the room held,
+     * so it mustn't block.
+     */
+    interface Replicator {
+        void started(GameRoom room);
+
+        /**
+         * @param ply the move's ply, counting from 0
+         * @param whiteMillis white's time left after the move, 0 if untimed
+         */
+        void moved(GameRoom room, int ply, int packed, int millis, long whiteMillis, long blackMillis);
+
+        void finished(GameRoom room);
+    }
+
+    private final Map<Integer, GameRoom> rooms = new ConcurrentHashMap<>();
+    private final Map<Long, GameRoom> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final TimerWheel timers;
+    private volatile ResultsStore results;
+    private volatile IntPredicate owned = id -> true;
+    private volatile Replicator replicator;
+
+    GameRegistry(TimerWheel timers) {
+        this.timers = timers;
+    }
+
+    /**
+     * @param setup configures and seats the new room. It runs holding the
+     * room, straight after the room is added, so nobody who finds the room by
+     * id can get into it before setup is done.
+     */
+    GameRoom create(Consumer<GameRoom> setup) {
+        while (true) {
+            int id = nextId.getAndIncrement();
+            if (!owned.test(id)) {
+                continue;
+            }
+            GameRoom room = new GameRoom(id, this, timers);
+            synchronized (room) {
+                // A room moved here from another node may have the id already
+                if (rooms.putIfAbsent(id, room) == null) {
+                    setup.accept(room);
+                    return room;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a room for a game carried on from elsewhere, with its players'
+     * sessions, and starts waiting for them to resume.
+     *
+     * @return GameRoom the room, or null if there's already one with its id
+     * @throws IllegalArgumentException if the state's moves can't be replayed
+     */
+    GameRoom restore(RoomState state) {
+        GameRoom room = new GameRoom(state, this, timers);
+        if (rooms.putIfAbsent(room.getId(), room) != null) {
+            return null;
+        }
+        addSession(state.getWhiteToken(), room);
+        addSession(state.getBlackToken(), room);
+        room.awaitPlayers();
+        return room;
+    }
+
+    GameRoom get(int id) {
+        return rooms.get(id);
+    }
+
+    /**
+     * @return List<GameRoom> every open room as of now
+     */
+    List<GameRoom> getRooms() {
+        return new ArrayList<>(rooms.values());
+    }
+
+    void remove(GameRoom room) {
+        rooms.remove(room.getId(), room);
+    }
+
+    /**
+     * @return boolean false if the token is already in use
+     */
+    boolean addSession(long token, GameRoom room) {
+        return sessions.putIfAbsent(token, room) == null;
+    }
+
+    GameRoom getSession(long token) {
+        return sessions.get(token);
+    }
+
+    void removeSession(long token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Only hands out room ids that pass the test from now on.
+     */
+    void setOwned(IntPredicate owned) {
+        this.owned = owned;
+    }
+
+    void setReplicator(Replicator replicator) {
+        this.replicator = replicator;
+    }
+
+    void started(GameRoom room) {
+        Replicator r = replicator;
+        if (r != null) {
+            r.started(room);
+        }
+    }
+
+    void moved(GameRoom room, int ply, int packed, int millis, long whiteMillis, long blackMillis) {
+        Replicator r = replicator;
+        if (r != null) {
+            r.moved(room, ply, packed, millis, whiteMillis, blackMillis);
+        }
+    }
+
+    void finished(GameRoom room) {
+        Replicator r = replicator;
+        if (r != null) {
+            r.finished(room);
+        }
+    }
+
+    void setResults(ResultsStore results) {
+        this.results = results;
+    }
+
+    /**
+     * Saves the result if results are being kept. Doesn't wait for the write.
+     */
+    void recordResult(GameResult result) {
+        ResultsStore store = results;
+        if (store != null) {
+            store.submit(result);
+        }
+    }
+
+    int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,126 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * How one finished game ended and who played it, along with its moves and how
+ * long each one took when the lobby kept them. Immutable. Players that never
+ * gave the lobby a name have an empty one, and their games aren't rated.
+ */
+final class GameResult {
+
+    private final String white;
+    private final String black;
+    private final GameStatus status;
+    private final long endedMillis;
+    private final int plies;
+    private final String start;
+    private final int[] moves;
+    private final int[] moveMillis;
+
+    GameResult(String white, String black, GameStatus status, long endedMillis, int plies) {
+        this(white, black, status, endedMillis, plies, null, new int[0], new int[0]);
+    }
+
+    /**
+     * @param start the FEN the game started from, or null if the moves weren't
+     *              kept
+     * @param moves every move of the game, packed as in MoveLog
+     * @param moveMillis how long the mover took over each move
+     */
+    GameResult(String white, String black, GameStatus status, long endedMillis, int plies,
+               String start, int[] moves, int[] moveMillis) {
+        if (status == GameStatus.IN_PROGRESS) {
+            throw new IllegalArgumentException("Game isn't over");
+        }
+        this.white = white;
+        this.black = black;
+        this.status = status;
+        this.endedMillis = endedMillis;
+        this.plies = plies;
+        if (moves.length != moveMillis.length) {
+            throw new IllegalArgumentException(String.format("%d moves but %d move times",
+                moves.length, moveMillis.length));
+        }
+        this.start = start;
+        this.moves = moves;
+        this.moveMillis = moveMillis;
+    }
+
+    String getWhite() {
+        return white;
+    }
+
+    String getBlack() {
+        return black;
+    }
+
+    GameStatus getStatus() {
+        return status;
+    }
+
+    long getEndedMillis() {
+        return endedMillis;
+    }
+
+    int getPlies() {
+        return plies;
+    }
+
+    /**
+     * @return boolean if the game's moves were kept, so it can be replayed
+     */
+    boolean hasMoves() {
+        return start != null;
+    }
+
+    /**
+     * @return String the FEN the game started from, or null if the moves
+     * weren't kept
+     */
+    String getStart() {
+        return start;
+    }
+
+    /**
+     * @return int[] every move of the game, packed as in MoveLog
+     */
+    int[] getMoves() {
+        return moves.clone();
+    }
+
+    /**
+     * @return int how long the mover took over the move at the ply, counting
+     * plies from 0
+     */
+    int getMoveMillis(int ply) {
+        return moveMillis[ply];
+    }
+
+    /**
+     * @return double 1 if the player won, 0.5 for a draw, 0 if they lost
+     */
+    double getScore(boolean isWhite) {
+        switch (status) {
+            case WHITE_WON:
+            case WHITE_WON_ON_TIME:
+                return isWhite ? 1 : 0;
+            case BLACK_WON:
+            case BLACK_WON_ON_TIME:
+                return isWhite ? 0 : 1;
+            default:
+                return 0.5;
+        }
+    }
+
+    /**
+     * @return boolean if both players have names and they're different people
+     */
+    boolean isRated() {
+        return !white.isEmpty() && !black.isEmpty() && !white.equals(black);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s vs %s  %s  %d plies", white.isEmpty() ? "?" : white,
+            black.isEmpty() ? "?" : black, status, plies);
+    }
+}
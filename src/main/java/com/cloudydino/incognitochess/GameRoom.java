@@ -0,0 +1,574 @@
+package com.cloudydino.incognitochess;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hosted game between two players. The room owns the authoritative Board and
+ * only forwards moves that were legal on it. All state is guarded by the room's
+ * own monitor so rooms never contend with each other.
+ *
+ * Besides the MoveLog, which only holds the moves since its last snapshot, the
+ * room keeps every move and how long the mover took over it, so the finished
+ * game can be saved with its result.
+ *
+ * Each seat gets a session token when the game starts. A player whose
+ * connection drops has RECONNECT_GRACE_MILLIS from then to resume with that
+ * token before the game is forfeited, each seat on its own deadline.
+ *
+ * A started game can be taken out as a RoomState and carried on in a new room
+ * on another server, where both players resume their seats with the same
+ * tokens.
+ */
+class GameRoom {
+
+    // How soon a clock or reconnect deadline that falls during a migration
+    // is checked again
+    static final long MIGRATION_RETRY_MILLIS = 100;
+    static final long RECONNECT_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Random TOKENS = new SecureRandom();
+
+    private final int id;
+    private final GameRegistry registry;
+    private final TimerWheel timers;
+    private final Board board;
+    private final MoveLog log;
+    private final String start;
+    private int[] moves;
+    private int[] moveMillis;
+    private int plies;
+    private long turnStarted;
+    private Player white, black;
+    private long whiteToken, blackToken;
+    private boolean whiteDisconnected, blackDisconnected;
+    private GameStatus status = GameStatus.IN_PROGRESS;
+    private boolean closed;
+    // Set while the game is being handed to another node, when nothing may
+    // change it here
+    private boolean migrating;
+    private ChessClock clock;
+    private TimerWheel.Timeout flagCheck;
+    private TimerWheel.Timeout whiteForfeit, blackForfeit;
+
+    GameRoom(int id, GameRegistry registry, TimerWheel timers) {
+        this.id = id;
+        this.registry = registry;
+        this.timers = timers;
+        board = new Board();
+        log = new MoveLog(board);
+        start = board.toFen();
+        moves = new int[64];
+        moveMillis = new int[64];
+    }
+
+    /**
+     * Sets up a game carried on from elsewhere. Both seats are empty, under
+     * the players' names, until they resume with their tokens; see
+     * awaitPlayers().
+     *
+     * @throws IllegalArgumentException if the state's moves can't be replayed
+     */
+    GameRoom(RoomState state, GameRegistry registry, TimerWheel timers) {
+        this.id = state.getId();
+        this.registry = registry;
+        this.timers = timers;
+        board = state.toBoard();
+        log = new MoveLog(board, state.getPlies());
+        start = state.getStart();
+        moves = state.getMoves();
+        moveMillis = state.getMoveMillis();
+        plies = moves.length;
+        white = new Absent(state.getWhite());
+        black = new Absent(state.getBlack());
+        whiteToken = state.getWhiteToken();
+        blackToken = state.getBlackToken();
+        whiteDisconnected = true;
+        blackDisconnected = true;
+        if (state.isTimed()) {
+            clock = new ChessClock(state.getRemaining(true), state.getRemaining(false), state.getIncrement());
+            board.setClock(clock);
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    synchronized Board getBoard() {
+        return board;
+    }
+
+    /**
+     * @return Position the latest position, readable without holding the room
+     */
+    Position getPosition() {
+        return board.getPosition();
+    }
+
+    MoveLog getLog() {
+        return log;
+    }
+
+    /**
+     * Times the game with the clock. The room asks the timer wheel to wake it
+     * when the side to move would run out of time, rather than polling.
+     */
+    synchronized void setClock(ChessClock clock) {
+        this.clock = clock;
+        board.setClock(clock);
+    }
+
+    synchronized boolean isFull() {
+        return white != null && black != null;
+    }
+
+    synchronized boolean isOver() {
+        return closed || status != GameStatus.IN_PROGRESS;
+    }
+
+    synchronized GameStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Seats the player in the room. Colors are drawn at random once the second
+     * player sits down, at which point both players are told the game started.
+     *
+     * @return boolean if the player got a seat
+     */
+    synchronized boolean seat(Player player) {
+        if (isFull() || isOver()) {
+            return false;
+        }
+
+        if (white == null) {
+            white = player;
+            return true;
+        }
+
+        black = player;
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            Player temp = white;
+            white = black;
+            black = temp;
+        }
+
+        turnStarted = ChessClock.now();
+        whiteToken = newToken();
+        blackToken = newToken();
+        white.gameStarted(this, true, whiteToken);
+        black.gameStarted(this, false, blackToken);
+
+        if (clock != null) {
+            clock.start();
+            sendClock();
+            scheduleFlagCheck();
+        }
+        registry.started(this);
+        return true;
+    }
+
+    /**
+     * Starts a game set up from a RoomState going again: the clock runs for
+     * the side to move, and the players have RECONNECT_GRACE_MILLIS to resume.
+     */
+    synchronized void awaitPlayers() {
+        turnStarted = ChessClock.now();
+        if (clock != null) {
+            clock.resume(board.getTurn());
+            scheduleFlagCheck();
+        }
+        scheduleForfeit(true, RECONNECT_GRACE_MILLIS);
+        scheduleForfeit(false, RECONNECT_GRACE_MILLIS);
+    }
+
+    /**
+     * @return RoomState the game so far, or null if it hasn't started or is
+     * over
+     */
+    synchronized RoomState getState() {
+        if (!isFull() || isOver()) {
+            return null;
+        }
+        return new RoomState(id, start, Arrays.copyOf(moves, plies), Arrays.copyOf(moveMillis, plies),
+            log.getSnapshot(), log.getSnapshotPly(), white.getName(), black.getName(),
+            whiteToken, blackToken, clock != null,
+            clock == null ? 0 : clock.getRemaining(true), clock == null ? 0 : clock.getRemaining(false),
+            clock == null ? 0 : clock.getIncrement());
+    }
+
+    /**
+     * Freezes a started game to be handed to another node, or closes a room
+     * still waiting for an opponent. Until finishMigration() or
+     * cancelMigration(), moves are refused and nothing ends the game here: a
+     * player who leaves only loses their connection, and the clock and
+     * reconnect deadlines wait.
+     *
+     * @return RoomState the game to hand over, or null if the room was closed
+     * instead
+     */
+    synchronized RoomState beginMigration() {
+        RoomState state = getState();
+        if (state == null) {
+            moveAway();
+            return null;
+        }
+        migrating = true;
+        return state;
+    }
+
+    /**
+     * Closes the room once the new owner has the game, as long as nothing
+     * changed it since beginMigration().
+     *
+     * @param plies how many moves the handed over game had
+     * @return boolean if the room was closed
+     */
+    synchronized boolean finishMigration(int plies) {
+        if (!migrating || plies != this.plies || isOver()) {
+            migrating = false;
+            return false;
+        }
+        moveAway();
+        return true;
+    }
+
+    /**
+     * Carries on the game here after all.
+     */
+    synchronized void cancelMigration() {
+        migrating = false;
+    }
+
+    /**
+     * Closes the room without ending its game, which has been carried on
+     * elsewhere, and tells the players so they go and resume it there.
+     */
+    synchronized void moveAway() {
+        if (isOver()) {
+            return;
+        }
+        if (flagCheck != null) {
+            flagCheck.cancel();
+        }
+        cancelForfeits();
+        close();
+        if (white != null) {
+            white.roomMoved();
+        }
+        if (black != null) {
+            black.roomMoved();
+        }
+    }
+
+    /**
+     * Applies the move if it is the player's turn and it is legal, then sends it
+     * to the opponent.
+     *
+     * @return boolean if the move was made
+     */
+    synchronized boolean move(Player player, int[] move, char promotion) {
+        Metrics.begin();
+        try {
+            return makeMove(player, move, promotion);
+        } finally {
+            Metrics.end(Metrics.Operation.ROOM_MOVE);
+        }
+    }
+
+    private boolean makeMove(Player player, int[] move, char promotion) {
+        if (migrating || !isFull() || isOver() || player != (board.getTurn() ? white : black)) {
+            return false;
+        }
+
+        if (move.length != 4) {
+            return false;
+        }
+        for (int i : move) {
+            if (i < 0 || i >= Board.SIZE) {
+                return false;
+            }
+        }
+
+        Piece promoteTo;
+        try {
+            promoteTo = Piece.fromChar(promotion);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // Checked even when the move doesn't promote, since it's passed on
+        if (!Board.canPromoteTo(promoteTo)) {
+            return false;
+        }
+
+        if (!board.move(move[0], move[1], move[2], move[3], promoteTo)) {
+            return false;
+        }
+        log.add(board, move, promotion);
+        record(MoveLog.pack(move, promotion));
+
+        getOpponent(player).moveReceived(move, promotion);
+
+        if (clock != null) {
+            sendClock();
+            scheduleFlagCheck();
+        }
+        registry.moved(this, plies - 1, moves[plies - 1], moveMillis[plies - 1],
+            clock == null ? 0 : clock.getRemaining(true), clock == null ? 0 : clock.getRemaining(false));
+
+        GameStatus newStatus = board.getGameStatus();
+        if (newStatus != GameStatus.IN_PROGRESS) {
+            finish(newStatus);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the player from the room. Leaving a started game forfeits it.
+     */
+    synchronized void leave(Player player) {
+        if (isOver()) {
+            return;
+        }
+        if (migrating) {
+            // The game is the new owner's to end; they'll forfeit it there if
+            // they don't come back
+            disconnected(player);
+            return;
+        }
+
+        if (!isFull()) {
+            if (white == player) {
+                close();
+            }
+            return;
+        }
+
+        if (player == white) {
+            finish(GameStatus.BLACK_WON);
+        } else if (player == black) {
+            finish(GameStatus.WHITE_WON);
+        }
+    }
+
+    /**
+     * Called when the player's connection drops without them leaving. The game
+     * carries on, clock included, and is forfeited if they don't resume in time.
+     */
+    synchronized void disconnected(Player player) {
+        if (isOver() || !isFull()) {
+            leave(player);
+            return;
+        }
+
+        if (player == white) {
+            whiteDisconnected = true;
+            scheduleForfeit(true, RECONNECT_GRACE_MILLIS);
+        } else if (player == black) {
+            blackDisconnected = true;
+            scheduleForfeit(false, RECONNECT_GRACE_MILLIS);
+        }
+    }
+
+    /**
+     * Puts the player back in the seat the token was issued for, and sends them
+     * the latest snapshot plus the moves made since it.
+     *
+     * @return boolean if the token belongs to this room and the game is still on
+     */
+    synchronized boolean resume(long token, Player player) {
+        if (isOver()) {
+            return false;
+        }
+
+        boolean isWhite;
+        if (token == whiteToken) {
+            isWhite = true;
+            white = player;
+            whiteDisconnected = false;
+        } else if (token == blackToken) {
+            isWhite = false;
+            black = player;
+            blackDisconnected = false;
+        } else {
+            return false;
+        }
+
+        TimerWheel.Timeout forfeit = isWhite ? whiteForfeit : blackForfeit;
+        if (forfeit != null) {
+            forfeit.cancel();
+        }
+
+        player.resynced(this, isWhite, token, log.getSnapshot(), log.getMoves());
+        if (clock != null) {
+            long whiteMillis = clock.getRemaining(true);
+            player.clockUpdated(whiteMillis, clock.getRemaining(false));
+        }
+        return true;
+    }
+
+    /**
+     * Gives the seat's player the time to resume from now, replacing any
+     * deadline they had.
+     */
+    private void scheduleForfeit(boolean isWhite, long millis) {
+        TimerWheel.Timeout previous = isWhite ? whiteForfeit : blackForfeit;
+        if (previous != null) {
+            previous.cancel();
+        }
+        TimerWheel.Timeout forfeit = timers.schedule(() -> forfeitDisconnected(isWhite), millis);
+        if (isWhite) {
+            whiteForfeit = forfeit;
+        } else {
+            blackForfeit = forfeit;
+        }
+    }
+
+    private void cancelForfeits() {
+        if (whiteForfeit != null) {
+            whiteForfeit.cancel();
+        }
+        if (blackForfeit != null) {
+            blackForfeit.cancel();
+        }
+    }
+
+    /**
+     * The seat's time to resume is up. If the other player is away too the
+     * game is drawn.
+     */
+    private synchronized void forfeitDisconnected(boolean isWhite) {
+        if (isOver() || !(isWhite ? whiteDisconnected : blackDisconnected)) {
+            return;
+        }
+        if (migrating) {
+            scheduleForfeit(isWhite, MIGRATION_RETRY_MILLIS);
+            return;
+        }
+
+        if (whiteDisconnected && blackDisconnected) {
+            finish(GameStatus.DRAW);
+        } else if (isWhite) {
+            finish(GameStatus.BLACK_WON);
+        } else {
+            finish(GameStatus.WHITE_WON);
+        }
+    }
+
+    private long newToken() {
+        long token;
+        do {
+            token = TOKENS.nextLong();
+        } while (token == 0 || !registry.addSession(token, this));
+        return token;
+    }
+
+    private void sendClock() {
+        long whiteMillis = clock.getRemaining(true);
+        long blackMillis = clock.getRemaining(false);
+        white.clockUpdated(whiteMillis, blackMillis);
+        black.clockUpdated(whiteMillis, blackMillis);
+    }
+
+    private void scheduleFlagCheck() {
+        if (flagCheck != null) {
+            flagCheck.cancel();
+        }
+        flagCheck = timers.schedule(this::checkFlag, clock.getRemaining(board.getTurn()) + 1);
+    }
+
+    private synchronized void checkFlag() {
+        if (isOver()) {
+            return;
+        }
+        if (migrating) {
+            flagCheck = timers.schedule(this::checkFlag, MIGRATION_RETRY_MILLIS);
+            return;
+        }
+
+        boolean whiteToMove = board.getTurn();
+        if (clock.hasFlagged(whiteToMove)) {
+            finish(whiteToMove ? GameStatus.BLACK_WON_ON_TIME : GameStatus.WHITE_WON_ON_TIME);
+        } else {
+            scheduleFlagCheck();
+        }
+    }
+
+    private void record(int packed) {
+        if (plies == moves.length) {
+            // A room restored before the first move starts with no room at all
+            moves = Arrays.copyOf(moves, Math.max(plies * 2, 16));
+            moveMillis = Arrays.copyOf(moveMillis, moves.length);
+        }
+        long now = ChessClock.now();
+        moves[plies] = packed;
+        moveMillis[plies] = (int) Math.min(now - turnStarted, Integer.MAX_VALUE);
+        plies++;
+        turnStarted = now;
+    }
+
+    private Player getOpponent(Player player) {
+        return player == white ? black : white;
+    }
+
+    private void finish(GameStatus newStatus) {
+        status = newStatus;
+        if (flagCheck != null) {
+            flagCheck.cancel();
+        }
+        cancelForfeits();
+        close();
+        registry.recordResult(new GameResult(white.getName(), black.getName(), newStatus,
+            System.currentTimeMillis(), log.getPly(), start,
+            Arrays.copyOf(moves, plies), Arrays.copyOf(moveMillis, plies)));
+        registry.finished(this);
+        white.gameOver(newStatus);
+        black.gameOver(newStatus);
+    }
+
+    private void close() {
+        closed = true;
+        registry.remove(this);
+        registry.removeSession(whiteToken);
+        registry.removeSession(blackToken);
+    }
+
+    /**
+     * Holds the seat of a player in a game carried on from elsewhere until
+     * they resume it.
+     */
+    private static class Absent implements Player {
+
+        private final String name;
+
+        Absent(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void gameStarted(GameRoom room, boolean isWhite, long token) {
+        }
+
+        public void resynced(GameRoom room, boolean isWhite, long token, String snapshot, int[] moves) {
+        }
+
+        public void moveReceived(int[] move, char promotion) {
+        }
+
+        public void clockUpdated(long whiteMillis, long blackMillis) {
+        }
+
+        public void gameOver(GameStatus status) {
+        }
+
+        public void roomMoved() {
+        }
+    }
+}
@@ -1,5 +1,5 @@
 package com.cloudydino.incognitochess;
 
 public enum GameStatus {
-    WHITE_WON, BLACK_WON, STALEMATE, DRAW, IN_PROGRESS;
+    WHITE_WON, BLACK_WON, STALEMATE, DRAW, IN_PROGRESS, WHITE_WON_ON_TIME, BLACK_WON_ON_TIME;
 }
\ No newline at end of file
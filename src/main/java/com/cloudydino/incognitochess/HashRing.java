@@ -0,0 +1,154 @@
+package com.cloudydino.incognitochess;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of room ids onto the nodes of a cluster, each named by
+ * its "host:port". Every node is put on a ring of ints at VIRTUAL_NODES
+ * points hashed from its name, and a room belongs to the first node at or
+ * after the room id's own hash going round the ring. Adding or removing a
+ * node only moves the rooms between it and the points before it, about 1/n
+ * of them, and spreads them over every other node.
+ *
+ * The next different node round the ring from a room's owner is its backup,
+ * which is also exactly the node that owns the room if the owner leaves.
+ *
+ * Immutable; with() and without() make new rings.
+ */
+final class HashRing {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    private final int[] points;
+    private final String[] owners;
+
+    HashRing(Collection<String> nodes) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+        long[] sorted = new long[this.nodes.size() * VIRTUAL_NODES];
+        for (int n = 0; n < this.nodes.size(); n++) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                // The point in the upper half and the node's index in the lower
+                // half, so sorting by point keeps each node with its point
+                int point = hash(this.nodes.get(n) + "#" + i);
+                sorted[n * VIRTUAL_NODES + i] = (long) point << 32 | n;
+            }
+        }
+        Arrays.sort(sorted);
+
+        points = new int[sorted.length];
+        owners = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            points[i] = (int) (sorted[i] >> 32);
+            owners[i] = this.nodes.get((int) sorted[i]);
+        }
+    }
+
+    HashRing with(String node) {
+        List<String> more = new ArrayList<>(nodes);
+        more.add(node);
+        return new HashRing(more);
+    }
+
+    HashRing without(String node) {
+        List<String> fewer = new ArrayList<>(nodes);
+        fewer.remove(node);
+        return new HashRing(fewer);
+    }
+
+    /**
+     * @return List<String> every node on the ring, in name order
+     */
+    List<String> getNodes() {
+        return nodes;
+    }
+
+    boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    /**
+     * @return String the node the room belongs to, or null if the ring is empty
+     */
+    String getOwner(int roomId) {
+        if (points.length == 0) {
+            return null;
+        }
+        return owners[find(roomId)];
+    }
+
+    /**
+     * @return String the node that keeps a copy of the room and takes it over
+     * if its owner goes, or null if there's only one node
+     */
+    String getBackup(int roomId) {
+        if (nodes.size() < 2) {
+            return null;
+        }
+        int i = find(roomId);
+        String owner = owners[i];
+        while (owners[i].equals(owner)) {
+            i = (i + 1) % owners.length;
+        }
+        return owners[i];
+    }
+
+    /**
+     * @return int the index of the first point at or after the room's hash,
+     * going round to the start after the last
+     */
+    private int find(int roomId) {
+        int i = Arrays.binarySearch(points, mix(roomId));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i == points.length ? 0 : i;
+    }
+
+    /**
+     * FNV-1a of the UTF-8 bytes, mixed so that names differing only in their
+     * last digit still land all over the ring.
+     */
+    private static int hash(String s) {
+        int h = 0x811c9dc5;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x01000193;
+        }
+        return mix(h);
+    }
+
+    /**
+     * The finalizer from MurmurHash3.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the node isn't "host:port"
+     */
+    static InetSocketAddress toAddress(String node) {
+        int colon = node.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Not host:port: " + node);
+        }
+        return new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+    }
+
+    @Override
+    public String toString() {
+        return nodes.toString();
+    }
+}
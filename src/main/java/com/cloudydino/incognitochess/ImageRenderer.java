@@ -0,0 +1,295 @@
+package com.cloudydino.incognitochess;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * Draws boards as SVG or PNG images in the window's colors and with its piece
+ * images from res/, for spectators, replays and logs. If the images can't be
+ * found, pieces are drawn as unicode chess symbols instead, or letters if no
+ * installed font has them. A fog of war view is drawn from the viewer's side
+ * with the squares they can't see blacked out.
+ *
+ * Only java.awt.image and Graphics2D are used, so it works on a headless
+ * server. The image is reused between calls, so give each thread its own
+ * renderer.
+ */
+class ImageRenderer {
+
+    static final int DEFAULT_SQUARE_SIZE = 64;
+
+    private static final Color DARK_COLOR = new Color(75, 115, 153);
+    private static final Color LIGHT_COLOR = new Color(234, 233, 210);
+    private static final Color FOG_COLOR = Color.BLACK;
+    private static final String DARK_FILL = "#4b7399";
+    private static final String LIGHT_FILL = "#eae9d2";
+    private static final String FOG_FILL = "#000000";
+
+    private final int squareSize;
+    private final BufferedImage image;
+    private final Font font;
+    private final boolean symbols;
+    // Each piece's image scaled to the square size, or null if it's missing
+    private final Map<Character, BufferedImage> pieceImages = new HashMap<>();
+    // Each piece's PNG file as an SVG data URI, or null if it's missing
+    private final Map<Character, String> pieceUris = new HashMap<>();
+
+    ImageRenderer() {
+        this(DEFAULT_SQUARE_SIZE);
+    }
+
+    ImageRenderer(int squareSize) {
+        if (squareSize <= 0) {
+            throw new IllegalArgumentException("Bad square size: " + squareSize);
+        }
+        this.squareSize = squareSize;
+        image = new BufferedImage(squareSize * Board.SIZE, squareSize * Board.SIZE, BufferedImage.TYPE_INT_RGB);
+        font = new Font(Font.SERIF, Font.PLAIN, squareSize * 3 / 4);
+        symbols = font.canDisplay(UnicodePrinter.getUnicode('k'));
+    }
+
+    void renderSvg(Position position, Appendable out) throws IOException {
+        writeSvg(position, false, true, out);
+    }
+
+    /**
+     * Draws what the viewer can see.
+     */
+    void renderSvg(Position position, boolean viewer, Appendable out) throws IOException {
+        writeSvg(position, true, viewer, out);
+    }
+
+    void renderPng(Position position, OutputStream out) throws IOException {
+        ImageIO.write(renderImage(position, false, true), "png", out);
+    }
+
+    /**
+     * Draws what the viewer can see.
+     */
+    void renderPng(Position position, boolean viewer, OutputStream out) throws IOException {
+        ImageIO.write(renderImage(position, true, viewer), "png", out);
+    }
+
+    /**
+     * @return BufferedImage the position drawn from viewer's side, with the
+     * squares they can't see blacked out if fog is on. The same image is
+     * drawn over on the next call
+     */
+    BufferedImage renderImage(Position position, boolean fog, boolean viewer) {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            FontMetrics metrics = g.getFontMetrics();
+
+            for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+                int x = Board.squareX(square);
+                int y = Board.squareY(square);
+                int left = getColumn(x, viewer) * squareSize;
+                int top = getRow(y, viewer) * squareSize;
+
+                if (fog && !position.isVisible(viewer, square)) {
+                    g.setColor(FOG_COLOR);
+                    g.fillRect(left, top, squareSize, squareSize);
+                    continue;
+                }
+                g.setColor(isDark(x, y) ? DARK_COLOR : LIGHT_COLOR);
+                g.fillRect(left, top, squareSize, squareSize);
+
+                char piece = position.get(x, y);
+                if (piece == 0) {
+                    continue;
+                }
+                BufferedImage pieceImage = getPieceImage(piece);
+                if (pieceImage != null) {
+                    g.drawImage(pieceImage, left, top, null);
+                    continue;
+                }
+                String text = String.valueOf(getSymbol(piece));
+                int textX = left + (squareSize - metrics.stringWidth(text)) / 2;
+                int textY = top + (squareSize - metrics.getHeight()) / 2 + metrics.getAscent();
+                if (symbols && Character.isUpperCase(piece)) {
+                    // White symbols are only outlines, so fill them in first
+                    g.setColor(Color.WHITE);
+                    g.drawString(String.valueOf(getSymbol(Character.toLowerCase(piece))), textX, textY);
+                }
+                g.setColor(Color.BLACK);
+                g.drawString(text, textX, textY);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private void writeSvg(Position position, boolean fog, boolean viewer, Appendable out) throws IOException {
+        int size = squareSize * Board.SIZE;
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"").append(Integer.toString(size))
+            .append("\" height=\"").append(Integer.toString(size))
+            .append("\" font-family=\"serif\" font-size=\"").append(Integer.toString(squareSize * 3 / 4))
+            .append("\" text-anchor=\"middle\" dominant-baseline=\"central\">\n");
+
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int x = Board.squareX(square);
+            int y = Board.squareY(square);
+            int left = getColumn(x, viewer) * squareSize;
+            int top = getRow(y, viewer) * squareSize;
+            boolean hidden = fog && !position.isVisible(viewer, square);
+
+            out.append("<rect x=\"").append(Integer.toString(left))
+                .append("\" y=\"").append(Integer.toString(top))
+                .append("\" width=\"").append(Integer.toString(squareSize))
+                .append("\" height=\"").append(Integer.toString(squareSize))
+                .append("\" fill=\"").append(hidden ? FOG_FILL : isDark(x, y) ? DARK_FILL : LIGHT_FILL)
+                .append("\"/>\n");
+
+            char piece = position.get(x, y);
+            if (hidden || piece == 0) {
+                continue;
+            }
+            String uri = getPieceUri(piece);
+            if (uri != null) {
+                out.append("<image x=\"").append(Integer.toString(left))
+                    .append("\" y=\"").append(Integer.toString(top))
+                    .append("\" width=\"").append(Integer.toString(squareSize))
+                    .append("\" height=\"").append(Integer.toString(squareSize))
+                    .append("\" xlink:href=\"").append(uri).append("\"/>\n");
+                continue;
+            }
+            if (Character.isUpperCase(piece)) {
+                // White symbols are only outlines, so fill them in first
+                writeSvgText(left, top, " fill=\"#ffffff\"", UnicodePrinter.getUnicode(Character.toLowerCase(piece)), out);
+            }
+            writeSvgText(left, top, "", UnicodePrinter.getUnicode(piece), out);
+        }
+        out.append("</svg>\n");
+    }
+
+    private void writeSvgText(int left, int top, String fill, char symbol, Appendable out) throws IOException {
+        out.append("<text x=\"").append(Integer.toString(left + squareSize / 2))
+            .append("\" y=\"").append(Integer.toString(top + squareSize / 2))
+            .append('"').append(fill).append('>').append(symbol).append("</text>\n");
+    }
+
+    private BufferedImage getPieceImage(char piece) {
+        if (!pieceImages.containsKey(piece)) {
+            BufferedImage scaled = null;
+            byte[] png = readPieceFile(piece);
+            if (png != null) {
+                try {
+                    BufferedImage original = ImageIO.read(new ByteArrayInputStream(png));
+                    if (original != null) {
+                        scaled = new BufferedImage(squareSize, squareSize, BufferedImage.TYPE_INT_ARGB);
+                        Graphics2D g = scaled.createGraphics();
+                        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                        g.drawImage(original, 0, 0, squareSize, squareSize, null);
+                        g.dispose();
+                    }
+                } catch (IOException e) {
+                    Log.warn("Couldn't read the image for %c: %s", piece, e);
+                }
+            }
+            pieceImages.put(piece, scaled);
+        }
+        return pieceImages.get(piece);
+    }
+
+    private String getPieceUri(char piece) {
+        if (!pieceUris.containsKey(piece)) {
+            byte[] png = readPieceFile(piece);
+            pieceUris.put(piece, png == null ? null : "data:image/png;base64," + Base64.getEncoder().encodeToString(png));
+        }
+        return pieceUris.get(piece);
+    }
+
+    /**
+     * Reads the piece's image the same way the window does: off the
+     * classpath, as packaged in the jar, or from the res folder when running
+     * from the source tree.
+     *
+     * @return byte[] the PNG file, or null if it can't be found
+     */
+    private static byte[] readPieceFile(char piece) {
+        char color = Character.isUpperCase(piece) ? 'w' : 'b';
+        String file = String.format("res/%c%c.png", color, Character.toLowerCase(piece));
+        try (InputStream in = ImageRenderer.class.getResourceAsStream("/" + file)) {
+            if (in != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, n);
+                }
+                return bytes.toByteArray();
+            }
+            Path path = Paths.get(file);
+            return Files.isRegularFile(path) ? Files.readAllBytes(path) : null;
+        } catch (IOException e) {
+            Log.warn("Couldn't read %s: %s", file, e);
+            return null;
+        }
+    }
+
+    private char getSymbol(char piece) {
+        return symbols ? UnicodePrinter.getUnicode(piece) : piece;
+    }
+
+    private static boolean isDark(int x, int y) {
+        return x % 2 == y % 2;
+    }
+
+    private static int getColumn(int x, boolean viewer) {
+        return viewer ? x : Board.SIZE - 1 - x;
+    }
+
+    private static int getRow(int y, boolean viewer) {
+        return viewer ? Board.SIZE - 1 - y : y;
+    }
+
+    /**
+     * Draws a position to a file, as PNG unless the name ends in .svg.
+     *
+     * Usage: ImageRenderer file [fen [white|black]]
+     * Naming a side draws what that side can see.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ImageRenderer file [fen [white|black]]");
+            return;
+        }
+        Position position = args.length > 1 ? new Board(args[1]).getPosition() : new Board().getPosition();
+        boolean fog = args.length > 2;
+        boolean viewer = !fog || args[2].equalsIgnoreCase("white");
+
+        ImageRenderer renderer = new ImageRenderer();
+        try (OutputStream out = new FileOutputStream(args[0])) {
+            if (args[0].endsWith(".svg")) {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                renderer.writeSvg(position, fog, viewer, writer);
+                writer.flush();
+            } else {
+                ImageIO.write(renderer.renderImage(position, fog, viewer), "png", out);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.cloudydino.incognitochess;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values (usually nanoseconds) with
+ * log-linear buckets in the style of HdrHistogram. Every power of two is split
+ * into SUB_BUCKETS buckets, so any value is reported to within about 3% using
+ * a fixed set of counters however many values are recorded.
+ *
+ * Every counter is a LongAdder (and the max a LongAccumulator), which spreads
+ * threads recording at the same time over separate cells instead of having
+ * them fight over one cache line. Reads add the cells up, so they cost more,
+ * but they only happen when someone asks for the numbers.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final LongAdder[] counts = new LongAdder[64 * SUB_BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return long the highest value in the bucket holding that percentile, or
+     * 0 if nothing has been recorded
+     */
+    long getPercentile(double percentile) {
+        // Counted from one snapshot, so values recorded meanwhile can't push
+        // the rank past the end of the buckets
+        long[] snapshot = new long[counts.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(lowestValue(i + 1) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (LongAdder bucket : counts) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each. Above that the bucket is
+     * picked by the position of the highest bit and the SUB_BITS bits under it.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int group = highestBit - SUB_BITS + 1;
+        int sub = (int) (value >>> (highestBit - SUB_BITS)) - SUB_BUCKETS;
+        return (group << SUB_BITS) + sub;
+    }
+
+    private static long lowestValue(int index) {
+        int group = index >>> SUB_BITS;
+        if (group == 0) {
+            return index;
+        }
+        return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << (group - 1);
+    }
+}
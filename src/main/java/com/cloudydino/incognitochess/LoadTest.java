@@ -0,0 +1,328 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator. Starts a LobbyServer on loopback, connects pairs of
+ * bots to it through LobbyConnection and has them play random legal moves
+ * until the time is up. Bots queue for a new game whenever one ends, and give
+ * up any game that reaches MAX_PLIES.
+ *
+ * Latency is measured from a bot sending its move to the opponent bot
+ * receiving it from the lobby, which covers the lobby validating and relaying
+ * it.
+ *
+ * Against a cluster the pairs are spread over the nodes, each bot falling
+ * back to the other nodes if its own goes, and games carried on after a node
+ * is lost are counted as resynced and those that couldn't be as lost.
+ *
+ * Usage: LoadTest [games] [moves per second per game] [seconds] [host port]
+ * Leaving out host and port starts a lobby in this JVM.
+ */
+public class LoadTest {
+
+    private static final int MAX_PLIES = 200;
+    private static final long REQUEUE_DELAY_MILLIS = 500;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private final long moveDelayMillis;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong games = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+
+    // When the move in flight in each room was sent. Only one side can have a
+    // move in flight at a time, so the room id is enough to match them up
+    private final Map<Integer, Long> sentAt = new ConcurrentHashMap<>();
+    private volatile boolean stopping;
+
+    LoadTest(double movesPerSecond) {
+        this.moveDelayMillis = movesPerSecond <= 0 ? 0 : (long) (1000 / movesPerSecond);
+    }
+
+    /**
+     * One simulated player. Mirrors its game on a local Board so it can pick
+     * legal moves, and stamps every move it sends so the receiver can time it.
+     */
+    private class Bot implements LobbyConnection.Listener {
+
+        private final LobbyConnection connection;
+        private Board board;
+        private BeliefTracker beliefs;
+        private int roomId;
+        private int plies;
+        private boolean isWhite;
+
+        private final String name;
+
+        /**
+         * @param nodes the lobbies to connect to, starting with first and
+         *              falling back to the others in turn
+         */
+        Bot(List<String> nodes, int first, String name) {
+            InetSocketAddress address = HashRing.toAddress(nodes.get(first));
+            connection = new LobbyConnection(address.getHostString(), address.getPort(), this);
+            for (int i = 1; i < nodes.size(); i++) {
+                InetSocketAddress fallback = HashRing.toAddress(nodes.get((first + i) % nodes.size()));
+                connection.addFallback(fallback.getHostString(), fallback.getPort());
+            }
+            this.name = name;
+        }
+
+        void start() throws IOException {
+            connection.connect();
+            connection.setName(name);
+            Thread thread = new Thread(this::play, "bot");
+            thread.setDaemon(true);
+            thread.start();
+            connection.queue();
+        }
+
+        /**
+         * Runs the connection, and if it's lost outside a game, as when a
+         * node goes while the bot is queued, queues again at the next node.
+         */
+        private void play() {
+            while (true) {
+                connection.run();
+                if (stopping) {
+                    return;
+                }
+                synchronized (this) {
+                    board = null;
+                }
+                try {
+                    Thread.sleep(REQUEUE_DELAY_MILLIS);
+                    connection.connectNext();
+                    connection.setName(name);
+                    connection.queue();
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        public void roomAssigned(int roomId) {
+            if (roomId != -1) {
+                return;
+            }
+            // A resume failed, so the game is gone
+            synchronized (this) {
+                if (board == null) {
+                    return;
+                }
+                board = null;
+            }
+            lost.incrementAndGet();
+            if (!stopping) {
+                try {
+                    connection.queue();
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                }
+            }
+        }
+
+        public synchronized void gameStarted(int roomId, boolean isWhite) {
+            this.board = new Board();
+            this.beliefs = new BeliefTracker(isWhite, board.getPosition());
+            this.roomId = roomId;
+            this.plies = 0;
+            this.isWhite = isWhite;
+            scheduleMove();
+        }
+
+        public synchronized void resynced(int roomId, boolean isWhite, String snapshot, int[] moves) {
+            board = new Board(snapshot);
+            for (int move : moves) {
+                MoveLog.applyPacked(board, move);
+            }
+            beliefs = new BeliefTracker(isWhite, board.getPosition());
+            this.roomId = roomId;
+            this.isWhite = isWhite;
+            this.plies = moves.length;
+            resyncs.incrementAndGet();
+            sentAt.remove(roomId);
+            scheduleMove();
+        }
+
+        public synchronized void moveReceived(int[] move, char promotion) {
+            Long sent = sentAt.remove(roomId);
+            if (sent != null) {
+                latency.record(System.nanoTime() - sent);
+            }
+            moves.incrementAndGet();
+
+            board.move(move[0], move[1], move[2], move[3], Piece.fromChar(promotion));
+            beliefs.observe(board.getPosition());
+            plies++;
+            scheduleMove();
+        }
+
+        public void moveRejected() {
+            rejected.incrementAndGet();
+        }
+
+        public void clockUpdated(long whiteMillis, long blackMillis) {
+        }
+
+        public void gameOver(GameStatus status) {
+            synchronized (this) {
+                if (isWhite) {
+                    games.incrementAndGet();
+                }
+                board = null;
+            }
+            if (!stopping) {
+                try {
+                    connection.queue();
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                }
+            }
+        }
+
+        private void scheduleMove() {
+            if (board != null && board.getTurn() == isWhite && !stopping) {
+                scheduler.schedule(this::makeMove, moveDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void makeMove() {
+            int[] move;
+            synchronized (this) {
+                if (board == null || board.getTurn() != isWhite || stopping) {
+                    return;
+                }
+
+                if (plies >= MAX_PLIES) {
+                    board = null;
+                    try {
+                        connection.leave();
+                        connection.queue();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    return;
+                }
+
+                List<int[]> legal = board.getAllLegalMoves();
+                if (legal.isEmpty()) {
+                    return;
+                }
+                move = legal.get(ThreadLocalRandom.current().nextInt(legal.size()));
+                board.move(move[0], move[1], move[2], move[3]);
+                beliefs.observe(board.getPosition());
+                plies++;
+                sentAt.put(roomId, System.nanoTime());
+            }
+
+            try {
+                connection.sendMove(move, 'Q');
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Runs the given number of games at once for the given time and prints
+     * progress every few seconds and a summary at the end.
+     */
+    void run(String host, int port, int gameCount, long seconds) throws InterruptedException {
+        run(Collections.singletonList(host + ":" + port), gameCount, seconds);
+    }
+
+    /**
+     * Runs the games against the nodes of a cluster, each "host:port". Both
+     * bots of a pair start at the same node so the lobby there matches them.
+     */
+    void run(List<String> nodes, int gameCount, long seconds) throws InterruptedException {
+        Bot[] bots = new Bot[gameCount * 2];
+        for (int i = 0; i < bots.length; i++) {
+            bots[i] = new Bot(nodes, (i / 2) % nodes.size(), "bot-" + i);
+        }
+
+        for (Bot bot : bots) {
+            try {
+                bot.start();
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(5000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            report(System.nanoTime() - start);
+        }
+
+        stopping = true;
+        scheduler.shutdownNow();
+        for (Bot bot : bots) {
+            bot.connection.disconnect();
+        }
+
+        System.out.println();
+        System.out.println("Final:");
+        report(System.nanoTime() - start);
+    }
+
+    private void report(long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        System.out.printf("%6.1fs  moves %d (%.0f/s)  games %d  p50 %.2fms  p99 %.2fms  max %.2fms  rejected %d  errors %d"
+                + "  resynced %d  lost %d%n",
+            elapsedSeconds, moves.get(), moves.get() / elapsedSeconds, games.get(),
+            latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+            rejected.get(), errors.get(), resyncs.get(), lost.get());
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        double movesPerSecond = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+
+        LobbyServer server = null;
+        String host = "127.0.0.1";
+        int port;
+        if (args.length > 4) {
+            host = args[3];
+            port = Integer.parseInt(args[4]);
+        } else {
+            server = new LobbyServer(new Lobby(0, 0), 0);
+            server.bind();
+            Thread serverThread = new Thread(server, "lobby");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            port = server.getPort();
+        }
+
+        System.out.printf("Playing %d games at %.1f moves/s each for %ds against %s:%d%n",
+            gameCount, movesPerSecond, seconds, host, port);
+        new LoadTest(movesPerSecond).run(host, port, gameCount, seconds);
+
+        if (server != null) {
+            System.out.println();
+            System.out.print(Metrics.dump());
+            server.close();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,165 @@
+package com.cloudydino.incognitochess;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Pairs players up and routes them into rooms. Players can queue for the next
+ * available opponent, create a private room, or join a room by its id.
+ */
+class Lobby {
+
+    static final long DEFAULT_BASE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final long DEFAULT_INCREMENT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final TimerWheel timers = new TimerWheel();
+    private final GameRegistry registry = new GameRegistry(timers);
+    private final long baseMillis, incrementMillis;
+    private volatile RatingEngine ratings;
+    private volatile ShardNode shard;
+
+    // The one player waiting for a match, if any. Swapped with CAS so queueing
+    // never blocks
+    private final AtomicReference<Player> waiting = new AtomicReference<>();
+
+    Lobby() {
+        this(DEFAULT_BASE_MILLIS, DEFAULT_INCREMENT_MILLIS);
+    }
+
+    /**
+     * @param baseMillis the time each player starts with, or 0 for untimed games
+     */
+    Lobby(long baseMillis, long incrementMillis) {
+        this.baseMillis = baseMillis;
+        this.incrementMillis = incrementMillis;
+    }
+
+    GameRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Saves every game that finishes from now on, and serves the ratings
+     * worked out from them.
+     */
+    void setResults(ResultsStore results, RatingEngine ratings) {
+        registry.setResults(results);
+        this.ratings = ratings;
+    }
+
+    /**
+     * @return RatingEngine null unless results are being kept
+     */
+    RatingEngine getRatings() {
+        return ratings;
+    }
+
+    /**
+     * @return ShardNode the node this lobby is part of, or null if it stands
+     * alone
+     */
+    ShardNode getShard() {
+        return shard;
+    }
+
+    void setShard(ShardNode shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Pairs the player with whoever is waiting, or leaves them waiting for the
+     * next player to queue.
+     */
+    void queue(Player player) {
+        while (true) {
+            Player other = waiting.get();
+            if (other == null) {
+                if (waiting.compareAndSet(null, player)) {
+                    return;
+                }
+            } else if (other == player) {
+                return;
+            } else if (waiting.compareAndSet(other, null)) {
+                newRoom(room -> {
+                    room.seat(other);
+                    room.seat(player);
+                });
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return GameRoom a new room with the player seated, waiting for someone
+     * to join it by id
+     */
+    GameRoom createRoom(Player player) {
+        return newRoom(room -> room.seat(player));
+    }
+
+    /**
+     * @return GameRoom the room the player was seated in, or null if the room
+     * doesn't exist or is already full
+     */
+    GameRoom joinRoom(int id, Player player) {
+        GameRoom room = registry.get(id);
+        if (room == null || !room.seat(player)) {
+            return null;
+        }
+        return room;
+    }
+
+    /**
+     * Sets the room's clock and seats its players before anyone can join it
+     * by id.
+     */
+    private GameRoom newRoom(Consumer<GameRoom> seat) {
+        return registry.create(room -> {
+            if (baseMillis > 0) {
+                room.setClock(new ChessClock(baseMillis, incrementMillis));
+            }
+            seat.accept(room);
+        });
+    }
+
+    /**
+     * @return GameRoom the room the player was put back into, or null if the
+     * token is unknown or its game has ended
+     */
+    GameRoom resume(long token, Player player) {
+        GameRoom room = registry.getSession(token);
+        if (room == null || !room.resume(token, player)) {
+            return null;
+        }
+        Metrics.increment(Metrics.Counter.RESUMES);
+        return room;
+    }
+
+    /**
+     * Takes the player out of the queue and out of their room, if they have one.
+     */
+    void leave(Player player, GameRoom room) {
+        waiting.compareAndSet(player, null);
+        if (room != null) {
+            room.leave(player);
+        }
+    }
+
+    /**
+     * Like leave, but a game in progress is held open for the player to resume.
+     */
+    void disconnected(Player player, GameRoom room) {
+        waiting.compareAndSet(player, null);
+        if (room != null) {
+            room.disconnected(player);
+        }
+    }
+
+    /**
+     * Stops the timers, so no clock or reconnect deadline fires after this.
+     */
+    void close() {
+        timers.stop();
+    }
+}
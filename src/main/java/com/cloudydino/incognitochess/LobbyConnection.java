@@ -0,0 +1,308 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The client's side of a connection to a LobbyServer. Commands are sent with
+ * the methods below and everything the lobby sends back is passed to the
+ * Listener from the thread running this.
+ *
+ * If the connection drops during a game it is reopened and the seat resumed
+ * with the session token, after which the Listener is resynced. With fallbacks
+ * added, reconnecting tries each of them in turn after the first address, so a
+ * client of a cluster carries on through another node if its own goes down.
+ */
+public class LobbyConnection implements Runnable {
+
+    interface Listener {
+        void roomAssigned(int roomId);
+
+        void gameStarted(int roomId, boolean isWhite);
+
+        /**
+         * The game is at snapshot with the packed moves (see MoveLog) applied
+         */
+        void resynced(int roomId, boolean isWhite, String snapshot, int[] moves);
+
+        void moveReceived(int[] move, char promotion);
+
+        void moveRejected();
+
+        void clockUpdated(long whiteMillis, long blackMillis);
+
+        void gameOver(GameStatus status);
+    }
+
+    private final List<String> addresses = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    // Index of the address connected to last
+    private int current;
+    private static final int RECONNECT_ATTEMPTS = 10;
+    private static final long RECONNECT_DELAY_MILLIS = 500;
+
+    private final Listener listener;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private volatile long token;
+    private volatile int roomId;
+    private volatile boolean closing;
+    // Sent again after reconnecting, since the lobby sees a new player
+    private String name;
+
+    LobbyConnection(String address, int port, Listener listener) {
+        addresses.add(address);
+        ports.add(port);
+        this.listener = listener;
+    }
+
+    /**
+     * Adds another lobby to reconnect to if the first can't be reached, such as
+     * another node of the same cluster.
+     */
+    synchronized void addFallback(String address, int port) {
+        addresses.add(address);
+        ports.add(port);
+    }
+
+    synchronized void connect() throws IOException {
+        socket = new Socket(addresses.get(current), ports.get(current));
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Opens a new connection to the next address, after the last one was lost
+     * outside a game.
+     */
+    synchronized void connectNext() throws IOException {
+        current = (current + 1) % addresses.size();
+        connect();
+    }
+
+    /**
+     * @return long the session token for the current game, 0 if there isn't one
+     */
+    long getToken() {
+        return token;
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                readMessages();
+            } catch (IOException e) {
+                if (closing) {
+                    return;
+                }
+                if (token == 0) {
+                    if (!(e instanceof EOFException)) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+            }
+
+            if (closing || token == 0 || !reconnect()) {
+                return;
+            }
+        }
+    }
+
+    private boolean reconnect() {
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closing; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS * attempt);
+                Log.info("Reconnecting, attempt %d", attempt);
+                connect();
+                if (name != null) {
+                    setName(name);
+                }
+                resume(roomId, token);
+                return true;
+            } catch (IOException e) {
+                // Try again after a longer wait, at the next address if any
+                synchronized (this) {
+                    current = (current + 1) % addresses.size();
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void readMessages() throws IOException {
+        DataInputStream in;
+        synchronized (this) {
+            in = this.in;
+        }
+
+        while (true) {
+            byte message = in.readByte();
+            int roomId;
+            boolean isWhite;
+            switch (message) {
+                case LobbyServer.ROOM:
+                    roomId = in.readInt();
+                    if (roomId == -1) {
+                        token = 0;
+                    }
+                    listener.roomAssigned(roomId);
+                    break;
+                case LobbyServer.START:
+                    roomId = in.readInt();
+                    isWhite = in.readBoolean();
+                    token = in.readLong();
+                    this.roomId = roomId;
+                    listener.gameStarted(roomId, isWhite);
+                    break;
+                case LobbyServer.RESYNC:
+                    roomId = in.readInt();
+                    isWhite = in.readBoolean();
+                    token = in.readLong();
+                    this.roomId = roomId;
+                    String snapshot = in.readUTF();
+                    int[] moves = new int[in.readInt()];
+                    for (int i = 0; i < moves.length; i++) {
+                        moves[i] = in.readInt();
+                    }
+                    listener.resynced(roomId, isWhite, snapshot, moves);
+                    break;
+                case LobbyServer.MOVE:
+                    int[] move = new int[4];
+                    for (int i = 0; i < 4; i++) {
+                        move[i] = in.readInt();
+                    }
+                    listener.moveReceived(move, in.readChar());
+                    break;
+                case LobbyServer.REJECTED:
+                    listener.moveRejected();
+                    break;
+                case LobbyServer.CLOCK:
+                    long whiteMillis = in.readLong();
+                    listener.clockUpdated(whiteMillis, in.readLong());
+                    break;
+                case LobbyServer.METRICS:
+                    Log.info("Lobby metrics:%n%s", in.readUTF());
+                    break;
+                case LobbyServer.LEADERBOARD:
+                    Log.info("Leaderboard:%n%s", in.readUTF());
+                    break;
+                case LobbyServer.GAME_OVER:
+                    token = 0;
+                    listener.gameOver(GameStatus.values()[in.readInt()]);
+                    break;
+                default:
+                    throw new IOException("Unknown message " + message);
+            }
+        }
+    }
+
+    /**
+     * Tells the lobby what to save this player's results and rating under.
+     */
+    synchronized void setName(String name) throws IOException {
+        this.name = name;
+        out.writeByte(LobbyServer.NAME);
+        out.writeUTF(name);
+        out.flush();
+    }
+
+    synchronized void requestLeaderboard(int count) throws IOException {
+        out.writeByte(LobbyServer.LEADERBOARD);
+        out.writeInt(count);
+        out.flush();
+    }
+
+    synchronized void queue() throws IOException {
+        out.writeByte(LobbyServer.QUEUE);
+        out.flush();
+    }
+
+    synchronized void create() throws IOException {
+        out.writeByte(LobbyServer.CREATE);
+        out.flush();
+    }
+
+    synchronized void join(int roomId) throws IOException {
+        out.writeByte(LobbyServer.JOIN);
+        out.writeInt(roomId);
+        out.flush();
+    }
+
+    /**
+     * Takes back the seat in the room the token was issued for.
+     */
+    synchronized void resume(int roomId, long token) throws IOException {
+        this.roomId = roomId;
+        this.token = token;
+        out.writeByte(LobbyServer.RESUME);
+        out.writeInt(roomId);
+        out.writeLong(token);
+        out.flush();
+    }
+
+    synchronized void sendMove(int[] move, char promotion) throws IOException {
+        out.writeByte(LobbyServer.MOVE);
+        for (int i = 0; i < 4; i++) {
+            out.writeInt(move[i]);
+        }
+        out.writeChar(promotion);
+        out.flush();
+    }
+
+    /**
+     * Asks the lobby for its metrics, which get logged when they arrive.
+     */
+    synchronized void requestMetrics() throws IOException {
+        out.writeByte(LobbyServer.METRICS);
+        out.flush();
+    }
+
+    synchronized void leave() throws IOException {
+        token = 0;
+        out.writeByte(LobbyServer.LEAVE);
+        out.flush();
+    }
+
+    /**
+     * Opens a connection just to ask for the lobby's metrics.
+     *
+     * @return String the metrics as plain text
+     */
+    static String fetchMetrics(String address, int port) throws IOException {
+        try (Socket socket = new Socket(address, port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeByte(LobbyServer.METRICS);
+            out.flush();
+
+            byte message = in.readByte();
+            if (message != LobbyServer.METRICS) {
+                throw new IOException("Unexpected message " + message);
+            }
+            return in.readUTF();
+        }
+    }
+
+    public void disconnect() {
+        closing = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Accepts player connections and hands them to a shared Lobby. Every message
+ * starts with one of the byte codes below, followed by its arguments.
+ *
+ * Client to server:
+ *  QUEUE
+ *  CREATE
+ *  JOIN     int roomId
+ *  RESUME   int roomId, long token
+ *  METRICS  (asks for a plain text dump of the server's Metrics)
+ *  MOVE     int startX, int startY, int destX, int destY, char promotion
+ *  LEAVE
+ *  NAME     UTF name (what the player's results and rating are kept under)
+ *  LEADERBOARD int count (asks for the top rated players as plain text)
+ * QUEUE, CREATE and JOIN are ignored from a player still in a room whose game
+ * hasn't ended.
+ *
+ * Server to client:
+ *  ROOM      int roomId (-1 if a JOIN or RESUME failed)
+ *  START     int roomId, boolean isWhite, long token
+ *  RESYNC    int roomId, boolean isWhite, long token, UTF snapshot FEN,
+ *            int count, int[count] packed moves since the snapshot
+ *  MOVE      int startX, int startY, int destX, int destY, char promotion
+ *  REJECTED  (the last MOVE sent was not made)
+ *  CLOCK     long whiteMillis, long blackMillis (after the start and every move)
+ *  GAME_OVER int GameStatus ordinal
+ *  METRICS   UTF text
+ *  LEADERBOARD UTF text
+ *
+ * Node to node, between the ShardNodes of a cluster. Every connection from
+ * another node opens with PEER, and the others are refused without it:
+ *  PEER      UTF secret (the cluster's shared secret)
+ *  FORWARDED (the rest of the connection is a player's, passed on by the node
+ *            they connected to, and no longer trusted as a node's)
+ *  MIGRATE   RoomState (a game to carry on here, answered with ROOM)
+ *  REPLICA   RoomState (a copy of a game to keep in case its owner goes)
+ *  REPLICATE int roomId, int ply, int packed move, int millis,
+ *            long whiteMillis, long blackMillis (a move to add to a copy)
+ *  RELEASE   int roomId (the game is over, drop the copy)
+ */
+public class LobbyServer implements Runnable {
+
+    static final int DEFAULT_PORT = 5001;
+    static final int MAX_NAME_LENGTH = 32;
+    static final int MAX_LEADERBOARD = 100;
+
+    private static final int TRAINING_GAMES = 20;
+    private static final double TRAINING_MOVES_PER_SECOND = 100;
+    private static final long TRAINING_SECONDS = 3;
+
+    static final byte QUEUE = 1;
+    static final byte CREATE = 2;
+    static final byte JOIN = 3;
+    static final byte MOVE = 4;
+    static final byte LEAVE = 5;
+    static final byte RESUME = 6;
+    static final byte METRICS = 7;
+    static final byte NAME = 8;
+    static final byte LEADERBOARD = 9;
+
+    static final byte ROOM = 11;
+    static final byte START = 12;
+    static final byte REJECTED = 13;
+    static final byte GAME_OVER = 14;
+    static final byte CLOCK = 15;
+    static final byte RESYNC = 16;
+
+    static final byte FORWARDED = 20;
+    static final byte MIGRATE = 21;
+    static final byte REPLICA = 22;
+    static final byte REPLICATE = 23;
+    static final byte RELEASE = 24;
+    static final byte PEER = 25;
+
+    private final Lobby lobby;
+    private final int port;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket server;
+
+    LobbyServer(int port) {
+        this(new Lobby(), port);
+    }
+
+    LobbyServer(Lobby lobby, int port) {
+        this.lobby = lobby;
+        this.port = port;
+    }
+
+    Lobby getLobby() {
+        return lobby;
+    }
+
+    /**
+     * @return int the port being listened on, which is only known after binding
+     * when constructed with port 0
+     */
+    int getPort() {
+        ServerSocket s = server;
+        return s == null ? port : s.getLocalPort();
+    }
+
+    /**
+     * Binds the server socket without accepting yet, so callers can connect as
+     * soon as this returns.
+     */
+    void bind() throws IOException {
+        if (server == null) {
+            server = new ServerSocket(port);
+        }
+    }
+
+    public void run() {
+        try {
+            bind();
+            Metrics.registerMBeanLater();
+            Log.info("Lobby started on port %d", getPort());
+
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Metrics.increment(Metrics.Counter.CONNECTIONS);
+                sockets.add(socket);
+                RemotePlayer player = new RemotePlayer(lobby, socket);
+                connections.execute(() -> {
+                    try {
+                        player.run();
+                    } finally {
+                        sockets.remove(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            if (server == null || !server.isClosed()) {
+                Log.error("Stopped accepting players: %s", e);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and drops every connection.
+     */
+    public void close() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            Log.warn("Couldn't close the lobby: %s", e);
+        }
+        connections.shutdownNow();
+    }
+
+    /**
+     * Usage: LobbyServer [port] [base seconds] [increment seconds] [results file]
+     *        LobbyServer -train
+     * With a results file every finished game is saved to it and named
+     * players are rated.
+     *
+     * -train plays bot games against a lobby on loopback for a few seconds and
+     * exits, which loads every class a running server needs. Run it with
+     * -XX:ArchiveClassesAtExit=lobby.jsa, then start servers with
+     * -XX:SharedArchiveFile=lobby.jsa to skip loading them again.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Nothing here draws anything; if an AWT class is ever loaded by
+        // mistake it mustn't go looking for a display
+        System.setProperty("java.awt.headless", "true");
+        if (args.length > 0 && args[0].equals("-train")) {
+            train();
+            System.exit(0);
+        }
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long base = args.length > 1 ? Long.parseLong(args[1]) * 1000 : Lobby.DEFAULT_BASE_MILLIS;
+        long increment = args.length > 2 ? Long.parseLong(args[2]) * 1000 : Lobby.DEFAULT_INCREMENT_MILLIS;
+        Lobby lobby = new Lobby(base, increment);
+        if (args.length > 3) {
+            ResultsStore results = new ResultsStore(Paths.get(args[3]));
+            RatingEngine ratings = new RatingEngine();
+            ratings.start(results);
+            lobby.setResults(results, ratings);
+            Log.info("Saving results to %s, %d games so far", args[3], results.size());
+        }
+        new LobbyServer(lobby, port).run();
+    }
+
+    /**
+     * Runs a lobby that saves and rates its games through the TRAINING_GAMES
+     * of a LoadTest.
+     */
+    private static void train() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("training", ".log");
+        try (ResultsStore results = new ResultsStore(file)) {
+            RatingEngine ratings = new RatingEngine();
+            ratings.start(results);
+            Lobby lobby = new Lobby(0, 0);
+            lobby.setResults(results, ratings);
+
+            LobbyServer server = new LobbyServer(lobby, 0);
+            server.bind();
+            Thread thread = new Thread(server, "lobby");
+            thread.setDaemon(true);
+            thread.start();
+            new LoadTest(TRAINING_MOVES_PER_SECOND).run("127.0.0.1", server.getPort(), TRAINING_GAMES, TRAINING_SECONDS);
+
+            server.close();
+            lobby.close();
+            ratings.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cluster of ShardNodes in one JVM, each listening on its own loopback port,
+ * for trying out sharding and failover without more machines. Nodes can be
+ * added, removed gracefully, which moves their games to the other nodes
+ * first, or killed, which leaves the other nodes to take over their games
+ * from the copies they kept.
+ *
+ * Usage: LocalCluster [nodes] [games] [moves per second per game] [seconds]
+ *                     [kill a node after seconds]
+ * Runs a LoadTest spread over the nodes, killing one of them partway through
+ * if asked.
+ */
+public class LocalCluster implements AutoCloseable {
+
+    static final String HOST = "127.0.0.1";
+
+    private final long baseMillis;
+    private final long incrementMillis;
+    private final String secret = Long.toHexString(new SecureRandom().nextLong());
+    private final List<ShardNode> nodes = new ArrayList<>();
+
+    /**
+     * @param baseMillis the time each player starts with, or 0 for untimed games
+     */
+    LocalCluster(long baseMillis, long incrementMillis) {
+        this.baseMillis = baseMillis;
+        this.incrementMillis = incrementMillis;
+    }
+
+    /**
+     * Starts a node and hands it its share of the games.
+     */
+    synchronized ShardNode addNode() throws IOException {
+        ShardNode node = new ShardNode(HOST, 0, new Lobby(baseMillis, incrementMillis), secret);
+        node.start();
+        nodes.add(node);
+        spread(getRing());
+        return node;
+    }
+
+    /**
+     * Moves the node's games to the others before stopping it.
+     */
+    synchronized void removeNode(ShardNode node) {
+        if (!nodes.remove(node)) {
+            return;
+        }
+        HashRing ring = getRing();
+        // The leaving node goes first, so the new owners get its games before
+        // they think of starting up their own copies
+        node.setRing(ring);
+        node.rebalance();
+        spread(ring);
+        node.close();
+    }
+
+    /**
+     * Stops the node as if it had crashed, then lets the others take over.
+     */
+    synchronized void killNode(ShardNode node) {
+        if (!nodes.remove(node)) {
+            return;
+        }
+        node.kill();
+        spread(getRing());
+    }
+
+    /**
+     * Tells every node about the ring before any of them rebalances, so games
+     * are only ever moved to a node that knows it owns them.
+     */
+    private void spread(HashRing ring) {
+        for (ShardNode node : nodes) {
+            node.setRing(ring);
+        }
+        for (ShardNode node : nodes) {
+            node.rebalance();
+        }
+    }
+
+    synchronized HashRing getRing() {
+        return new HashRing(getAddresses());
+    }
+
+    synchronized List<ShardNode> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * @return List<String> the "host:port" of every node
+     */
+    synchronized List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>();
+        for (ShardNode node : nodes) {
+            addresses.add(node.getId());
+        }
+        return addresses;
+    }
+
+    public synchronized void close() {
+        for (ShardNode node : nodes) {
+            node.close();
+        }
+        nodes.clear();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int gameCount = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        double movesPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+        long killAfter = args.length > 4 ? Long.parseLong(args[4]) : -1;
+
+        LocalCluster cluster = new LocalCluster(0, 0);
+        for (int i = 0; i < nodeCount; i++) {
+            cluster.addNode();
+        }
+
+        if (killAfter >= 0 && nodeCount > 1) {
+            Thread killer = new Thread(() -> {
+                try {
+                    Thread.sleep(killAfter * 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ShardNode victim = cluster.getNodes().get(0);
+                System.out.printf("Killing %s with %d rooms%n",
+                    victim.getId(), victim.getLobby().getRegistry().size());
+                cluster.killNode(victim);
+            }, "killer");
+            killer.setDaemon(true);
+            killer.start();
+        }
+
+        System.out.printf("Playing %d games at %.1f moves/s each for %ds on %d nodes %s%n",
+            gameCount, movesPerSecond, seconds, nodeCount, cluster.getAddresses());
+        new LoadTest(movesPerSecond).run(cluster.getAddresses(), gameCount, seconds);
+
+        System.out.println();
+        for (ShardNode node : cluster.getNodes()) {
+            System.out.printf("%s  %d rooms  %d copies%n",
+                node.getId(), node.getLobby().getRegistry().size(), node.getReplicaCount());
+        }
+        System.out.print(Metrics.dump());
+        cluster.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.cloudydino.incognitochess;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An in-process Player that just records what the room tells it. Lets the
+ * lobby and rooms be driven without any sockets.
+ */
+class LocalPlayer implements Player {
+
+    private final String name;
+    private volatile GameRoom room;
+    private volatile boolean white;
+    private volatile long token;
+    private volatile GameStatus status;
+    private volatile long whiteMillis, blackMillis;
+    private final BlockingQueue<int[]> received = new LinkedBlockingQueue<>();
+
+    LocalPlayer() {
+        this("");
+    }
+
+    LocalPlayer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void gameStarted(GameRoom room, boolean isWhite, long token) {
+        this.room = room;
+        this.white = isWhite;
+        this.token = token;
+    }
+
+    public void resynced(GameRoom room, boolean isWhite, long token, String snapshot, int[] moves) {
+        gameStarted(room, isWhite, token);
+    }
+
+    public void moveReceived(int[] move, char promotion) {
+        received.add(move);
+    }
+
+    public void clockUpdated(long whiteMillis, long blackMillis) {
+        this.whiteMillis = whiteMillis;
+        this.blackMillis = blackMillis;
+    }
+
+    public void gameOver(GameStatus status) {
+        this.status = status;
+    }
+
+    public void roomMoved() {
+        room = null;
+    }
+
+    boolean move(int startX, int startY, int destX, int destY) {
+        return move(startX, startY, destX, destY, 'Q');
+    }
+
+    boolean move(int startX, int startY, int destX, int destY, char promotion) {
+        GameRoom current = room;
+        return current != null && current.move(this, new int[]{startX, startY, destX, destY}, promotion);
+    }
+
+    GameRoom getRoom() {
+        return room;
+    }
+
+    long getToken() {
+        return token;
+    }
+
+    boolean isWhite() {
+        return white;
+    }
+
+    long getRemaining(boolean isWhite) {
+        return isWhite ? whiteMillis : blackMillis;
+    }
+
+    GameStatus getStatus() {
+        return status;
+    }
+
+    BlockingQueue<int[]> getReceived() {
+        return received;
+    }
+}
@@ -0,0 +1,111 @@
+package com.cloudydino.incognitochess;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A leveled logger that formats and prints on its own thread, so logging from
+ * the game or network threads only costs a queue offer. If the queue is full
+ * the message is dropped and counted rather than blocking the caller.
+ *
+ * The level is set with -Dincognitochess.log=DEBUG|INFO|WARN|ERROR and defaults
+ * to INFO.
+ */
+final class Log {
+
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final Level level = parseLevel(System.getProperty("incognitochess.log"));
+    private static final int QUEUE_SIZE = 8192;
+    private static final BlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final PrintStream out = System.out;
+
+    static {
+        Thread writer = new Thread(Log::write, "log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String name) {
+        if (name != null) {
+            for (Level l : Level.values()) {
+                if (l.name().equalsIgnoreCase(name)) {
+                    return l;
+                }
+            }
+        }
+        return Level.INFO;
+    }
+
+    static boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+    static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    static void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    static void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    static void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    /**
+     * Arrays passed as arguments must not be changed afterwards, as they are
+     * only formatted once the writer gets to them.
+     */
+    static void log(Level l, String format, Object... args) {
+        if (!isEnabled(l)) {
+            return;
+        }
+        if (!queue.offer(new Object[]{l, Thread.currentThread().getName(), format, args})) {
+            Metrics.increment(Metrics.Counter.LOG_DROPPED);
+        }
+    }
+
+    private static void write() {
+        while (true) {
+            try {
+                print(queue.take());
+                Object[] entry;
+                while ((entry = queue.poll()) != null) {
+                    print(entry);
+                }
+                out.flush();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static synchronized void flush() {
+        Object[] entry;
+        while ((entry = queue.poll()) != null) {
+            print(entry);
+        }
+        out.flush();
+    }
+
+    private static synchronized void print(Object[] entry) {
+        Object[] args = (Object[]) entry[3];
+        String message = args.length == 0 ? (String) entry[2] : String.format((String) entry[2], args);
+        out.printf("%-5s [%s] %s%n", entry[0], entry[1], message);
+        if (args.length > 0 && args[args.length - 1] instanceof Throwable) {
+            ((Throwable) args[args.length - 1]).printStackTrace(out);
+        }
+    }
+}
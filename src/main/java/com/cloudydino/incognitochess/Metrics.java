@@ -0,0 +1,245 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters and per-operation latency histograms. Recording never
+ * takes a lock: counters are LongAdders and histograms are LatencyHistograms.
+ *
+ * Timing an operation looks like
+ *  Metrics.begin();
+ *  ...
+ *  Metrics.end(Metrics.Operation.BOARD_MOVE);
+ * and can be nested. Set -Dincognitochess.metrics=false to turn timing off
+ * entirely, and -Dincognitochess.metrics.allocations=true to also count the
+ * bytes each operation allocates (which costs a little more per call).
+ */
+final class Metrics {
+
+    enum Operation {
+        BOARD_MOVE, LEGAL_MOVES, UPDATE_ATTACK, SOCKET_READ, ROOM_MOVE, REFRESH_BOARD, ANALYZE, BELIEF_UPDATE
+    }
+
+    enum Counter {
+        CONNECTIONS, MOVES_RELAYED, MOVES_REJECTED, RESUMES, LOG_DROPPED, ANALYSIS_CACHE_HITS, FORWARDED
+    }
+
+    static final boolean ENABLED = !"false".equals(System.getProperty("incognitochess.metrics"));
+    static final boolean ALLOCATIONS = Boolean.getBoolean("incognitochess.metrics.allocations");
+
+    private static final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private static final Map<Operation, LongAdder> allocations = new EnumMap<>(Operation.class);
+    private static final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+
+    static {
+        for (Operation op : Operation.values()) {
+            latencies.put(op, new LatencyHistogram());
+            allocations.put(op, new LongAdder());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threads = getThreadBean();
+
+    // Start times (and allocation counts) of the operations each thread is in
+    private static final int MAX_DEPTH = 16;
+    private static final ThreadLocal<long[]> stack = ThreadLocal.withInitial(() -> new long[MAX_DEPTH * 2 + 1]);
+
+    private Metrics() {
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (ALLOCATIONS && bean instanceof com.sun.management.ThreadMXBean) {
+            return (com.sun.management.ThreadMXBean) bean;
+        }
+        return null;
+    }
+
+    static void begin() {
+        if (!ENABLED) {
+            return;
+        }
+        long[] frames = stack.get();
+        int depth = (int) frames[0];
+        if (depth < MAX_DEPTH) {
+            frames[1 + depth * 2] = System.nanoTime();
+            frames[2 + depth * 2] = threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        frames[0] = depth + 1;
+    }
+
+    static void end(Operation op) {
+        if (!ENABLED) {
+            return;
+        }
+        long[] frames = stack.get();
+        int depth = (int) frames[0] - 1;
+        if (depth < 0) {
+            return;
+        }
+        frames[0] = depth;
+        if (depth < MAX_DEPTH) {
+            latencies.get(op).record(System.nanoTime() - frames[1 + depth * 2]);
+            if (threads != null) {
+                allocations.get(op).add(threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - frames[2 + depth * 2]);
+            }
+        }
+    }
+
+    static void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    static LatencyHistogram getLatency(Operation op) {
+        return latencies.get(op);
+    }
+
+    static long getCount(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    static long getAllocatedBytes(Operation op) {
+        return allocations.get(op).sum();
+    }
+
+    static void reset() {
+        for (Operation op : Operation.values()) {
+            latencies.get(op).reset();
+            allocations.get(op).reset();
+        }
+        for (Counter counter : Counter.values()) {
+            counters.get(counter).reset();
+        }
+    }
+
+    /**
+     * Writes one line per counter and per operation that has been timed.
+     */
+    static void dump(Appendable out) throws IOException {
+        for (Counter counter : Counter.values()) {
+            out.append(String.format("%-16s %d%n", counter.name().toLowerCase(), getCount(counter)));
+        }
+        for (Operation op : Operation.values()) {
+            LatencyHistogram latency = latencies.get(op);
+            long count = latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            out.append(String.format("%-16s count %d  mean %.1fus  p50 %.1fus  p99 %.1fus  max %.1fus",
+                op.name().toLowerCase(), count, latency.getMean() / 1e3, latency.getPercentile(50) / 1e3,
+                latency.getPercentile(99) / 1e3, latency.getMax() / 1e3));
+            if (threads != null) {
+                out.append(String.format("  alloc %d B/op", getAllocatedBytes(op) / count));
+            }
+            out.append(System.lineSeparator());
+        }
+    }
+
+    static String dump() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            dump(sb);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints the metrics of the lobby at host and port.
+     *
+     * Usage: Metrics [host] [port]
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : LobbyServer.DEFAULT_PORT;
+        System.out.print(LobbyConnection.fetchMetrics(host, port));
+    }
+
+    /**
+     * Registers the MBean on a thread of its own. Starting the platform MBean
+     * server takes longer than the rest of a lobby's startup put together, and
+     * nothing needs to wait for it.
+     */
+    static void registerMBeanLater() {
+        Thread thread = new Thread(Metrics::registerMBean, "metrics-mbean");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Makes the metrics readable over JMX as com.cloudydino.incognitochess:type=Metrics
+     */
+    static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.cloudydino.incognitochess:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            Log.warn("Couldn't register metrics MBean: %s", e);
+        }
+    }
+
+    private static class MBean implements MetricsMXBean {
+
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Counter counter : Counter.values()) {
+                values.put(counter.name(), getCount(counter));
+            }
+            return values;
+        }
+
+        public Map<String, Long> getCallCounts() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Operation op : Operation.values()) {
+                values.put(op.name(), latencies.get(op).getCount());
+            }
+            return values;
+        }
+
+        public Map<String, Long> getP50Nanos() {
+            return percentiles(50);
+        }
+
+        public Map<String, Long> getP99Nanos() {
+            return percentiles(99);
+        }
+
+        public Map<String, Long> getAllocatedBytes() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Operation op : Operation.values()) {
+                values.put(op.name(), Metrics.getAllocatedBytes(op));
+            }
+            return values;
+        }
+
+        public String getSummary() {
+            return dump();
+        }
+
+        public void reset() {
+            Metrics.reset();
+        }
+
+        private Map<String, Long> percentiles(double percentile) {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Operation op : Operation.values()) {
+                values.put(op.name(), latencies.get(op).getPercentile(percentile));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.cloudydino.incognitochess;
+
+import java.util.Map;
+
+/**
+ * What Metrics exposes over JMX. Latencies are in nanoseconds and every map is
+ * keyed by the Metrics.Operation or Metrics.Counter name.
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getCallCounts();
+
+    Map<String, Long> getP50Nanos();
+
+    Map<String, Long> getP99Nanos();
+
+    Map<String, Long> getAllocatedBytes();
+
+    String getSummary();
+
+    void reset();
+}
@@ -0,0 +1,100 @@
+package com.cloudydino.incognitochess;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of a game as FEN plus the moves made since it was taken. Every
+ * SNAPSHOT_INTERVAL plies the snapshot is retaken and the move list cleared,
+ * so catching up from the log never means replaying more than that many moves
+ * however long the game runs.
+ *
+ * Moves are packed into one int each, see pack().
+ */
+class MoveLog {
+
+    static final int SNAPSHOT_INTERVAL = 16;
+
+    private String snapshot;
+    private int snapshotPly;
+    private final int[] moves = new int[SNAPSHOT_INTERVAL];
+    private int size;
+
+    MoveLog(Board board) {
+        this(board, 0);
+    }
+
+    /**
+     * Starts the log at a game that's already ply plies in.
+     */
+    MoveLog(Board board, int ply) {
+        snapshot = board.toFen();
+        snapshotPly = ply;
+    }
+
+    /**
+     * Records a move that was just made on the board, taking a new snapshot of
+     * the board if the interval is up.
+     */
+    synchronized void add(Board board, int[] move, char promotion) {
+        moves[size++] = pack(move, promotion);
+        if (size == SNAPSHOT_INTERVAL) {
+            snapshot = board.toFen();
+            snapshotPly += size;
+            size = 0;
+        }
+    }
+
+    synchronized String getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return int how many plies into the game the snapshot was taken
+     */
+    synchronized int getSnapshotPly() {
+        return snapshotPly;
+    }
+
+    synchronized int getPly() {
+        return snapshotPly + size;
+    }
+
+    /**
+     * @return int[] the packed moves made since the snapshot
+     */
+    synchronized int[] getMoves() {
+        return Arrays.copyOf(moves, size);
+    }
+
+    /**
+     * @return Board a new board at the current position of the game
+     */
+    synchronized Board toBoard() {
+        Board board = new Board(snapshot);
+        for (int i = 0; i < size; i++) {
+            applyPacked(board, moves[i]);
+        }
+        return board;
+    }
+
+    /**
+     * Packs startX, startY, destX, destY into 3 bits each and the promotion
+     * character into the upper 16 bits.
+     */
+    static int pack(int[] move, char promotion) {
+        return move[0] | move[1] << 3 | move[2] << 6 | move[3] << 9 | promotion << 16;
+    }
+
+    static int[] unpackMove(int packed) {
+        return new int[]{packed & 7, packed >> 3 & 7, packed >> 6 & 7, packed >> 9 & 7};
+    }
+
+    static char unpackPromotion(int packed) {
+        return (char) (packed >>> 16);
+    }
+
+    static boolean applyPacked(Board board, int packed) {
+        return board.move(packed & 7, packed >> 3 & 7, packed >> 6 & 7, packed >> 9 & 7,
+            Piece.fromChar(unpackPromotion(packed)));
+    }
+}
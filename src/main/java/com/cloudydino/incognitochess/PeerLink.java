@@ -0,0 +1,181 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A one way connection from one ShardNode to another, for the replication
+ * messages that don't need an answer. Messages are queued without blocking
+ * and written in order by the link's own thread, which reconnects whenever
+ * the connection drops and sends the message it was on again. If the queue
+ * fills up because the peer is unreachable, new messages are dropped; the
+ * peer's copies are put right by the next full REPLICA.
+ */
+class PeerLink {
+
+    static final int MAX_QUEUED = 1 << 16;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final long RETRY_MILLIS = 200;
+    // Queued by close() to stop the writer, like ResultsStore's
+    private static final byte[] CLOSE = new byte[0];
+
+    private final String node;
+    private final String secret;
+    private final BlockingQueue<byte[]> pending = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final Thread writer;
+    private Socket socket;
+
+    /**
+     * @param secret the cluster's shared secret, sent first on every connection
+     */
+    PeerLink(String node, String secret) {
+        this.node = node;
+        this.secret = secret;
+        writer = new Thread(this::write, "peer-" + node);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void sendReplica(RoomState state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(LobbyServer.REPLICA);
+            state.write(out);
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        send(bytes.toByteArray());
+    }
+
+    void sendMove(int roomId, int ply, int packed, int millis, long whiteMillis, long blackMillis) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(33);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(LobbyServer.REPLICATE);
+            out.writeInt(roomId);
+            out.writeInt(ply);
+            out.writeInt(packed);
+            out.writeInt(millis);
+            out.writeLong(whiteMillis);
+            out.writeLong(blackMillis);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        send(bytes.toByteArray());
+    }
+
+    void sendRelease(int roomId) {
+        byte[] message = new byte[5];
+        message[0] = LobbyServer.RELEASE;
+        for (int i = 0; i < 4; i++) {
+            message[1 + i] = (byte) (roomId >>> (24 - i * 8));
+        }
+        send(message);
+    }
+
+    private void send(byte[] message) {
+        if (!pending.offer(message)) {
+            Log.warn("Dropping a message to %s, %d already waiting", node, MAX_QUEUED);
+        }
+    }
+
+    private void write() {
+        InetSocketAddress address = HashRing.toAddress(node);
+        OutputStream out = null;
+        byte[] message = null;
+        while (true) {
+            try {
+                if (message == null) {
+                    message = pending.take();
+                }
+                if (message == CLOSE) {
+                    if (out != null) {
+                        out.flush();
+                    }
+                    break;
+                }
+                if (out == null) {
+                    out = connect(address);
+                }
+                out.write(message);
+                if (pending.isEmpty()) {
+                    out.flush();
+                }
+                message = null;
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                Log.debug("Lost the link to %s: %s", node, e);
+                out = null;
+                closeSocket();
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+        closeSocket();
+    }
+
+    private OutputStream connect(InetSocketAddress address) throws IOException {
+        Socket s = new Socket();
+        s.setTcpNoDelay(true);
+        s.connect(address, CONNECT_TIMEOUT_MILLIS);
+        synchronized (this) {
+            socket = s;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeByte(LobbyServer.PEER);
+        out.writeUTF(secret);
+        return out;
+    }
+
+    private synchronized void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Going anyway
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Sends whatever is already queued, then hangs up.
+     */
+    void close() {
+        // A graceful leave counts on everything queued getting through, so
+        // give a full queue a moment to drain before giving up on the peer
+        try {
+            if (pending.offer(CLOSE, CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            Log.warn("Dropping %d messages to %s on close", pending.size(), node);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        kill();
+    }
+
+    /**
+     * Hangs up straight away, dropping anything queued, as if this node had
+     * crashed.
+     */
+    void kill() {
+        writer.interrupt();
+        closeSocket();
+    }
+}
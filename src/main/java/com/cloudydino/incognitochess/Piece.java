@@ -17,28 +17,19 @@ public enum Piece {
     }
 
     public static boolean isWhite(char piece) {
-        if (!Character.isLetter(piece)) {
+        int code = PieceCode.fromChar(piece);
+        if (code == PieceCode.EMPTY) {
             throw new IllegalArgumentException(String.format("Can't determine if %c is white or not", piece));
         }
-        return Character.isUpperCase(piece);
+        return PieceCode.isWhite(code);
     }
 
     public static Piece fromChar(char piece) {
-        switch (Character.toLowerCase(piece)) {
-            case 'p':
-                return PAWN;
-            case 'n':
-                return KNIGHT;
-            case 'b':
-                return BISHOP;
-            case 'r':
-                return ROOK;
-            case 'q':
-                return QUEEN;
-            case 'k':
-                return KING;
+        Piece p = PieceCode.toPiece(PieceCode.fromChar(piece));
+        if (p == null) {
+            throw new IllegalArgumentException(String.format("Can't convert %c into a Piece", piece));
         }
-        throw new IllegalArgumentException(String.format("Can't convert %c into a Piece", piece));
+        return p;
     }
 
     public char toChar(boolean isWhite) {
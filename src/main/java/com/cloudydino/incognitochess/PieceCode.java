@@ -0,0 +1,86 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * Pieces packed into 4 bits: the low 3 bits are the Piece ordinal plus one and
+ * bit 3 is set for black, with 0 meaning an empty square. Every conversion is
+ * a table lookup so the move generator never has to look at a char.
+ *
+ *  P 1   N 2   B 3   R 4   Q 5   K 6
+ *  p 9   n 10  b 11  r 12  q 13  k 14
+ */
+final class PieceCode {
+
+    static final int EMPTY = 0;
+    static final int BLACK = 8;
+
+    static final int PAWN = 1;
+    static final int KNIGHT = 2;
+    static final int BISHOP = 3;
+    static final int ROOK = 4;
+    static final int QUEEN = 5;
+    static final int KING = 6;
+
+    private static final byte[] FROM_CHAR = new byte[128];
+    private static final char[] TO_CHAR = new char[16];
+    private static final Piece[] TO_PIECE = new Piece[16];
+
+    static {
+        for (Piece piece : Piece.values()) {
+            for (int color = 0; color <= BLACK; color += BLACK) {
+                int code = piece.ordinal() + 1 | color;
+                char c = piece.toChar(color == 0);
+                FROM_CHAR[c] = (byte) code;
+                TO_CHAR[code] = c;
+                TO_PIECE[code] = piece;
+            }
+        }
+    }
+
+    private PieceCode() {
+    }
+
+    /**
+     * @return int the code for the piece character, or EMPTY if it isn't one
+     */
+    static int fromChar(char piece) {
+        return piece < 128 ? FROM_CHAR[piece] : EMPTY;
+    }
+
+    /**
+     * @return char the piece character for the code, or 0 for EMPTY
+     */
+    static char toChar(int code) {
+        return TO_CHAR[code];
+    }
+
+    /**
+     * @return Piece the piece for the code, or null for EMPTY
+     */
+    static Piece toPiece(int code) {
+        return TO_PIECE[code];
+    }
+
+    static int of(Piece piece, boolean isWhite) {
+        return piece.ordinal() + 1 | (isWhite ? 0 : BLACK);
+    }
+
+    static int type(int code) {
+        return code & 7;
+    }
+
+    static boolean isWhite(int code) {
+        return code != EMPTY && (code & BLACK) == 0;
+    }
+
+    static boolean isBlack(int code) {
+        return (code & BLACK) != 0;
+    }
+
+    /**
+     * @return boolean if the squares hold pieces of opposite colors. False if
+     * either is empty
+     */
+    static boolean areEnemies(int a, int b) {
+        return a != EMPTY && b != EMPTY && ((a ^ b) & BLACK) != 0;
+    }
+}
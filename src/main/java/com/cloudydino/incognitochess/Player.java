@@ -0,0 +1,39 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * Someone sitting at a GameRoom. The lobby only talks to players through this
+ * interface so a socket connection and an in-process stand-in look the same.
+ */
+interface Player {
+
+    /**
+     * @return String what the player's results and rating are kept under, or
+     * "" if they never said
+     */
+    String getName();
+
+    /**
+     * @param token lets the player take their seat back with if they lose
+     * their connection
+     */
+    void gameStarted(GameRoom room, boolean isWhite, long token);
+
+    /**
+     * The player has resumed their seat. The game is at snapshot with the
+     * packed moves (see MoveLog) applied in order.
+     */
+    void resynced(GameRoom room, boolean isWhite, long token, String snapshot, int[] moves);
+
+    void moveReceived(int[] move, char promotion);
+
+    void clockUpdated(long whiteMillis, long blackMillis);
+
+    void gameOver(GameStatus status);
+
+    /**
+     * The room has moved to another server. A player in a started game should
+     * resume it with their token, which will find it there; one still waiting
+     * for an opponent has lost the room.
+     */
+    void roomMoved();
+}
@@ -0,0 +1,197 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * What CheatDetector has found out so far about one player's moves. It's the
+ * same size however many games go into it, so a whole archive can be summed
+ * up a player at a time. Not thread safe.
+ */
+class PlayerStats {
+
+    // The upper bound of each move time bucket in milliseconds, after which
+    // there's one more bucket for anything longer
+    static final int[] TIME_BUCKETS = {1000, 2000, 5000, 10_000, 30_000, 60_000};
+
+    private final String name;
+    private int games;
+    private int moves;
+    private int matches;
+    private long centipawnLoss;
+    private int hiddenThreats;
+    private int hiddenReactions;
+    private int visibleThreats;
+    private int visibleReactions;
+    private int timedMoves;
+    private double seconds;
+    private double secondsSquared;
+    private final int[] times = new int[TIME_BUCKETS.length + 1];
+
+    PlayerStats(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void addGame() {
+        games++;
+    }
+
+    /**
+     * Counts a move compared with the engine's choice.
+     *
+     * @param matched if it was the move the engine would have played
+     * @param loss how many centipawns worse the engine thought it was
+     */
+    void addMove(boolean matched, int loss) {
+        moves++;
+        if (matched) {
+            matches++;
+        }
+        centipawnLoss += loss;
+    }
+
+    /**
+     * Counts a move made while one of the player's pieces was under attack.
+     *
+     * @param hidden if the player couldn't see any of the attackers
+     * @param reacted if the move took the piece somewhere it wasn't attacked
+     */
+    void addThreat(boolean hidden, boolean reacted) {
+        if (hidden) {
+            hiddenThreats++;
+            if (reacted) {
+                hiddenReactions++;
+            }
+        } else {
+            visibleThreats++;
+            if (reacted) {
+                visibleReactions++;
+            }
+        }
+    }
+
+    void addTime(int millis) {
+        double s = millis / 1000.0;
+        timedMoves++;
+        seconds += s;
+        secondsSquared += s * s;
+        int bucket = 0;
+        while (bucket < TIME_BUCKETS.length && millis >= TIME_BUCKETS[bucket]) {
+            bucket++;
+        }
+        times[bucket]++;
+    }
+
+    /**
+     * Adds everything counted in other to this.
+     */
+    void merge(PlayerStats other) {
+        games += other.games;
+        moves += other.moves;
+        matches += other.matches;
+        centipawnLoss += other.centipawnLoss;
+        hiddenThreats += other.hiddenThreats;
+        hiddenReactions += other.hiddenReactions;
+        visibleThreats += other.visibleThreats;
+        visibleReactions += other.visibleReactions;
+        timedMoves += other.timedMoves;
+        seconds += other.seconds;
+        secondsSquared += other.secondsSquared;
+        for (int i = 0; i < times.length; i++) {
+            times[i] += other.times[i];
+        }
+    }
+
+    int getGames() {
+        return games;
+    }
+
+    /**
+     * @return int how many moves were compared with the engine's
+     */
+    int getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return double the fraction of moves that were the engine's choice
+     */
+    double getMatchRate() {
+        return moves == 0 ? 0 : (double) matches / moves;
+    }
+
+    /**
+     * @return double the centipawns lost a move on average against the
+     * engine's choice
+     */
+    double getAverageLoss() {
+        return moves == 0 ? 0 : (double) centipawnLoss / moves;
+    }
+
+    int getHiddenThreats() {
+        return hiddenThreats;
+    }
+
+    /**
+     * @return double the fraction of threats from pieces the player couldn't
+     * see that they moved out of
+     */
+    double getHiddenReactionRate() {
+        return hiddenThreats == 0 ? 0 : (double) hiddenReactions / hiddenThreats;
+    }
+
+    int getVisibleThreats() {
+        return visibleThreats;
+    }
+
+    /**
+     * @return double the fraction of threats the player could see that they
+     * moved out of
+     */
+    double getVisibleReactionRate() {
+        return visibleThreats == 0 ? 0 : (double) visibleReactions / visibleThreats;
+    }
+
+    int getTimedMoves() {
+        return timedMoves;
+    }
+
+    double getMeanSeconds() {
+        return timedMoves == 0 ? 0 : seconds / timedMoves;
+    }
+
+    /**
+     * @return double the standard deviation of the move times over their mean,
+     * low when every move takes about as long
+     */
+    double getTimeVariation() {
+        double mean = getMeanSeconds();
+        if (mean == 0) {
+            return 0;
+        }
+        double variance = Math.max(secondsSquared / timedMoves - mean * mean, 0);
+        return Math.sqrt(variance) / mean;
+    }
+
+    /**
+     * @return int how many moves took up to the bucket's bound in
+     * TIME_BUCKETS, or longer than all of them for the last bucket
+     */
+    int getTimeCount(int bucket) {
+        return times[bucket];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format(
+            "%s  %d games  %d moves  match %.1f%%  loss %.0fcp  hidden %d/%d  visible %d/%d  %.1fs/move (cv %.2f)  times",
+            name, games, moves, getMatchRate() * 100, getAverageLoss(),
+            hiddenReactions, hiddenThreats, visibleReactions, visibleThreats,
+            getMeanSeconds(), getTimeVariation()));
+        for (int count : times) {
+            sb.append(' ').append(count);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,256 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * An immutable snapshot of a Board. The 64 squares are packed 4 bits each into
+ * four longs and the squares each side attacks into one long each, so a
+ * Position is a few dozen bytes, costs next to nothing to publish after every
+ * move, and can be read from any thread without locks or copying.
+ *
+ * Squares are numbered as in Board.squareToInteger and each holds a PieceCode.
+ */
+final class Position {
+
+    static final int WHITE_KINGSIDE = 1;
+    static final int WHITE_QUEENSIDE = 2;
+    static final int BLACK_KINGSIDE = 4;
+    static final int BLACK_QUEENSIDE = 8;
+
+    private final long squares0, squares1, squares2, squares3;
+    private final long whiteAttack, blackAttack;
+    private final boolean whiteTurn;
+    private final boolean whiteInCheck, blackInCheck;
+    // The rights in the low 4 bits, then the file of each right's rook in 3
+    // bits, see getCastlingRook
+    private final int castling;
+    private final int enPassant;
+    private final int halfMoves;
+    private final int fullMoves;
+
+    /**
+     * @param squares       a PieceCode per square
+     * @param castling      a mask of WHITE_KINGSIDE etc.
+     * @param castlingRooks the square of each right's rook, see
+     *                      Board.castlingRight
+     */
+    Position(byte[] squares, boolean whiteTurn, int castling, int[] castlingRooks, int enPassant,
+             long whiteAttack, long blackAttack, boolean whiteInCheck, boolean blackInCheck,
+             int halfMoves, int fullMoves) {
+        long[] words = new long[4];
+        for (int square = 0; square < squares.length; square++) {
+            words[square >>> 4] |= (long) squares[square] << ((square & 15) << 2);
+        }
+        this.squares0 = words[0];
+        this.squares1 = words[1];
+        this.squares2 = words[2];
+        this.squares3 = words[3];
+        this.whiteTurn = whiteTurn;
+        // Only the rooks of rights still held, so equal positions pack equally
+        for (int right = 0; right < castlingRooks.length; right++) {
+            if ((castling >>> right & 1) != 0) {
+                castling |= Board.squareX(castlingRooks[right]) << (4 + 3 * right);
+            }
+        }
+        this.castling = castling;
+        this.enPassant = enPassant;
+        this.whiteAttack = whiteAttack;
+        this.blackAttack = blackAttack;
+        this.whiteInCheck = whiteInCheck;
+        this.blackInCheck = blackInCheck;
+        this.halfMoves = halfMoves;
+        this.fullMoves = fullMoves;
+    }
+
+    /**
+     * @return int the PieceCode of what's on the square
+     */
+    int getCode(int square) {
+        long word;
+        switch (square >>> 4) {
+            case 0:
+                word = squares0;
+                break;
+            case 1:
+                word = squares1;
+                break;
+            case 2:
+                word = squares2;
+                break;
+            default:
+                word = squares3;
+                break;
+        }
+        return (int) (word >>> ((square & 15) << 2)) & 15;
+    }
+
+    /**
+     * @return char the piece on (x, y) as Board.getBoard() would have it, 0 if
+     * the square is empty
+     */
+    char get(int x, int y) {
+        return PieceCode.toChar(getCode(Board.squareToInteger(x, y)));
+    }
+
+    boolean getTurn() {
+        return whiteTurn;
+    }
+
+    /**
+     * @return long a mask with bit n set if the side attacks square n
+     */
+    long getAttackMask(boolean isWhite) {
+        return isWhite ? whiteAttack : blackAttack;
+    }
+
+    boolean isAttacking(boolean isWhite, int square) {
+        return (getAttackMask(isWhite) >>> square & 1) != 0;
+    }
+
+    /**
+     * @return boolean if the side can see the square, either because it
+     * attacks it or has a piece on it
+     */
+    boolean isVisible(boolean isWhite, int square) {
+        int code = getCode(square);
+        return isAttacking(isWhite, square) || (code != PieceCode.EMPTY && PieceCode.isWhite(code) == isWhite);
+    }
+
+    boolean isInCheck(boolean isWhite) {
+        return isWhite ? whiteInCheck : blackInCheck;
+    }
+
+    /**
+     * @return int the castling rights still held, as a mask of WHITE_KINGSIDE etc.
+     */
+    int getCastling() {
+        return castling & 15;
+    }
+
+    /**
+     * @param right the index of the right's bit, as from Board.castlingRight
+     * @return int the square of the rook the right castles with, only
+     * meaningful while the right is held
+     */
+    int getCastlingRook(int right) {
+        int file = castling >>> (4 + 3 * right) & 7;
+        return Board.squareToInteger(file, right < 2 ? 0 : Board.SIZE - 1);
+    }
+
+    /**
+     * @return int the square of the pawn that can be taken en passant, or -1
+     */
+    int getEnPassant() {
+        return enPassant;
+    }
+
+    int getHalfMoves() {
+        return halfMoves;
+    }
+
+    int getFullMoves() {
+        return fullMoves;
+    }
+
+    /**
+     * @return String the position in Forsyth-Edwards Notation, which is enough
+     * to rebuild an identical Board with Board(String)
+     */
+    String toFen() {
+        StringBuilder sb = new StringBuilder();
+        for (int y = Board.SIZE - 1; y >= 0; y--) {
+            int empty = 0;
+            for (int x = 0; x < Board.SIZE; x++) {
+                char piece = get(x, y);
+                if (piece == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    sb.append(empty);
+                    empty = 0;
+                }
+                sb.append(piece);
+            }
+            if (empty > 0) {
+                sb.append(empty);
+            }
+            if (y > 0) {
+                sb.append('/');
+            }
+        }
+
+        sb.append(whiteTurn ? " w " : " b ");
+
+        // KQkq when the rook is the outermost on its side, as it always is in a
+        // standard game, otherwise the rook's file as in Shredder-FEN
+        for (int right = 0; right < 4; right++) {
+            if ((castling >>> right & 1) == 0) {
+                continue;
+            }
+            boolean isWhite = right < 2;
+            char c = isOutermostRook(right) ? "KQ".charAt(right & 1)
+                : (char) ('A' + Board.squareX(getCastlingRook(right)));
+            sb.append(isWhite ? c : Character.toLowerCase(c));
+        }
+        if ((castling & 15) == 0) {
+            sb.append('-');
+        }
+
+        if (enPassant == -1) {
+            sb.append(" -");
+        } else {
+            int x = Board.squareX(enPassant);
+            int y = Board.squareY(enPassant);
+            sb.append(' ').append((char) ('a' + x)).append(y == 3 ? '3' : '6');
+        }
+
+        sb.append(' ').append(halfMoves).append(' ').append(fullMoves);
+        return sb.toString();
+    }
+
+    private boolean isOutermostRook(int right) {
+        int rook = getCastlingRook(right);
+        int y = Board.squareY(rook);
+        int code = getCode(rook);
+        int step = (right & 1) == 0 ? 1 : -1;
+        for (int x = Board.squareX(rook) + step; 0 <= x && x < Board.SIZE; x += step) {
+            if (getCode(Board.squareToInteger(x, y)) == code) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Two positions are equal if the same moves are possible from them, so the
+     * move counters and attack masks (which follow from the rest) are ignored.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Position)) {
+            return false;
+        }
+        Position other = (Position) o;
+        return squares0 == other.squares0 && squares1 == other.squares1
+            && squares2 == other.squares2 && squares3 == other.squares3
+            && whiteTurn == other.whiteTurn && castling == other.castling
+            && enPassant == other.enPassant;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = squares0 * 0x9E3779B97F4A7C15L;
+        h = (h ^ squares1) * 0x9E3779B97F4A7C15L;
+        h = (h ^ squares2) * 0x9E3779B97F4A7C15L;
+        h = (h ^ squares3) * 0x9E3779B97F4A7C15L;
+        h ^= castling << 1 | (whiteTurn ? 1 : 0) | (long) enPassant << 8;
+        return (int) (h ^ h >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        return toFen();
+    }
+}
@@ -0,0 +1,66 @@
+package com.cloudydino.incognitochess;
+
+/**
+ * A player's Glicko-2 rating as of the end of a rating period. Immutable; the
+ * RatingEngine replaces it after every period the player plays in.
+ */
+final class Rating {
+
+    private final String name;
+    private final double rating;
+    private final double deviation;
+    private final double volatility;
+    private final int games;
+    private final long period;
+
+    Rating(String name, double rating, double deviation, double volatility, int games, long period) {
+        this.name = name;
+        this.rating = rating;
+        this.deviation = deviation;
+        this.volatility = volatility;
+        this.games = games;
+        this.period = period;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return double the rating on the familiar Elo-like scale, 1500 to start
+     */
+    double getRating() {
+        return rating;
+    }
+
+    /**
+     * @return double the rating deviation, 350 to start; the rating is within
+     * about twice this of the player's true strength
+     */
+    double getDeviation() {
+        return deviation;
+    }
+
+    double getVolatility() {
+        return volatility;
+    }
+
+    /**
+     * @return int how many rated games the player has played
+     */
+    int getGames() {
+        return games;
+    }
+
+    /**
+     * @return long the last rating period the player played in, -1 if none
+     */
+    long getPeriod() {
+        return period;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s %6.0f  RD %3.0f  %d games", name, rating, deviation, games);
+    }
+}
@@ -0,0 +1,378 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rates players with Glicko-2 from the games in a ResultsStore. Time is cut
+ * into rating periods of a fixed length and every game counts towards the
+ * period it ended in. Once a period is over, every player who played in it is
+ * rated against their opponents' ratings from before the period. The players
+ * are independent of each other so they're shared out across worker threads
+ * in chunks, like AnalysisService does with positions.
+ *
+ * A player's deviation only grows for the periods they sat out when they next
+ * play, so a period costs time in proportion to the players in it rather than
+ * everyone ever rated. Ratings follow from the results alone, so they're
+ * rebuilt by replaying the store when the engine starts.
+ *
+ * The leaderboard is a ConcurrentSkipListSet kept in rating order that each
+ * period updates in place, so reading it never waits on rating.
+ */
+class RatingEngine implements AutoCloseable {
+
+    static final long DEFAULT_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+    static final double INITIAL_RATING = 1500;
+    static final double INITIAL_DEVIATION = 350;
+    static final double INITIAL_VOLATILITY = 0.06;
+    // How long after a period ends it's rated, so games that ended just
+    // before the boundary have time to reach the store
+    static final long GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Converts between the Glicko and Glicko-2 scales
+    private static final double SCALE = 173.7178;
+    // Constrains how much volatility can change in a period
+    private static final double TAU = 0.5;
+    private static final double EPSILON = 0.000001;
+    private static final int CHUNK_SIZE = 256;
+    private static final int READ_BATCH = 4096;
+    private static final int QUEUE_PER_WORKER = 4;
+
+    private static final Comparator<Rating> BY_RATING = Comparator
+        .comparingDouble(Rating::getRating).reversed()
+        .thenComparing(Rating::getName);
+
+    private final long periodMillis;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor periods;
+    private final Map<String, Rating> ratings = new ConcurrentHashMap<>();
+    private final NavigableSet<Rating> leaderboard = new ConcurrentSkipListSet<>(BY_RATING);
+    // The first record in the store not rated yet, and the period it was in
+    private int next;
+    private long lastPeriod = -1;
+
+    RatingEngine() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_PERIOD_MILLIS);
+    }
+
+    RatingEngine(int threads, long periodMillis) {
+        this.periodMillis = periodMillis;
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER),
+            r -> {
+                Thread thread = new Thread(r, "rating-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        periods = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "rating-periods");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Rates every period in the store that has already ended, then keeps
+     * rating each period a little after it ends, see GRACE_MILLIS.
+     */
+    void start(ResultsStore store) throws IOException, InterruptedException {
+        catchUp(store, System.currentTimeMillis());
+        long grace = Math.min(GRACE_MILLIS, periodMillis / 2);
+        long untilNext = (periodMillis + grace - System.currentTimeMillis() % periodMillis) % periodMillis;
+        periods.scheduleAtFixedRate(() -> {
+            try {
+                catchUp(store, System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.error("Couldn't rate the last period: %s", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, untilNext, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rates the games in the store from periods that ended before now and
+     * haven't been rated yet. The store is read READ_BATCH records at a time,
+     * so only one period's games are held at once however big it is.
+     *
+     * A game saved after its period was rated is skipped: rating it into a
+     * later period would give its players a second update for the same
+     * period.
+     */
+    synchronized void catchUp(ResultsStore store, long nowMillis) throws IOException, InterruptedException {
+        long current = nowMillis / periodMillis;
+        int size = store.size();
+        List<GameResult> games = new ArrayList<>();
+        long period = -1;
+        // The record being looked at, everything before it is rated or skipped
+        int record = next;
+
+        reading:
+        for (int from = next; from < size; from += READ_BATCH) {
+            for (GameResult result : store.getRange(from, Math.min(from + READ_BATCH, size))) {
+                long ended = result.getEndedMillis() / periodMillis;
+                if (ended <= lastPeriod) {
+                    Log.warn("Skipping %s vs %s, saved after period %d was rated",
+                        result.getWhite(), result.getBlack(), ended);
+                    record++;
+                    continue;
+                }
+                // Records are in the order games ended, give or take the odd
+                // game that ended at the same time, which goes in with the
+                // later period
+                if (games.isEmpty() || ended > period) {
+                    if (!games.isEmpty()) {
+                        ratePeriod(games, period);
+                        lastPeriod = period;
+                        games.clear();
+                    }
+                    next = record;
+                    period = ended;
+                    if (period >= current) {
+                        break reading;
+                    }
+                }
+                games.add(result);
+                record++;
+            }
+        }
+
+        if (!games.isEmpty()) {
+            ratePeriod(games, period);
+            lastPeriod = period;
+        }
+        if (period < current) {
+            next = record;
+        }
+    }
+
+    /**
+     * Rates everyone in the games as one rating period.
+     */
+    void ratePeriod(List<GameResult> results, long period) throws InterruptedException {
+        Map<String, List<GameResult>> games = new HashMap<>();
+        for (GameResult result : results) {
+            if (result.isRated()) {
+                games.computeIfAbsent(result.getWhite(), k -> new ArrayList<>()).add(result);
+                games.computeIfAbsent(result.getBlack(), k -> new ArrayList<>()).add(result);
+            }
+        }
+        List<String> players = new ArrayList<>(games.keySet());
+        Rating[] updated = new Rating[players.size()];
+
+        // Nothing is replaced until everyone's been rated, so every player is
+        // rated against the ratings from before the period
+        List<Future<?>> chunks = new ArrayList<>();
+        for (int from = 0; from < players.size(); from += CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(from + CHUNK_SIZE, players.size());
+            chunks.add(workers.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    updated[i] = rate(players.get(i), games.get(players.get(i)), period);
+                }
+            }));
+        }
+        for (Future<?> chunk : chunks) {
+            try {
+                chunk.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Rating failed", e.getCause());
+            }
+        }
+
+        for (Rating rating : updated) {
+            Rating old = ratings.put(rating.getName(), rating);
+            if (old != null) {
+                leaderboard.remove(old);
+            }
+            leaderboard.add(rating);
+        }
+    }
+
+    private Rating rate(String player, List<GameResult> games, long period) {
+        Rating[] opponents = new Rating[games.size()];
+        double[] scores = new double[games.size()];
+        for (int i = 0; i < opponents.length; i++) {
+            GameResult game = games.get(i);
+            boolean isWhite = game.getWhite().equals(player);
+            opponents[i] = getRating(isWhite ? game.getBlack() : game.getWhite());
+            scores[i] = game.getScore(isWhite);
+        }
+        return update(getRating(player), opponents, scores, period);
+    }
+
+    /**
+     * One Glicko-2 rating period for the player, following Glickman's
+     * "Example of the Glicko-2 system".
+     *
+     * @return Rating the player's rating after playing the opponents with the
+     * scores in the period
+     */
+    static Rating update(Rating player, Rating[] opponents, double[] scores, long period) {
+        double mu = (player.getRating() - INITIAL_RATING) / SCALE;
+        double phi = getAgedPhi(player, period);
+        double sigma = player.getVolatility();
+
+        double variance = 0;
+        double improvement = 0;
+        for (int i = 0; i < opponents.length; i++) {
+            double muJ = (opponents[i].getRating() - INITIAL_RATING) / SCALE;
+            double g = 1 / Math.sqrt(1 + 3 * square(getAgedPhi(opponents[i], period)) / square(Math.PI));
+            double expected = 1 / (1 + Math.exp(-g * (mu - muJ)));
+            variance += square(g) * expected * (1 - expected);
+            improvement += g * (scores[i] - expected);
+        }
+        double v = 1 / variance;
+        double delta = v * improvement;
+
+        double newSigma = getVolatility(phi, sigma, v, delta);
+        double phiStar = Math.sqrt(square(phi) + square(newSigma));
+        double newPhi = 1 / Math.sqrt(1 / square(phiStar) + 1 / v);
+        double newMu = mu + square(newPhi) * improvement;
+
+        return new Rating(player.getName(), INITIAL_RATING + SCALE * newMu,
+            Math.min(SCALE * newPhi, INITIAL_DEVIATION), newSigma,
+            player.getGames() + opponents.length, period);
+    }
+
+    /**
+     * @return double the player's deviation on the Glicko-2 scale going into
+     * the period, grown by the periods since they last played
+     */
+    private static double getAgedPhi(Rating rating, long period) {
+        double phi = rating.getDeviation() / SCALE;
+        long idle = rating.getPeriod() < 0 ? 0 : period - rating.getPeriod() - 1;
+        if (idle > 0) {
+            phi = Math.sqrt(square(phi) + idle * square(rating.getVolatility()));
+        }
+        return Math.min(phi, INITIAL_DEVIATION / SCALE);
+    }
+
+    /**
+     * Finds the new volatility with the Illinois algorithm, step 5 of the
+     * Glicko-2 example.
+     */
+    private static double getVolatility(double phi, double sigma, double v, double delta) {
+        double a = Math.log(square(sigma));
+        double A = a;
+        double B;
+        if (square(delta) > square(phi) + v) {
+            B = Math.log(square(delta) - square(phi) - v);
+        } else {
+            int k = 1;
+            while (volatilityFunction(a - k * TAU, a, phi, v, delta) < 0) {
+                k++;
+            }
+            B = a - k * TAU;
+        }
+
+        double fA = volatilityFunction(A, a, phi, v, delta);
+        double fB = volatilityFunction(B, a, phi, v, delta);
+        while (Math.abs(B - A) > EPSILON) {
+            double C = A + (A - B) * fA / (fB - fA);
+            double fC = volatilityFunction(C, a, phi, v, delta);
+            if (fC * fB <= 0) {
+                A = B;
+                fA = fB;
+            } else {
+                fA /= 2;
+            }
+            B = C;
+            fB = fC;
+        }
+        return Math.exp(A / 2);
+    }
+
+    private static double volatilityFunction(double x, double a, double phi, double v, double delta) {
+        double ex = Math.exp(x);
+        double d = square(phi) + v + ex;
+        return ex * (square(delta) - square(phi) - v - ex) / (2 * square(d)) - (x - a) / square(TAU);
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+
+    /**
+     * @return Rating the player's rating, or the starting one if they haven't
+     * been rated
+     */
+    Rating getRating(String player) {
+        Rating rating = ratings.get(player);
+        if (rating == null) {
+            return new Rating(player, INITIAL_RATING, INITIAL_DEVIATION, INITIAL_VOLATILITY, 0, -1);
+        }
+        return rating;
+    }
+
+    /**
+     * @return List<Rating> the highest rated players, best first. While a
+     * period is being applied a player can briefly be missing
+     */
+    List<Rating> getTop(int count) {
+        List<Rating> top = new ArrayList<>(count);
+        Iterator<Rating> it = leaderboard.iterator();
+        while (top.size() < count && it.hasNext()) {
+            top.add(it.next());
+        }
+        return top;
+    }
+
+    int getPlayerCount() {
+        return ratings.size();
+    }
+
+    @Override
+    public void close() {
+        periods.shutdownNow();
+        workers.shutdown();
+    }
+
+    /**
+     * Rates every game in a results file and prints the leaderboard.
+     *
+     * Usage: RatingEngine results.log [top count] [period hours] [threads]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: RatingEngine results.log [top count] [period hours] [threads]");
+            return;
+        }
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long period = args.length > 2 ? TimeUnit.HOURS.toMillis(Long.parseLong(args[2])) : DEFAULT_PERIOD_MILLIS;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        try (ResultsStore store = new ResultsStore(Paths.get(args[0]));
+             RatingEngine engine = new RatingEngine(threads, period)) {
+            long start = System.nanoTime();
+            // Rate the current period too, it's as good as over for a report
+            engine.catchUp(store, System.currentTimeMillis() + period);
+            long nanos = System.nanoTime() - start;
+
+            int rank = 1;
+            for (Rating rating : engine.getTop(count)) {
+                System.out.printf("%3d. %s%n", rank++, rating);
+            }
+            System.err.printf("%d games, %d players rated in %.1fms on %d threads%n",
+                store.size(), engine.getPlayerCount(), nanos / 1e6, threads);
+        }
+    }
+}
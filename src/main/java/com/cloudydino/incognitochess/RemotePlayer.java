@@ -0,0 +1,449 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The lobby's side of one player's connection. Reads commands off the socket
+ * until it closes, and writes whatever the room tells the player back to it.
+ *
+ * Messages to the player are queued and written by a thread of the
+ * connection's own, so a room or the lobby's timers never wait on a slow
+ * socket. A player who falls MAX_QUEUED messages behind is dropped.
+ *
+ * On a ShardNode, joining or resuming a room another node owns hands the rest
+ * of the connection over to that node, and the node to node commands are
+ * passed to the ShardNode.
+ */
+class RemotePlayer implements Player, Runnable {
+
+    static final int MAX_QUEUED = 1024;
+
+    // Queued by close() to stop the writer
+    private static final byte[] CLOSE = new byte[0];
+
+    private final Lobby lobby;
+    private final Socket socket;
+    private DataOutputStream out;
+    private final BlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private Thread writer;
+    private volatile GameRoom room;
+    private volatile String name = "";
+    private volatile long token;
+    // Set on connections another node forwarded here, which are never
+    // forwarded again
+    private boolean forwarded;
+    // Set once the connection has given the cluster's secret, which it must
+    // before any node to node command
+    private boolean peer;
+
+    RemotePlayer(Lobby lobby, Socket socket) {
+        this.lobby = lobby;
+        this.socket = socket;
+    }
+
+    public void run() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream socketOut = new BufferedOutputStream(socket.getOutputStream());
+            synchronized (this) {
+                out = new DataOutputStream(new Outbox());
+                writer = new Thread(() -> write(socketOut), "player-writer");
+                writer.setDaemon(true);
+                writer.start();
+            }
+
+            while (true) {
+                byte command = in.readByte();
+                Metrics.begin();
+                Socket owner = null;
+                switch (command) {
+                    case LobbyServer.QUEUE:
+                        if (!isInRoom()) {
+                            lobby.queue(this);
+                        }
+                        break;
+                    case LobbyServer.CREATE:
+                        if (isInRoom()) {
+                            break;
+                        }
+                        GameRoom created = lobby.createRoom(this);
+                        room = created;
+                        sendRoom(created.getId());
+                        break;
+                    case LobbyServer.JOIN:
+                        int joinId = in.readInt();
+                        if (isInRoom()) {
+                            break;
+                        }
+                        if (isElsewhere(joinId)) {
+                            owner = forward(LobbyServer.JOIN, joinId, 0);
+                            if (owner == null) {
+                                sendRoom(-1);
+                            }
+                        } else if (lobby.joinRoom(joinId, this) == null) {
+                            sendRoom(-1);
+                        }
+                        break;
+                    case LobbyServer.RESUME:
+                        int resumeId = in.readInt();
+                        long resumeToken = in.readLong();
+                        if (isElsewhere(resumeId)) {
+                            owner = forward(LobbyServer.RESUME, resumeId, resumeToken);
+                            if (owner == null) {
+                                sendRoom(-1);
+                            }
+                        } else if (lobby.resume(resumeToken, this) == null) {
+                            sendRoom(-1);
+                        }
+                        break;
+                    case LobbyServer.MOVE:
+                        int[] move = new int[4];
+                        for (int i = 0; i < 4; i++) {
+                            move[i] = in.readInt();
+                        }
+                        char promotion = in.readChar();
+
+                        GameRoom current = room;
+                        if (current == null || !current.move(this, move, promotion)) {
+                            Metrics.increment(Metrics.Counter.MOVES_REJECTED);
+                            sendRejected();
+                        } else {
+                            Metrics.increment(Metrics.Counter.MOVES_RELAYED);
+                        }
+                        break;
+                    case LobbyServer.LEAVE:
+                        lobby.leave(this, room);
+                        room = null;
+                        break;
+                    case LobbyServer.METRICS:
+                        sendMetrics();
+                        break;
+                    case LobbyServer.NAME:
+                        String requested = in.readUTF().trim();
+                        if (requested.length() <= LobbyServer.MAX_NAME_LENGTH) {
+                            name = requested;
+                        }
+                        break;
+                    case LobbyServer.LEADERBOARD:
+                        sendLeaderboard(in.readInt());
+                        break;
+                    case LobbyServer.PEER:
+                        if (!getShard().isSecret(in.readUTF())) {
+                            throw new IOException("Wrong cluster secret");
+                        }
+                        peer = true;
+                        break;
+                    case LobbyServer.FORWARDED:
+                        requirePeer(command);
+                        forwarded = true;
+                        // What follows comes from the player
+                        peer = false;
+                        break;
+                    case LobbyServer.MIGRATE:
+                        requirePeer(command);
+                        sendRoom(getShard().adopt(RoomState.read(in)));
+                        break;
+                    case LobbyServer.REPLICA:
+                        requirePeer(command);
+                        getShard().keepReplica(RoomState.read(in));
+                        break;
+                    case LobbyServer.REPLICATE:
+                        requirePeer(command);
+                        int roomId = in.readInt();
+                        int ply = in.readInt();
+                        int packed = in.readInt();
+                        int millis = in.readInt();
+                        long whiteMillis = in.readLong();
+                        getShard().addToReplica(roomId, ply, packed, millis, whiteMillis, in.readLong());
+                        break;
+                    case LobbyServer.RELEASE:
+                        requirePeer(command);
+                        getShard().dropReplica(in.readInt());
+                        break;
+                    default:
+                        throw new IOException("Unknown command " + command);
+                }
+                Metrics.end(Metrics.Operation.SOCKET_READ);
+
+                if (owner != null) {
+                    // Anything still queued goes out before the owner's bytes
+                    outbox.put(CLOSE);
+                    writer.join();
+                    lobby.getShard().splice(socket, in, owner);
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            // Player hung up
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                Log.warn("Lost player connection: %s", e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lobby.disconnected(this, room);
+            close();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return boolean if the player has a room whose game hasn't ended, which
+     * they have to LEAVE before queueing, creating or joining another
+     */
+    private boolean isInRoom() {
+        GameRoom current = room;
+        return current != null && !current.isOver();
+    }
+
+    /**
+     * @return boolean if the room belongs to another node of the cluster
+     */
+    private boolean isElsewhere(int roomId) {
+        ShardNode shard = lobby.getShard();
+        return !forwarded && shard != null && !shard.owns(roomId);
+    }
+
+    /**
+     * Connects to the node that owns the room and replays the player's name
+     * and the JOIN or RESUME to it.
+     *
+     * @return Socket the connection to the owner, or null if it couldn't be
+     * reached, in which case the player is still this node's
+     */
+    private Socket forward(byte command, int roomId, long resumeToken) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream message = new DataOutputStream(bytes);
+        lobby.getShard().writePeer(message);
+        message.writeByte(LobbyServer.FORWARDED);
+        if (!name.isEmpty()) {
+            message.writeByte(LobbyServer.NAME);
+            message.writeUTF(name);
+        }
+        message.writeByte(command);
+        message.writeInt(roomId);
+        if (command == LobbyServer.RESUME) {
+            message.writeLong(resumeToken);
+        }
+        return lobby.getShard().connectToOwner(roomId, bytes.toByteArray());
+    }
+
+    private void requirePeer(byte command) throws IOException {
+        if (!peer) {
+            throw new IOException("Node command " + command + " from a connection that isn't a node");
+        }
+    }
+
+    private ShardNode getShard() throws IOException {
+        ShardNode shard = lobby.getShard();
+        if (shard == null) {
+            throw new IOException("Not part of a cluster");
+        }
+        return shard;
+    }
+
+    public void gameStarted(GameRoom room, boolean isWhite, long token) {
+        this.room = room;
+        this.token = token;
+        try {
+            synchronized (this) {
+                out.writeByte(LobbyServer.START);
+                out.writeInt(room.getId());
+                out.writeBoolean(isWhite);
+                out.writeLong(token);
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    public void resynced(GameRoom room, boolean isWhite, long token, String snapshot, int[] moves) {
+        this.room = room;
+        this.token = token;
+        try {
+            synchronized (this) {
+                out.writeByte(LobbyServer.RESYNC);
+                out.writeInt(room.getId());
+                out.writeBoolean(isWhite);
+                out.writeLong(token);
+                out.writeUTF(snapshot);
+                out.writeInt(moves.length);
+                for (int move : moves) {
+                    out.writeInt(move);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    public void moveReceived(int[] move, char promotion) {
+        try {
+            synchronized (this) {
+                out.writeByte(LobbyServer.MOVE);
+                for (int i = 0; i < 4; i++) {
+                    out.writeInt(move[i]);
+                }
+                out.writeChar(promotion);
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    public void clockUpdated(long whiteMillis, long blackMillis) {
+        try {
+            synchronized (this) {
+                out.writeByte(LobbyServer.CLOCK);
+                out.writeLong(whiteMillis);
+                out.writeLong(blackMillis);
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    public void gameOver(GameStatus status) {
+        room = null;
+        token = 0;
+        try {
+            synchronized (this) {
+                out.writeByte(LobbyServer.GAME_OVER);
+                out.writeInt(status.ordinal());
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Hangs up on a player in a game, so their client reconnects and resumes
+     * it wherever it went, and tells one waiting in a room that it's gone.
+     */
+    public void roomMoved() {
+        room = null;
+        if (token != 0) {
+            close();
+            return;
+        }
+        try {
+            sendRoom(-1);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private synchronized void sendRoom(int id) throws IOException {
+        out.writeByte(LobbyServer.ROOM);
+        out.writeInt(id);
+        out.flush();
+    }
+
+    private synchronized void sendMetrics() throws IOException {
+        out.writeByte(LobbyServer.METRICS);
+        out.writeUTF(Metrics.dump());
+        out.flush();
+    }
+
+    private synchronized void sendLeaderboard(int count) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        RatingEngine ratings = lobby.getRatings();
+        if (ratings == null) {
+            sb.append("Games aren't rated on this lobby");
+        } else {
+            int rank = 1;
+            for (Rating rating : ratings.getTop(Math.min(Math.max(count, 0), LobbyServer.MAX_LEADERBOARD))) {
+                sb.append(String.format("%3d. %s%n", rank++, rating));
+            }
+        }
+        out.writeByte(LobbyServer.LEADERBOARD);
+        out.writeUTF(sb.toString());
+        out.flush();
+    }
+
+    private synchronized void sendRejected() throws IOException {
+        out.writeByte(LobbyServer.REJECTED);
+        out.flush();
+    }
+
+    private void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.warn("Couldn't close player connection: %s", e);
+        }
+        outbox.clear();
+        outbox.offer(CLOSE);
+    }
+
+    private void write(OutputStream socketOut) {
+        try {
+            while (true) {
+                byte[] message = outbox.take();
+                if (message == CLOSE) {
+                    return;
+                }
+                socketOut.write(message);
+                if (outbox.isEmpty()) {
+                    socketOut.flush();
+                }
+            }
+        } catch (IOException e) {
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Collects what's written to out and queues it as one message on each
+     * flush. Only used with the RemotePlayer held.
+     */
+    private class Outbox extends OutputStream {
+
+        private byte[] buffer = new byte[64];
+        private int size;
+
+        @Override
+        public void write(int b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            byte[] message = Arrays.copyOf(buffer, size);
+            size = 0;
+            if (!outbox.offer(message)) {
+                Log.warn("Dropping player %s, %d messages behind", name, MAX_QUEUED);
+                close();
+                throw new IOException("Player too far behind");
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A finished game that can be stepped through and jumped around in. Every
+ * interval plies the position is kept as a keyframe, so seeking anywhere only
+ * rebuilds the board from the nearest keyframe at or before the ply and plays
+ * at most interval - 1 moves from there, however long the game is. Stepping
+ * back uses Board.unmove.
+ *
+ * Moves are packed as in MoveLog. Not thread safe.
+ */
+class Replay {
+
+    static final int DEFAULT_INTERVAL = 16;
+
+    private final int interval;
+    private final Position[] keyframes;
+    private final int[] moves;
+    private Board board;
+    // The ply the board was built at, it can't be unmoved past this
+    private int base;
+    private int ply;
+
+    /**
+     * Plays through the moves once to take the keyframes.
+     *
+     * @throws IllegalArgumentException if a move is illegal where it's played
+     */
+    Replay(Position start, int[] moves, int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Bad keyframe interval: " + interval);
+        }
+        this.interval = interval;
+        this.moves = moves.clone();
+        keyframes = new Position[moves.length / interval + 1];
+
+        Board board = new Board(start);
+        keyframes[0] = board.getPosition();
+        for (int i = 0; i < moves.length; i++) {
+            if (!MoveLog.applyPacked(board, moves[i])) {
+                throw new IllegalArgumentException(String.format("Illegal move %s at ply %d",
+                    toText(moves[i]), i + 1));
+            }
+            if ((i + 1) % interval == 0) {
+                keyframes[(i + 1) / interval] = board.getPosition();
+            }
+        }
+        this.board = new Board(start);
+    }
+
+    /**
+     * Reads a game as written by write(): a FEN line, or "startpos", then the
+     * moves as "e2e4", with a piece letter for promotions, separated by spaces
+     * or new lines.
+     *
+     * @throws IllegalArgumentException if the game can't be read or has an
+     * illegal move
+     */
+    static Replay read(Reader in) throws IOException {
+        BufferedReader lines = new BufferedReader(in);
+        String first = lines.readLine();
+        if (first == null) {
+            throw new IllegalArgumentException("Empty replay");
+        }
+        Board board = first.trim().equals("startpos") ? new Board() : new Board(first);
+
+        List<Integer> moves = new ArrayList<>();
+        String line;
+        while ((line = lines.readLine()) != null) {
+            for (String text : line.trim().split("\\s+")) {
+                if (text.isEmpty()) {
+                    continue;
+                }
+                int[] move = TerminalChess.parseMove(text);
+                if (move == null) {
+                    throw new IllegalArgumentException("Can't read move " + text);
+                }
+                moves.add(MoveLog.pack(move, move[4] == 0 ? 'q' : (char) move[4]));
+            }
+        }
+
+        int[] packed = new int[moves.size()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = moves.get(i);
+        }
+        return new Replay(board.getPosition(), packed, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Writes the game so that read() can read it back.
+     */
+    void write(Appendable out) throws IOException {
+        Board board = new Board(keyframes[0]);
+        out.append(keyframes[0].toFen()).append('\n');
+        for (int i = 0; i < moves.length; i++) {
+            int[] move = MoveLog.unpackMove(moves[i]);
+            out.append(toText(moves[i]));
+            if (board.doesPromote(move[0], move[1], move[3])) {
+                out.append(Character.toLowerCase(MoveLog.unpackPromotion(moves[i])));
+            }
+            out.append(i % 2 == 1 || i == moves.length - 1 ? '\n' : ' ');
+            MoveLog.applyPacked(board, moves[i]);
+        }
+    }
+
+    /**
+     * @return String the move as "e2e4", leaving out any promotion
+     */
+    static String toText(int packed) {
+        int[] move = MoveLog.unpackMove(packed);
+        return new StringBuilder(4)
+            .append((char) ('a' + move[0])).append((char) ('1' + move[1]))
+            .append((char) ('a' + move[2])).append((char) ('1' + move[3]))
+            .toString();
+    }
+
+    /**
+     * @return int how many plies the game lasted
+     */
+    int length() {
+        return moves.length;
+    }
+
+    int getPly() {
+        return ply;
+    }
+
+    /**
+     * @return int the packed move that led to the ply, for plies from 1
+     */
+    int getMove(int ply) {
+        return moves[ply - 1];
+    }
+
+    int[] getMoves() {
+        return Arrays.copyOf(moves, moves.length);
+    }
+
+    /**
+     * @return Position the position at the current ply
+     */
+    Position getPosition() {
+        return board.getPosition();
+    }
+
+    boolean forward() {
+        if (ply == moves.length) {
+            return false;
+        }
+        MoveLog.applyPacked(board, moves[ply++]);
+        return true;
+    }
+
+    boolean back() {
+        if (ply == 0) {
+            return false;
+        }
+        seek(ply - 1);
+        return true;
+    }
+
+    /**
+     * Goes to the position after the given number of plies, from whichever of
+     * the current board and the nearest keyframe is closer.
+     *
+     * @throws IllegalArgumentException if the game doesn't have the ply
+     */
+    void seek(int target) {
+        if (target < 0 || target > moves.length) {
+            throw new IllegalArgumentException(String.format("No ply %d in a game of %d", target, moves.length));
+        }
+        int keyframe = target / interval * interval;
+
+        if (target < ply && target >= base && ply - target <= target - keyframe
+                && ply - target <= board.getUndoCount()) {
+            while (ply > target) {
+                board.unmove();
+                ply--;
+            }
+            return;
+        }
+        if (target < ply || ply < keyframe) {
+            board = new Board(keyframes[target / interval]);
+            base = keyframe;
+            ply = keyframe;
+        }
+        while (ply < target) {
+            MoveLog.applyPacked(board, moves[ply++]);
+        }
+    }
+}
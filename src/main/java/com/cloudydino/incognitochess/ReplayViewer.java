@@ -0,0 +1,88 @@
+package com.cloudydino.incognitochess;
+
+import java.awt.BorderLayout;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javax.swing.*;
+
+/**
+ * A window for going through a saved game (see Replay.read) with a slider
+ * across every ply and buttons to step a move at a time. The board can be
+ * shown whole or through either side's fog of war.
+ *
+ * Usage: ReplayViewer game.txt
+ */
+class ReplayViewer extends JFrame {
+
+    private static final String[] VIEWS = {"Whole board", "White's view", "Black's view"};
+
+    private final Replay replay;
+    private final ImageRenderer renderer = new ImageRenderer();
+    private final JLabel boardLabel = new JLabel();
+    private final JLabel statusLabel = new JLabel();
+    private final JSlider slider;
+    private final JComboBox<String> view = new JComboBox<>(VIEWS);
+
+    private ReplayViewer(Replay replay) {
+        this.replay = replay;
+        setTitle("Incognito Chess Replay");
+        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+
+        slider = new JSlider(0, replay.length(), 0);
+        slider.addChangeListener(e -> showPly(slider.getValue()));
+
+        JButton back = new JButton("<");
+        back.addActionListener(e -> slider.setValue(slider.getValue() - 1));
+        JButton forward = new JButton(">");
+        forward.addActionListener(e -> slider.setValue(slider.getValue() + 1));
+        view.addActionListener(e -> showPly(slider.getValue()));
+
+        JPanel controls = new JPanel(new BorderLayout());
+        controls.add(back, BorderLayout.WEST);
+        controls.add(slider, BorderLayout.CENTER);
+        controls.add(forward, BorderLayout.EAST);
+
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(controls, BorderLayout.NORTH);
+        bottom.add(statusLabel, BorderLayout.CENTER);
+        bottom.add(view, BorderLayout.EAST);
+
+        boardLabel.setIcon(new ImageIcon(renderer.renderImage(replay.getPosition(), false, true)));
+        getContentPane().add(boardLabel, BorderLayout.CENTER);
+        getContentPane().add(bottom, BorderLayout.SOUTH);
+        showPly(0);
+        pack();
+        setResizable(false);
+    }
+
+    private void showPly(int ply) {
+        replay.seek(ply);
+        Position position = replay.getPosition();
+        int chosen = view.getSelectedIndex();
+        // The renderer draws over the same image the icon holds
+        renderer.renderImage(position, chosen != 0, chosen != 2);
+        boardLabel.repaint();
+
+        StringBuilder status = new StringBuilder(" Ply ").append(ply).append('/').append(replay.length());
+        if (ply > 0) {
+            status.append("  last move ").append(Replay.toText(replay.getMove(ply)));
+        }
+        status.append("  ").append(position.getTurn() ? "White" : "Black").append(" to move");
+        statusLabel.setText(status.toString());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ReplayViewer game.txt");
+            return;
+        }
+        Replay replay;
+        try (Reader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            replay = Replay.read(in);
+        }
+        SwingUtilities.invokeLater(() -> new ReplayViewer(replay).setVisible(true));
+    }
+}
@@ -0,0 +1,343 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Finished games in an append-only file, one record per game in the order
+ * they ended, with an in-memory index of where each record starts and which
+ * records each player is in. Records are only ever added, so any record
+ * number handed out stays valid.
+ *
+ * Each record is an int length and an int CRC32 of the payload, then the
+ * payload: long endedMillis, byte GameStatus ordinal, int plies, and the white
+ * and black names as a short length and UTF-8 bytes. A game whose moves were
+ * kept follows that with its starting FEN the same way, an int move count and
+ * then each move packed as in MoveLog with an int of the milliseconds it took.
+ * Opening the file checks every record and cuts off a torn one left at the end
+ * by a crash.
+ *
+ * Game rooms hand results to submit(), which never blocks: a writer thread
+ * appends whatever has queued up and syncs the file once for the lot.
+ */
+class ResultsStore implements AutoCloseable {
+
+    static final int MAX_NAME_BYTES = 128;
+
+    private static final int HEADER_BYTES = 8;
+    // Queued by close() to stop the writer. Not interrupted instead, since
+    // that would close the channel under a write
+    private static final GameResult CLOSE = new GameResult("", "", GameStatus.DRAW, 0, 0);
+
+    private final FileChannel channel;
+    private long[] offsets = new long[1024];
+    private int size;
+    private long end;
+    private final Map<String, List<Integer>> byPlayer = new HashMap<>();
+    private final BlockingQueue<GameResult> pending = new LinkedBlockingQueue<>();
+    private final Thread writer = new Thread(this::write, "results-writer");
+
+    ResultsStore(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel.position(0)), 1 << 16));
+        long fileSize = channel.size();
+        CRC32 crc = new CRC32();
+        try {
+            while (end < fileSize) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || end + HEADER_BYTES + length > fileSize) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                index(decode(ByteBuffer.wrap(payload)), end);
+                end += HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            // A header cut short, dealt with below
+        }
+
+        if (end < fileSize) {
+            Log.warn("Dropping %d bytes of damaged results after record %d", fileSize - end, size);
+            channel.truncate(end);
+        }
+    }
+
+    /**
+     * Queues the result to be appended by the writer thread.
+     */
+    void submit(GameResult result) {
+        pending.add(result);
+    }
+
+    private void write() {
+        List<GameResult> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+            boolean closing = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                try {
+                    appendEach(batch);
+                } catch (IOException e) {
+                    Log.error("Couldn't save %d results: %s", batch.size(), e);
+                }
+                batch.clear();
+            }
+            if (closing) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the result to the end of the file and makes sure it's on disk.
+     *
+     * @return int the record number of the result
+     */
+    int append(GameResult result) throws IOException {
+        List<GameResult> one = new ArrayList<>(1);
+        one.add(result);
+        return appendAll(one);
+    }
+
+    /**
+     * Writes the results to the end of the file in order and syncs it once.
+     *
+     * @return int the record number of the last result
+     */
+    synchronized int appendAll(List<GameResult> results) throws IOException {
+        int record = -1;
+        for (GameResult result : results) {
+            record = write(result);
+        }
+        channel.force(false);
+        return record;
+    }
+
+    /**
+     * Like appendAll, but for the writer thread: a result that can't be
+     * saved, such as one with a name too long to store, is logged and
+     * skipped rather than losing the rest of the batch with it.
+     */
+    private synchronized void appendEach(List<GameResult> results) throws IOException {
+        for (GameResult result : results) {
+            try {
+                write(result);
+            } catch (IllegalArgumentException e) {
+                Log.warn("Not saving %s vs %s: %s", result.getWhite(), result.getBlack(), e.getMessage());
+            }
+        }
+        channel.force(false);
+    }
+
+    private int write(GameResult result) throws IOException {
+        byte[] white = toBytes(result.getWhite());
+        byte[] black = toBytes(result.getBlack());
+        byte[] start = result.hasMoves() ? result.getStart().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int[] moves = result.getMoves();
+        int length = 8 + 1 + 4 + 2 + white.length + 2 + black.length;
+        if (result.hasMoves()) {
+            length += 2 + start.length + 4 + moves.length * 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.putInt(length).putInt(0)
+            .putLong(result.getEndedMillis())
+            .put((byte) result.getStatus().ordinal())
+            .putInt(result.getPlies())
+            .putShort((short) white.length).put(white)
+            .putShort((short) black.length).put(black);
+        if (result.hasMoves()) {
+            buffer.putShort((short) start.length).put(start).putInt(moves.length);
+            for (int i = 0; i < moves.length; i++) {
+                buffer.putInt(moves[i]).putInt(result.getMoveMillis(i));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        long offset = end;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        end += buffer.limit();
+        return index(result, offset);
+    }
+
+    private int index(GameResult result, long offset) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size] = offset;
+        byPlayer.computeIfAbsent(result.getWhite(), k -> new ArrayList<>()).add(size);
+        if (!result.getBlack().equals(result.getWhite())) {
+            byPlayer.computeIfAbsent(result.getBlack(), k -> new ArrayList<>()).add(size);
+        }
+        return size++;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    GameResult get(int record) throws IOException {
+        long offset;
+        synchronized (this) {
+            if (record < 0 || record >= size) {
+                throw new IllegalArgumentException(String.format("No record %d of %d", record, size));
+            }
+            offset = offsets[record];
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(header, offset);
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+        readFully(payload, offset + HEADER_BYTES);
+        return decode(payload);
+    }
+
+    /**
+     * @return List<GameResult> records from up to (not including) to, read
+     * in one go
+     */
+    List<GameResult> getRange(int from, int to) throws IOException {
+        long start;
+        long stop;
+        synchronized (this) {
+            if (from < 0 || to > size || from > to) {
+                throw new IllegalArgumentException(String.format("No records %d to %d of %d", from, to, size));
+            }
+            start = from == size ? end : offsets[from];
+            stop = to == size ? end : offsets[to];
+        }
+
+        List<GameResult> results = new ArrayList<>(to - from);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (stop - start));
+        readFully(buffer, start);
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt();
+            buffer.getInt();
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            results.add(decode(payload));
+            buffer.position(buffer.position() + length);
+        }
+        return results;
+    }
+
+    /**
+     * @return List<GameResult> every game the player was in, oldest first
+     */
+    List<GameResult> getResults(String player) throws IOException {
+        int[] records;
+        synchronized (this) {
+            List<Integer> list = byPlayer.get(player);
+            if (list == null) {
+                return new ArrayList<>();
+            }
+            records = new int[list.size()];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = list.get(i);
+            }
+        }
+
+        List<GameResult> results = new ArrayList<>(records.length);
+        for (int record : records) {
+            results.add(get(record));
+        }
+        return results;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Results file ended early");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static GameResult decode(ByteBuffer payload) {
+        long ended = payload.getLong();
+        GameStatus status = GameStatus.values()[payload.get()];
+        int plies = payload.getInt();
+        String white = readString(payload);
+        String black = readString(payload);
+        if (!payload.hasRemaining()) {
+            return new GameResult(white, black, status, ended, plies);
+        }
+
+        String start = readString(payload);
+        int[] moves = new int[payload.getInt()];
+        int[] moveMillis = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = payload.getInt();
+            moveMillis[i] = payload.getInt();
+        }
+        return new GameResult(white, black, status, ended, plies, start, moves, moveMillis);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes out any results still queued, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        pending.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
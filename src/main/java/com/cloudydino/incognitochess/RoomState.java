@@ -0,0 +1,195 @@
+package com.cloudydino.incognitochess;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Everything needed to carry a started game on somewhere else: the room's
+ * MoveLog snapshot and the moves since it to rebuild the board from, every
+ * move of the game with its time for the saved result, the players' names and
+ * session tokens, and the time left on each clock.
+ *
+ * A ShardNode sends one to move a room to another node, and keeps one as a
+ * replica of each room it backs up, appending moves as the owner reports
+ * them. Not thread safe.
+ */
+class RoomState {
+
+    private final int id;
+    private final String start;
+    private int[] moves;
+    private int[] moveMillis;
+    private int plies;
+    private final String snapshot;
+    private final int snapshotPly;
+    private final String white;
+    private final String black;
+    private final long whiteToken;
+    private final long blackToken;
+    private final boolean timed;
+    private long whiteMillis;
+    private long blackMillis;
+    private final long incrementMillis;
+
+    /**
+     * @param moves every move of the game, packed as in MoveLog, of which the
+     *              ones from snapshotPly on are replayed on the snapshot
+     * @param whiteMillis white's time left, ignored unless timed
+     */
+    RoomState(int id, String start, int[] moves, int[] moveMillis, String snapshot, int snapshotPly,
+              String white, String black, long whiteToken, long blackToken,
+              boolean timed, long whiteMillis, long blackMillis, long incrementMillis) {
+        if (snapshotPly < 0 || snapshotPly > moves.length || moves.length != moveMillis.length) {
+            throw new IllegalArgumentException(String.format("Snapshot at ply %d of %d moves with %d times",
+                snapshotPly, moves.length, moveMillis.length));
+        }
+        this.id = id;
+        this.start = start;
+        this.moves = moves.clone();
+        this.moveMillis = moveMillis.clone();
+        this.plies = moves.length;
+        this.snapshot = snapshot;
+        this.snapshotPly = snapshotPly;
+        this.white = white;
+        this.black = black;
+        this.whiteToken = whiteToken;
+        this.blackToken = blackToken;
+        this.timed = timed;
+        this.whiteMillis = whiteMillis;
+        this.blackMillis = blackMillis;
+        this.incrementMillis = incrementMillis;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(start);
+        out.writeInt(plies);
+        for (int i = 0; i < plies; i++) {
+            out.writeInt(moves[i]);
+            out.writeInt(moveMillis[i]);
+        }
+        out.writeUTF(snapshot);
+        out.writeInt(snapshotPly);
+        out.writeUTF(white);
+        out.writeUTF(black);
+        out.writeLong(whiteToken);
+        out.writeLong(blackToken);
+        out.writeBoolean(timed);
+        out.writeLong(whiteMillis);
+        out.writeLong(blackMillis);
+        out.writeLong(incrementMillis);
+    }
+
+    /**
+     * @throws IllegalArgumentException if what was read doesn't fit together
+     */
+    static RoomState read(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String start = in.readUTF();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Bad move count " + count);
+        }
+        int[] moves = new int[count];
+        int[] moveMillis = new int[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = in.readInt();
+            moveMillis[i] = in.readInt();
+        }
+        String snapshot = in.readUTF();
+        int snapshotPly = in.readInt();
+        String white = in.readUTF();
+        String black = in.readUTF();
+        long whiteToken = in.readLong();
+        long blackToken = in.readLong();
+        boolean timed = in.readBoolean();
+        long whiteMillis = in.readLong();
+        long blackMillis = in.readLong();
+        long incrementMillis = in.readLong();
+        return new RoomState(id, start, moves, moveMillis, snapshot, snapshotPly, white, black,
+            whiteToken, blackToken, timed, whiteMillis, blackMillis, incrementMillis);
+    }
+
+    /**
+     * Adds a move the owner made to a replica.
+     *
+     * @param whiteMillis white's time left after the move, ignored unless timed
+     */
+    void append(int packed, int millis, long whiteMillis, long blackMillis) {
+        if (plies == moves.length) {
+            moves = Arrays.copyOf(moves, Math.max(plies * 2, 16));
+            moveMillis = Arrays.copyOf(moveMillis, moves.length);
+        }
+        moves[plies] = packed;
+        moveMillis[plies] = millis;
+        plies++;
+        this.whiteMillis = whiteMillis;
+        this.blackMillis = blackMillis;
+    }
+
+    /**
+     * @return Board a new board at the game's latest position: the snapshot
+     * with the moves since it replayed
+     * @throws IllegalArgumentException if the snapshot or a move is bad
+     */
+    Board toBoard() {
+        Board board = new Board(snapshot);
+        for (int i = snapshotPly; i < plies; i++) {
+            if (!MoveLog.applyPacked(board, moves[i])) {
+                throw new IllegalArgumentException(String.format("Illegal move %s at ply %d of room %d",
+                    Replay.toText(moves[i]), i + 1, id));
+            }
+        }
+        return board;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String getStart() {
+        return start;
+    }
+
+    int getPlies() {
+        return plies;
+    }
+
+    int[] getMoves() {
+        return Arrays.copyOf(moves, plies);
+    }
+
+    int[] getMoveMillis() {
+        return Arrays.copyOf(moveMillis, plies);
+    }
+
+    String getWhite() {
+        return white;
+    }
+
+    String getBlack() {
+        return black;
+    }
+
+    long getWhiteToken() {
+        return whiteToken;
+    }
+
+    long getBlackToken() {
+        return blackToken;
+    }
+
+    boolean isTimed() {
+        return timed;
+    }
+
+    long getRemaining(boolean isWhite) {
+        return isWhite ? whiteMillis : blackMillis;
+    }
+
+    long getIncrement() {
+        return incrementMillis;
+    }
+}
@@ -0,0 +1,147 @@
+package com.cloudydino.incognitochess;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A plain alpha-beta search to a fixed depth over the whole board, ignoring
+ * the fog of war, followed by a search of captures only so a line isn't cut
+ * off in the middle of an exchange. Moves are made and taken back on the board
+ * passed in with Board.move and Board.unmove, and positions are scored with
+ * Board.getEvaluation. Pawns always promote to queens.
+ *
+ * Scores are in centipawns from the side to move's point of view, with mates
+ * scored as MATE less the plies it takes. Not thread safe; use one per thread.
+ */
+class Search {
+
+    static final int MATE = 100_000;
+
+    // Deep enough for any sensible exchange, and stops runaway capture chains
+    private static final int MAX_CAPTURE_DEPTH = 8;
+
+    private final int depth;
+    private long nodes;
+
+    Search(int depth) {
+        // Every ply searched has to be taken back with Board.unmove
+        if (depth < 1 || depth + MAX_CAPTURE_DEPTH > Board.MAX_UNDO) {
+            throw new IllegalArgumentException("Bad search depth: " + depth);
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * @return int[] {score, startX, startY, destX, destY} of the best move for
+     * the side to move, or null if it has no legal moves. The board is left as
+     * it was
+     */
+    int[] bestMove(Board board) {
+        List<int[]> moves = board.getAllLegalMoves();
+        if (moves.isEmpty()) {
+            return null;
+        }
+        order(board, moves);
+
+        int[] best = null;
+        int alpha = -MATE - 1;
+        for (int[] move : moves) {
+            board.move(move[0], move[1], move[2], move[3]);
+            int score = -search(board, depth - 1, 1, -MATE - 1, -alpha);
+            board.unmove();
+            if (best == null || score > alpha) {
+                alpha = score;
+                best = move;
+            }
+        }
+        return new int[]{alpha, best[0], best[1], best[2], best[3]};
+    }
+
+    /**
+     * Scores one move for the side to move to the same depth bestMove() looks,
+     * so the two can be compared.
+     *
+     * @throws IllegalArgumentException if the move isn't legal
+     */
+    int score(Board board, int[] move) {
+        if (!board.move(move[0], move[1], move[2], move[3])) {
+            throw new IllegalArgumentException("Illegal move " + Replay.toText(MoveLog.pack(move, 'q')));
+        }
+        int score = -search(board, depth - 1, 1, -MATE - 1, MATE + 1);
+        board.unmove();
+        return score;
+    }
+
+    /**
+     * @return long how many positions have been searched
+     */
+    long getNodes() {
+        return nodes;
+    }
+
+    private int search(Board board, int remaining, int ply, int alpha, int beta) {
+        if (remaining == 0) {
+            return searchCaptures(board, 0, alpha, beta);
+        }
+        nodes++;
+
+        List<int[]> moves = board.getAllLegalMoves();
+        if (moves.isEmpty()) {
+            return board.isInCheck(board.getTurn()) ? -MATE + ply : 0;
+        }
+        order(board, moves);
+
+        for (int[] move : moves) {
+            board.move(move[0], move[1], move[2], move[3]);
+            int score = -search(board, remaining - 1, ply + 1, -beta, -alpha);
+            board.unmove();
+            if (score >= beta) {
+                return beta;
+            }
+            alpha = Math.max(alpha, score);
+        }
+        return alpha;
+    }
+
+    private int searchCaptures(Board board, int captureDepth, int alpha, int beta) {
+        nodes++;
+        int standPat = board.getTurn() ? board.getEvaluation() : -board.getEvaluation();
+        if (standPat >= beta || captureDepth == MAX_CAPTURE_DEPTH) {
+            return Math.min(standPat, beta);
+        }
+        alpha = Math.max(alpha, standPat);
+
+        List<int[]> moves = board.getAllLegalMoves();
+        moves.removeIf(move -> captureValue(board, move) == 0);
+        order(board, moves);
+
+        for (int[] move : moves) {
+            board.move(move[0], move[1], move[2], move[3]);
+            int score = -searchCaptures(board, captureDepth + 1, -beta, -alpha);
+            board.unmove();
+            if (score >= beta) {
+                return beta;
+            }
+            alpha = Math.max(alpha, score);
+        }
+        return alpha;
+    }
+
+    /**
+     * Puts captures first, the most valuable victim taken by the least valuable
+     * piece first, since they're the likeliest to cut the search off early.
+     */
+    private static void order(Board board, List<int[]> moves) {
+        moves.sort(Comparator.comparingInt(move -> -captureValue(board, move)));
+    }
+
+    private static int captureValue(Board board, int[] move) {
+        int attacker = board.getCode(Board.squareToInteger(move[0], move[1]));
+        int victim = board.getCode(Board.squareToInteger(move[2], move[3]));
+        // A Chess960 king castling onto its own rook isn't a capture
+        if (!PieceCode.areEnemies(attacker, victim)) {
+            return 0;
+        }
+        return Math.abs(Evaluation.material(victim)) * 16 - Math.abs(Evaluation.material(attacker)) / 16;
+    }
+}
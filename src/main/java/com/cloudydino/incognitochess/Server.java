@@ -19,11 +19,11 @@ public class Server implements Runnable {
         // starts server and waits for a connection
         try {
             server = new ServerSocket(port);
-            System.out.println("Server started");
-            System.out.println("Waiting for a client ...");
+            Log.info("Server started");
+            Log.info("Waiting for a client ...");
 
             socket = server.accept();
-            System.out.println("Client accepted");
+            Log.info("Client accepted");
 
             // takes input from the client socket
             in = new DataInputStream(
@@ -32,9 +32,9 @@ public class Server implements Runnable {
             boolean handshake = false;
 
             while (!handshake) {
-                System.out.println("Handshaking...");
+                Log.info("Handshaking...");
                 long l = in.readLong();
-                System.out.println("Recieved: " + l);
+                Log.debug("Received: %d", l);
                 handshake = UiMain.handshake(l);
             }
 
@@ -45,27 +45,25 @@ public class Server implements Runnable {
             // reads message from client until "Over" is sent
             while (line != -1) {
                 int[] move = new int[4];
-                for (int i = 0; i < 4; i++) {
-                    try {
-                        line = in.readInt();
-                        move[i] = line;
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+                move[0] = in.readInt();
 
-                char promotion = 'Q';
-                try {
-                    promotion = in.readChar();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                // Time from the move arriving, not from when we started waiting
+                Metrics.begin();
+                for (int i = 1; i < 4; i++) {
+                    line = in.readInt();
+                    move[i] = line;
                 }
 
-                System.out.printf("Received:\t(%d, %d) to (%d, %d) - %c%n", move[0], move[1], move[2], move[3], promotion);
+                char promotion = in.readChar();
+                Metrics.end(Metrics.Operation.SOCKET_READ);
+
+                Log.debug("Received:\t(%d, %d) to (%d, %d) - %c", move[0], move[1], move[2], move[3], promotion);
 
                 UiMain.receiveMove(move, promotion);
             }
+        } catch (EOFException e) {
+            // A half read move is useless, so stop rather than carry on with it
+            Log.warn("Connection lost");
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -73,7 +71,7 @@ public class Server implements Runnable {
 
     public void disconnect() {
         try {
-            System.out.println("Closing connection");
+            Log.info("Closing connection");
 
             // close connection
             socket.close();
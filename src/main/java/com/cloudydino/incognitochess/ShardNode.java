@@ -0,0 +1,462 @@
+package com.cloudydino.incognitochess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One server of a cluster. Room ids are shared out between the nodes by a
+ * HashRing, and each node only creates rooms with ids it owns. A player can
+ * connect to any node: one that joins or resumes a room owned by another node
+ * has their connection forwarded to the owner for the rest of its life.
+ *
+ * Every started game is replicated to its backup node, the next one round the
+ * ring, as a RoomState followed by each move. When the ring changes each node
+ * rebalances: games it no longer owns are moved to their new owner and their
+ * players told to resume there, and copies of games that are now its own are
+ * started up for the players to resume. Rooms still waiting for an opponent
+ * are closed rather than moved.
+ *
+ * Nodes don't find each other; whoever runs the cluster tells every node the
+ * new ring with setRing() and then calls rebalance(), as LocalCluster does.
+ * Nodes share a secret, which every connection between them opens with, so
+ * players can't send the node to node commands.
+ */
+class ShardNode implements GameRegistry.Replicator, AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int MIGRATE_TIMEOUT_MILLIS = 5000;
+    private static final int SPLICE_BUFFER = 8192;
+
+    private final String id;
+    private final String secret;
+    private final Lobby lobby;
+    private final LobbyServer server;
+    private final GameRegistry registry;
+    private volatile HashRing ring;
+    private final Map<Integer, RoomState> replicas = new ConcurrentHashMap<>();
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final ExecutorService forwarding;
+
+    /**
+     * Binds the node's server socket straight away, so the node's id is known
+     * even for port 0. Until start() nothing is accepted.
+     *
+     * @param secret shared by every node of the cluster
+     * @throws IllegalArgumentException if the secret is empty
+     */
+    ShardNode(String host, int port, Lobby lobby, String secret) throws IOException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs a secret");
+        }
+        this.secret = secret;
+        this.lobby = lobby;
+        server = new LobbyServer(lobby, port);
+        server.bind();
+        id = host + ":" + server.getPort();
+        registry = lobby.getRegistry();
+        ring = new HashRing(Collections.singleton(id));
+
+        AtomicInteger count = new AtomicInteger();
+        forwarding = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-forward-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        lobby.setShard(this);
+        registry.setOwned(this::owns);
+        registry.setReplicator(this);
+    }
+
+    void start() {
+        Thread thread = new Thread(server, "node-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return String the node's "host:port", as it's known on the ring
+     */
+    String getId() {
+        return id;
+    }
+
+    Lobby getLobby() {
+        return lobby;
+    }
+
+    HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * @return int how many copies of other nodes' games this node is keeping
+     */
+    int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * @return boolean if it's the cluster's secret, compared in constant time
+     */
+    boolean isSecret(String attempt) {
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+            attempt.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the PEER command that opens a connection to another node.
+     */
+    void writePeer(DataOutputStream out) throws IOException {
+        out.writeByte(LobbyServer.PEER);
+        out.writeUTF(secret);
+    }
+
+    boolean owns(int roomId) {
+        return id.equals(ring.getOwner(roomId));
+    }
+
+    /**
+     * Switches to a new ring. Nothing moves until rebalance().
+     */
+    void setRing(HashRing ring) {
+        this.ring = ring;
+        for (String node : links.keySet()) {
+            if (!ring.contains(node)) {
+                PeerLink link = links.remove(node);
+                if (link != null) {
+                    link.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings this node in line with the ring: moves away the rooms it doesn't
+     * own, takes over the copies it now owns, drops the copies it no longer
+     * backs up and sends a fresh copy of each of its rooms to its backup.
+     */
+    synchronized void rebalance() {
+        HashRing ring = this.ring;
+        int moved = 0;
+        int promoted = 0;
+        for (GameRoom room : registry.getRooms()) {
+            String owner = ring.getOwner(room.getId());
+            if (!id.equals(owner)) {
+                if (migrate(room, owner)) {
+                    moved++;
+                }
+            } else {
+                // Held so no move is sent to the backup ahead of the copy
+                synchronized (room) {
+                    started(room);
+                }
+            }
+        }
+
+        for (RoomState replica : new ArrayList<>(replicas.values())) {
+            int roomId = replica.getId();
+            if (owns(roomId)) {
+                synchronized (replica) {
+                    replicas.remove(roomId, replica);
+                    if (registry.get(roomId) == null && adopt(replica) != -1) {
+                        promoted++;
+                    }
+                }
+            } else if (!id.equals(ring.getBackup(roomId))) {
+                replicas.remove(roomId, replica);
+            }
+        }
+        Log.info("Node %s rebalanced on %s: %d rooms moved away, %d taken over, %d rooms, %d copies",
+            id, ring, moved, promoted, registry.size(), replicas.size());
+    }
+
+    /**
+     * Hands a started game over to its new owner and sends its players there,
+     * or closes a room that's still waiting. The room is frozen rather than
+     * held while talking to the owner, so its timers and players never wait
+     * on the network.
+     *
+     * @return boolean if the game was moved
+     */
+    private boolean migrate(GameRoom room, String owner) {
+        RoomState state = room.beginMigration();
+        if (state == null) {
+            return false;
+        }
+
+        int answer;
+        try (Socket socket = new Socket()) {
+            socket.connect(HashRing.toAddress(owner), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(MIGRATE_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writePeer(out);
+            out.writeByte(LobbyServer.MIGRATE);
+            state.write(out);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte message = in.readByte();
+            if (message != LobbyServer.ROOM) {
+                throw new IOException("Unexpected message " + message);
+            }
+            answer = in.readInt();
+        } catch (IOException e) {
+            Log.warn("Couldn't move room %d to %s, keeping it: %s", room.getId(), owner, e);
+            room.cancelMigration();
+            return false;
+        }
+
+        if (answer != room.getId()) {
+            Log.warn("%s wouldn't take room %d, keeping it", owner, room.getId());
+            room.cancelMigration();
+            return false;
+        }
+        if (!room.finishMigration(state.getPlies())) {
+            // Can't happen while the room is frozen, but if it does the copy
+            // there is never resumed and is forfeited
+            Log.warn("Room %d changed while moving to %s, keeping it", room.getId(), owner);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Carries on a game here, from a RoomState its old owner sent or a copy
+     * this node kept. A copy already started up here is replaced, since the
+     * owner's state is newer.
+     *
+     * @return int the room id, or -1 if the game couldn't be carried on
+     */
+    int adopt(RoomState state) {
+        int roomId = state.getId();
+        replicas.remove(roomId);
+        GameRoom existing = registry.get(roomId);
+        if (existing != null) {
+            if (registry.getSession(state.getWhiteToken()) != existing) {
+                Log.warn("Can't take room %d, a different game has its id", roomId);
+                return -1;
+            }
+            existing.moveAway();
+        }
+
+        try {
+            GameRoom room = registry.restore(state);
+            if (room == null) {
+                Log.warn("Can't take room %d, it was opened again meanwhile", roomId);
+                return -1;
+            }
+            synchronized (room) {
+                started(room);
+            }
+            Log.debug("Node %s took room %d at ply %d", id, roomId, state.getPlies());
+            return roomId;
+        } catch (IllegalArgumentException e) {
+            Log.warn("Can't take room %d: %s", roomId, e.getMessage());
+            return -1;
+        }
+    }
+
+    void keepReplica(RoomState state) {
+        if (registry.get(state.getId()) == null) {
+            replicas.put(state.getId(), state);
+        }
+    }
+
+    /**
+     * Adds a move to a copy. A copy that has missed a move is dropped, as it
+     * can't be caught up until the owner sends the whole game again.
+     */
+    void addToReplica(int roomId, int ply, int packed, int millis, long whiteMillis, long blackMillis) {
+        RoomState replica = replicas.get(roomId);
+        if (replica == null) {
+            return;
+        }
+        synchronized (replica) {
+            if (ply == replica.getPlies()) {
+                replica.append(packed, millis, whiteMillis, blackMillis);
+            } else if (ply > replica.getPlies()) {
+                Log.warn("Copy of room %d is at ply %d but got ply %d, dropping it",
+                    roomId, replica.getPlies(), ply);
+                replicas.remove(roomId, replica);
+            }
+        }
+    }
+
+    void dropReplica(int roomId) {
+        replicas.remove(roomId);
+    }
+
+    public void started(GameRoom room) {
+        PeerLink link = getBackupLink(room.getId());
+        RoomState state = room.getState();
+        if (link != null && state != null) {
+            link.sendReplica(state);
+        }
+    }
+
+    public void moved(GameRoom room, int ply, int packed, int millis, long whiteMillis, long blackMillis) {
+        PeerLink link = getBackupLink(room.getId());
+        if (link != null) {
+            link.sendMove(room.getId(), ply, packed, millis, whiteMillis, blackMillis);
+        }
+    }
+
+    public void finished(GameRoom room) {
+        PeerLink link = getBackupLink(room.getId());
+        if (link != null) {
+            link.sendRelease(room.getId());
+        }
+    }
+
+    /**
+     * @return PeerLink the link to the node backing up the room, or null if
+     * there isn't another node
+     */
+    private PeerLink getBackupLink(int roomId) {
+        String backup = ring.getBackup(roomId);
+        if (backup == null || backup.equals(id)) {
+            return null;
+        }
+        return links.computeIfAbsent(backup, node -> new PeerLink(node, secret));
+    }
+
+    /**
+     * Opens a connection to the node that owns the room and sends it the
+     * opening bytes.
+     *
+     * @return Socket the connection, or null if the owner couldn't be reached
+     */
+    Socket connectToOwner(int roomId, byte[] opening) {
+        String owner = ring.getOwner(roomId);
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(HashRing.toAddress(owner), CONNECT_TIMEOUT_MILLIS);
+            OutputStream out = socket.getOutputStream();
+            out.write(opening);
+            out.flush();
+            return socket;
+        } catch (IOException e) {
+            Log.warn("Couldn't forward to %s for room %d: %s", owner, roomId, e);
+            closeQuietly(socket);
+            return null;
+        }
+    }
+
+    /**
+     * Passes bytes both ways between a player and the node that owns their
+     * room until either side hangs up, then closes both. Returns when it's
+     * over.
+     *
+     * @param clientIn what's left of the player's input, which may already have
+     *                 some of it buffered
+     */
+    void splice(Socket client, InputStream clientIn, Socket owner) {
+        Metrics.increment(Metrics.Counter.FORWARDED);
+        try {
+            InputStream ownerIn = owner.getInputStream();
+            OutputStream clientOut = client.getOutputStream();
+            forwarding.execute(() -> {
+                pump(ownerIn, clientOut);
+                closeQuietly(client);
+            });
+            pump(clientIn, owner.getOutputStream());
+        } catch (IOException e) {
+            Log.debug("Forwarding failed: %s", e);
+        } finally {
+            closeQuietly(owner);
+        }
+    }
+
+    private static void pump(InputStream in, OutputStream out) {
+        byte[] buffer = new byte[SPLICE_BUFFER];
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // One side hung up
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * Stops this node after its rooms have been moved away, sending any
+     * replication still queued first.
+     */
+    public void close() {
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+        stop();
+    }
+
+    /**
+     * Stops this node abruptly, as if it had crashed: nothing queued is sent
+     * and every connection is dropped.
+     */
+    void kill() {
+        for (PeerLink link : links.values()) {
+            link.kill();
+        }
+        stop();
+    }
+
+    private void stop() {
+        links.clear();
+        server.close();
+        lobby.close();
+        forwarding.shutdownNow();
+    }
+
+    /**
+     * Usage: ShardNode host:port [other host:port ...]
+     * Starts a node of a cluster with a fixed set of nodes, which must all be
+     * given the same list and the same -Dincognitochess.secret.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        String secret = System.getProperty("incognitochess.secret", "");
+        if (args.length == 0 || secret.isEmpty()) {
+            System.err.println("Usage: java -Dincognitochess.secret=... ShardNode host:port [other host:port ...]");
+            System.exit(1);
+        }
+        int colon = args[0].lastIndexOf(':');
+        ShardNode node = new ShardNode(args[0].substring(0, colon),
+            Integer.parseInt(args[0].substring(colon + 1)), new Lobby(), secret);
+        List<String> nodes = new ArrayList<>();
+        for (String arg : args) {
+            nodes.add(arg);
+        }
+        node.setRing(new HashRing(nodes));
+        Log.info("Node %s of %s", node.getId(), node.getRing());
+        node.start();
+        Thread.currentThread().join();
+    }
+}
@@ -1,15 +1,356 @@
 package com.cloudydino.incognitochess;
 
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Plays in a terminal. Moves are typed as "e2e4", "e2 e4" or "4 1 4 3", with
+ * an optional piece letter for promotions ("e7e8n"), and "quit" leaves.
+ *
+ * The board is drawn with TerminalRenderer under the same fog of war as the
+ * window: a local game shows what the side to move can see, a lobby game what
+ * the player can see. Typed lines, lobby messages and redraws are all handled
+ * on one thread from an event queue, so the board is never read while a move
+ * is being applied and waiting for input never holds up the network.
+ *
+ * Usage: TerminalChess [-u] [-960 [number]] [-name name] [-lobby host [create|roomId]]
+ *        TerminalChess -plain [-u]
+ * -u draws pieces with unicode symbols, -plain prints the whole board after
+ * every move instead, for terminals without ANSI support. -960 starts a local
+ * game from a Chess960 position, random unless its number is given; castle
+ * there by moving the king onto its own rook. -name is what a lobby saves
+ * results and ratings under.
+ */
 public class TerminalChess {
-    public static void main(String[] args) {
+
+    private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
+    private final TerminalRenderer renderer;
+    private Board board;
+    private LobbyConnection lobby;
+    private boolean isWhite = true;
+    private boolean started;
+    private boolean running = true;
+    private boolean resetPrompt;
+    private String message = "";
+    private long whiteMillis = -1;
+    private long blackMillis = -1;
+    private GameStatus result;
+
+    private TerminalChess(boolean unicode, Board board) {
+        renderer = new TerminalRenderer(new FileOutputStream(FileDescriptor.out), unicode);
+        this.board = board;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean unicode = false;
+        boolean plain = false;
+        String host = null;
+        String room = null;
+        String name = null;
+        Board start = new Board();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-u")) {
+                unicode = true;
+            } else if (args[i].equals("-name") && i + 1 < args.length) {
+                name = args[++i];
+            } else if (args[i].equals("-960")) {
+                if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                    start = Board.chess960(Integer.parseInt(args[++i]));
+                } else {
+                    start = Board.chess960(new Random().nextInt(960));
+                }
+            } else if (args[i].equals("-plain")) {
+                plain = true;
+            } else if (args[i].equals("-lobby") && i + 1 < args.length) {
+                host = args[++i];
+                if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                    room = args[++i];
+                }
+            }
+        }
+
+        if (plain) {
+            playPlain(unicode);
+        } else {
+            new TerminalChess(unicode, start).run(host, room, name);
+        }
+    }
+
+    private void run(String host, String room, String name) throws IOException {
+        Thread input = new Thread(this::readInput, "terminal-input");
+        input.setDaemon(true);
+        input.start();
+
+        if (host == null) {
+            started = true;
+        } else {
+            message = "Connecting to " + host;
+            joinLobby(host, room, name);
+        }
+
+        try {
+            render();
+            while (running) {
+                events.take().run();
+                // Draw once for everything that arrived together
+                Runnable event;
+                while (running && (event = events.poll()) != null) {
+                    event.run();
+                }
+                render();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (lobby != null) {
+                lobby.disconnect();
+            }
+            renderer.close();
+        }
+    }
+
+    /**
+     * Reads typed lines on its own thread and hands them to the event loop.
+     */
+    private void readInput() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String typed = line;
+                events.add(() -> handleLine(typed));
+            }
+        } catch (IOException e) {
+            Log.warn("Stopped reading input: %s", e);
+        }
+        events.add(() -> running = false);
+    }
+
+    private void render() throws IOException {
+        Position position = board.getPosition();
+        // Like the window, a local game keeps white at the bottom and shows what
+        // the side to move can see
+        boolean viewer = lobby == null ? position.getTurn() : isWhite;
+        renderer.render(position, isWhite, true, viewer, getStatus(position), message, resetPrompt);
+        resetPrompt = false;
+    }
+
+    private String getStatus(Position position) {
+        StringBuilder sb = new StringBuilder();
+        if (result != null) {
+            sb.append("Game over: ").append(result);
+        } else if (started) {
+            sb.append(position.getTurn() ? "White" : "Black").append(" to move");
+        } else {
+            sb.append("Waiting for an opponent");
+        }
+        if (lobby != null && started) {
+            sb.append("  |  You are ").append(isWhite ? "White" : "Black");
+        }
+        if (whiteMillis >= 0) {
+            sb.append("  |  White ").append(ChessClock.format(whiteMillis))
+                .append("  Black ").append(ChessClock.format(blackMillis));
+        }
+        return sb.toString();
+    }
+
+    private void handleLine(String line) {
+        resetPrompt = true;
+        String command = line.trim().toLowerCase();
+        if (command.isEmpty()) {
+            return;
+        }
+        if (command.equals("quit") || command.equals("exit")) {
+            running = false;
+            return;
+        }
+
+        int[] move = parseMove(command);
+        if (move == null) {
+            message = "Type a move like e2e4, or quit";
+            return;
+        }
+        if (!started || result != null) {
+            message = "The game isn't in progress";
+            return;
+        }
+        if (lobby != null && board.getTurn() != isWhite) {
+            message = "It's not your turn";
+            return;
+        }
+
+        boolean mover = board.getTurn();
+        Piece promotion = move[4] == 0 ? Piece.QUEEN : Piece.fromChar((char) move[4]);
+        if (!board.move(move[0], move[1], move[2], move[3], promotion)) {
+            message = "Invalid move";
+            return;
+        }
+        message = "";
+
+        if (lobby != null) {
+            try {
+                lobby.sendMove(move, promotion.toChar(mover));
+            } catch (IOException e) {
+                message = "Couldn't send the move: " + e.getMessage();
+            }
+        } else {
+            GameStatus status = board.getGameStatus();
+            if (status != GameStatus.IN_PROGRESS) {
+                result = status;
+            }
+        }
+    }
+
+    /**
+     * @return int[] {startX, startY, destX, destY, promotion piece letter or 0},
+     * or null if the text isn't a move
+     */
+    static int[] parseMove(String text) {
+        String[] numbers = text.trim().split("\\s+");
+        if (numbers.length == 4) {
+            int[] move = new int[5];
+            for (int i = 0; i < 4; i++) {
+                try {
+                    move[i] = Integer.parseInt(numbers[i]);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (move[i] < 0 || move[i] >= Board.SIZE) {
+                    return null;
+                }
+            }
+            return move;
+        }
+
+        String squares = text.replaceAll("[\\s-]", "");
+        if (squares.length() != 4 && squares.length() != 5) {
+            return null;
+        }
+        int[] move = new int[5];
+        for (int i = 0; i < 2; i++) {
+            int x = squares.charAt(i * 2) - 'a';
+            int y = squares.charAt(i * 2 + 1) - '1';
+            if (x < 0 || x >= Board.SIZE || y < 0 || y >= Board.SIZE) {
+                return null;
+            }
+            move[i * 2] = x;
+            move[i * 2 + 1] = y;
+        }
+        if (squares.length() == 5) {
+            char piece = squares.charAt(4);
+            if ("nbrq".indexOf(piece) == -1) {
+                return null;
+            }
+            move[4] = piece;
+        }
+        return move;
+    }
+
+    private void joinLobby(String host, String room, String name) {
+        lobby = new LobbyConnection(host, LobbyServer.DEFAULT_PORT, new LobbyConnection.Listener() {
+            public void roomAssigned(int roomId) {
+                events.add(() -> {
+                    if (roomId == -1) {
+                        message = "Couldn't join room " + room;
+                        running = false;
+                    } else {
+                        message = "Waiting in room " + roomId;
+                    }
+                });
+            }
+
+            public void gameStarted(int roomId, boolean white) {
+                events.add(() -> {
+                    board = new Board();
+                    isWhite = white;
+                    started = true;
+                    result = null;
+                    message = "Playing in room " + roomId;
+                });
+            }
+
+            public void resynced(int roomId, boolean white, String snapshot, int[] moves) {
+                events.add(() -> {
+                    Board resynced = new Board(snapshot);
+                    for (int move : moves) {
+                        MoveLog.applyPacked(resynced, move);
+                    }
+                    board = resynced;
+                    isWhite = white;
+                    started = true;
+                    message = "Reconnected to room " + roomId;
+                });
+            }
+
+            public void moveReceived(int[] move, char promotion) {
+                events.add(() -> board.move(move[0], move[1], move[2], move[3], Piece.fromChar(promotion)));
+            }
+
+            public void moveRejected() {
+                events.add(() -> {
+                    // Only our own move can be rejected, and the opponent
+                    // can't have moved since, so it's the last on the board
+                    if (board.getTurn() != isWhite) {
+                        board.unmove();
+                    }
+                    message = "The lobby rejected the move";
+                });
+            }
+
+            public void clockUpdated(long white, long black) {
+                events.add(() -> {
+                    whiteMillis = white;
+                    blackMillis = black;
+                });
+            }
+
+            public void gameOver(GameStatus status) {
+                events.add(() -> result = status);
+            }
+        });
+
+        try {
+            lobby.connect();
+            if (name != null) {
+                lobby.setName(name);
+            }
+            if (room == null) {
+                lobby.queue();
+            } else if (room.equals("create")) {
+                lobby.create();
+            } else {
+                lobby.join(Integer.parseInt(room));
+            }
+        } catch (IOException e) {
+            message = "Couldn't reach the lobby: " + e.getMessage();
+            running = false;
+            return;
+        }
+
+        Thread lobbyThread = new Thread(lobby, "lobby-connection");
+        lobbyThread.setDaemon(true);
+        lobbyThread.start();
+    }
+
+    /**
+     * The original loop: prints the whole board every turn and reads four
+     * numbers for each move.
+     */
+    private static void playPlain(boolean unicode) {
         Board board = new Board();
         Scanner in = new Scanner(System.in);
 
         BoardPrinter bp;
 
-        if (args.length > 0 && args[0].equals("-u")) {
+        if (unicode) {
             bp = new UnicodePrinter(board);
         } else {
             bp = new AsciiPrinter(board);
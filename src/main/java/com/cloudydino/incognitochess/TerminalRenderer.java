@@ -0,0 +1,172 @@
+package com.cloudydino.incognitochess;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Draws a board on an ANSI terminal. It remembers what every square and line
+ * of text on screen looks like and only redraws what changed since the last
+ * frame, addressing each cell with cursor movement. A frame is built up in one
+ * buffer and sent with a single write.
+ *
+ * Screen layout, rows counted from 1:
+ *  1      title
+ *  2-9    the board
+ *  10     file letters
+ *  12     status
+ *  13     message
+ *  15     prompt
+ */
+class TerminalRenderer {
+
+    private static final String CSI = "\u001b[";
+    private static final String RESET = CSI + "0m";
+
+    private static final int BOARD_ROW = 2;
+    private static final int BOARD_COLUMN = 4;
+    private static final int CELL_WIDTH = 3;
+    private static final int STATUS_ROW = BOARD_ROW + Board.SIZE + 2;
+    private static final int MESSAGE_ROW = STATUS_ROW + 1;
+    private static final int PROMPT_ROW = MESSAGE_ROW + 2;
+    private static final String PROMPT = "> ";
+
+    private static final String LIGHT = CSI + "48;5;180m";
+    private static final String DARK = CSI + "48;5;137m";
+    private static final String FOG = CSI + "48;5;236m" + CSI + "38;5;240m";
+    private static final String WHITE_PIECE = CSI + "1;38;5;231m";
+    private static final String BLACK_PIECE = CSI + "1;38;5;16m";
+
+    // What each square was last drawn as: its PieceCode, plus FOGGED if hidden
+    private static final int FOGGED = 16;
+    private static final int UNDRAWN = -1;
+
+    private final OutputStream out;
+    private final boolean unicode;
+    private final StringBuilder frame = new StringBuilder(4096);
+    private final int[] cells = new int[Board.SIZE * Board.SIZE];
+    private boolean whiteAtBottom;
+    private String status;
+    private String message;
+    private boolean cleared;
+
+    TerminalRenderer(OutputStream out, boolean unicode) {
+        this.out = out;
+        this.unicode = unicode;
+        Arrays.fill(cells, UNDRAWN);
+    }
+
+    /**
+     * Draws the position with the squares viewer can't see blanked out, or
+     * everything if fog is off.
+     *
+     * @param resetPrompt clear whatever was typed after the prompt and leave
+     *                    the cursor there; otherwise the cursor is put back
+     *                    where it was, so typing isn't interrupted
+     */
+    void render(Position position, boolean whiteAtBottom, boolean fog, boolean viewer,
+                String status, String message, boolean resetPrompt) throws IOException {
+        frame.setLength(0);
+
+        if (!cleared || whiteAtBottom != this.whiteAtBottom) {
+            // Everything moves when the board flips, so start over
+            cleared = true;
+            this.whiteAtBottom = whiteAtBottom;
+            this.status = null;
+            this.message = null;
+            Arrays.fill(cells, UNDRAWN);
+            resetPrompt = true;
+            frame.append(CSI).append("2J");
+            moveTo(1, 1);
+            frame.append("Incognito Chess");
+            drawLabels();
+        } else if (!resetPrompt) {
+            frame.append("\u001b7");
+        }
+
+        for (int square = 0; square < Board.SIZE * Board.SIZE; square++) {
+            int code = position.getCode(square);
+            int cell = fog && !position.isVisible(viewer, square) ? FOGGED : code;
+            if (cell != cells[square]) {
+                cells[square] = cell;
+                drawCell(square, cell);
+            }
+        }
+        frame.append(RESET);
+
+        if (!status.equals(this.status)) {
+            this.status = status;
+            drawLine(STATUS_ROW, status);
+        }
+        if (!message.equals(this.message)) {
+            this.message = message;
+            drawLine(MESSAGE_ROW, message);
+        }
+
+        if (resetPrompt) {
+            moveTo(PROMPT_ROW, 1);
+            frame.append(CSI).append("J").append(PROMPT);
+        } else {
+            frame.append("\u001b8");
+        }
+
+        out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Leaves the cursor below everything drawn, with colors reset.
+     */
+    void close() throws IOException {
+        frame.setLength(0);
+        frame.append(RESET);
+        moveTo(PROMPT_ROW + 1, 1);
+        out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void drawLabels() {
+        for (int i = 0; i < Board.SIZE; i++) {
+            int rank = whiteAtBottom ? Board.SIZE - i : i + 1;
+            moveTo(BOARD_ROW + i, 1);
+            frame.append(' ').append(rank);
+
+            char file = (char) ('a' + (whiteAtBottom ? i : Board.SIZE - 1 - i));
+            moveTo(BOARD_ROW + Board.SIZE, BOARD_COLUMN + i * CELL_WIDTH + 1);
+            frame.append(file);
+        }
+    }
+
+    private void drawCell(int square, int cell) {
+        int x = Board.squareX(square);
+        int y = Board.squareY(square);
+        int row = whiteAtBottom ? Board.SIZE - 1 - y : y;
+        int column = whiteAtBottom ? x : Board.SIZE - 1 - x;
+        moveTo(BOARD_ROW + row, BOARD_COLUMN + column * CELL_WIDTH);
+
+        if (cell == FOGGED) {
+            frame.append(FOG).append(" · ");
+            return;
+        }
+        frame.append((x + y) % 2 == 0 ? DARK : LIGHT);
+        if (cell == PieceCode.EMPTY) {
+            frame.append("   ");
+        } else {
+            char piece = PieceCode.toChar(cell);
+            frame.append(PieceCode.isWhite(cell) ? WHITE_PIECE : BLACK_PIECE)
+                .append(' ')
+                .append(unicode ? UnicodePrinter.getUnicode(piece) : piece)
+                .append(' ');
+        }
+    }
+
+    private void drawLine(int row, String text) {
+        moveTo(row, 1);
+        frame.append(CSI).append("2K").append(text);
+    }
+
+    private void moveTo(int row, int column) {
+        frame.append(CSI).append(row).append(';').append(column).append('H');
+    }
+}
@@ -0,0 +1,130 @@
+package com.cloudydino.incognitochess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A hashed timer wheel. One thread advances the wheel every tick and runs the
+ * timeouts in the slot it lands on, so any number of games can share it
+ * without a thread or Timer each. Scheduling and cancelling are O(1) and never
+ * block the caller; timeouts fire up to one tick late.
+ *
+ * Tasks run on the wheel's thread and should be quick.
+ */
+class TimerWheel {
+
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startTime;
+    private final Thread worker;
+    private long tick;
+    private volatile boolean stopped;
+
+    TimerWheel() {
+        this(10, 512);
+    }
+
+    /**
+     * @param slots rounded up to a power of two
+     */
+    TimerWheel(long tickMillis, int slots) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+
+        startTime = ChessClock.now();
+        worker = new Thread(this::work, "timer-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, ChessClock.now() + Math.max(delayMillis, 0));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        while (!stopped) {
+            long wakeAt = startTime + (tick + 1) * tickMillis;
+            long sleep = wakeAt - ChessClock.now();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            transferPending();
+            expire(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max((timeout.deadline - startTime) / tickMillis, tick);
+            timeout.rounds = (ticks - tick) / wheel.size();
+            wheel.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> slot) {
+        int kept = 0;
+        for (int i = 0; i < slot.size(); i++) {
+            Timeout timeout = slot.get(i);
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                slot.set(kept++, timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                Log.error("Timeout failed: %s", e);
+            }
+        }
+        slot.subList(kept, slot.size()).clear();
+    }
+}
@@ -5,9 +5,12 @@ import java.awt.Container;
 import java.awt.GridLayout;
 import java.awt.event.*;
 import java.awt.Image;
+import java.io.IOException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.*;
 
 class UiMain extends JFrame {
@@ -17,6 +20,7 @@ class UiMain extends JFrame {
     private static ArrayList<JButton> presses = new ArrayList<>();
     private static Server server;
     private static Client client;
+    private static LobbyConnection lobby;
     private static long startColorSeed;
     static boolean startColor;
     static boolean localGame;
@@ -32,6 +36,10 @@ class UiMain extends JFrame {
 
     private static final String IMAGES_FOLDER = "res";
     private static final String IMAGES_FILETYPE = "png";
+    private static final int ICON_SIZE = 120;
+
+    // Each piece's icon, loaded and scaled the first time it's drawn
+    private static final Map<Character, ImageIcon> icons = new ConcurrentHashMap<>();
 
     private UiMain() {
         setTitle("Incognito Chess");
@@ -41,7 +49,9 @@ class UiMain extends JFrame {
         // Window Listeners
         addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
-                if (!localGame) {
+                if (lobby != null) {
+                    lobby.disconnect();
+                } else if (!localGame) {
                     client.disconnect();
                     server.disconnect();
                 }
@@ -51,13 +61,20 @@ class UiMain extends JFrame {
     }
 
     public static void main(String[] args) {
+        Metrics.registerMBeanLater();
         b = new Board();
 
         localGame = args.length == 0;
 
         if (localGame) {
             startColor = true;
-            startGame();
+            SwingUtilities.invokeLater(UiMain::startGame);
+        } else if (args[0].equals("-lobby")) {
+            if (args.length < 2) {
+                System.err.println("Usage: UiMain [ip] | UiMain -lobby host [create|roomId]");
+                return;
+            }
+            joinLobby(args[1], args.length > 2 ? args[2] : null);
         } else {
             startColorSeed = (new Random()).nextLong();
 
@@ -71,6 +88,90 @@ class UiMain extends JFrame {
         }
     }
 
+    /**
+     * Connects to a LobbyServer and either queues for a game, creates a room if
+     * room is "create", or joins the room with that id.
+     */
+    private static void joinLobby(String address, String room) {
+        lobby = new LobbyConnection(address, LobbyServer.DEFAULT_PORT, new LobbyConnection.Listener() {
+            public void roomAssigned(int roomId) {
+                if (roomId == -1) {
+                    System.out.println("Couldn't join room " + room);
+                    lobby.disconnect();
+                } else {
+                    System.out.println("Waiting in room " + roomId);
+                }
+            }
+
+            public void gameStarted(int roomId, boolean isWhite) {
+                startColor = isWhite;
+                SwingUtilities.invokeLater(UiMain::startGame);
+            }
+
+            public void resynced(int roomId, boolean isWhite, String snapshot, int[] moves) {
+                SwingUtilities.invokeLater(() -> {
+                    Board resynced = new Board(snapshot);
+                    for (int move : moves) {
+                        MoveLog.applyPacked(resynced, move);
+                    }
+                    b = resynced;
+                    startColor = isWhite;
+                    presses.clear();
+                    if (f == null) {
+                        startGame();
+                    }
+                    refreshBoard();
+                });
+            }
+
+            public void moveReceived(int[] move, char promotion) {
+                SwingUtilities.invokeLater(() -> receiveMove(move, promotion));
+            }
+
+            public void moveRejected() {
+                System.out.println("Move was rejected by the lobby");
+                // Only our own move can be rejected, and the opponent can't
+                // have moved since, so it's still the last move on the board
+                SwingUtilities.invokeLater(() -> {
+                    if (b.getTurn() != startColor && b.unmove()) {
+                        presses.clear();
+                        refreshBoard();
+                    }
+                });
+            }
+
+            public void clockUpdated(long whiteMillis, long blackMillis) {
+                SwingUtilities.invokeLater(() -> {
+                    if (f != null) {
+                        f.setTitle(String.format("Incognito Chess - White %s | Black %s",
+                            ChessClock.format(whiteMillis), ChessClock.format(blackMillis)));
+                    }
+                });
+            }
+
+            public void gameOver(GameStatus status) {
+                System.out.println("Game over: " + status);
+            }
+        });
+
+        try {
+            lobby.connect();
+            if (room == null) {
+                lobby.queue();
+            } else if (room.equals("create")) {
+                lobby.create();
+            } else {
+                lobby.join(Integer.parseInt(room));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Thread lobbyThread = new Thread(lobby);
+        lobbyThread.start();
+    }
+
     static void initHandshake() {
         client.sendLong(startColorSeed);
     }
@@ -94,15 +195,16 @@ class UiMain extends JFrame {
         JPanel chessPanel = new JPanel(new GridLayout(8, 8));
 
         buttonArr = new JButton[Board.SIZE][Board.SIZE];
+        Position position = b.getPosition();
 
         for (int i = 7; i >= 0; i--) {
             for (int j = 0; j < Board.SIZE; j++) {
                 JButton square = new JButton();
                 char c;
                 if (startColor) {
-                    c = b.getBoard()[j][i];
+                    c = position.get(j, i);
                 } else {
-                    c = b.getBoard()[Board.SIZE - 1 - j][Board.SIZE - 1 - i];
+                    c = position.get(Board.SIZE - 1 - j, Board.SIZE - 1 - i);
                 }
                 ImageIcon icon = getIcon(c);
                 square.setIcon(icon);
@@ -158,10 +260,22 @@ class UiMain extends JFrame {
 
             int[] sending = {startX, startY, endX, endY};
 
+            // The lobby would reject it anyway, and then it couldn't be told
+            // apart from the last move to take back
+            if (lobby != null && b.getTurn() != startColor) {
+                presses.clear();
+                return;
+            }
             boolean moveIsLegal = b.move(startX, startY, endX, endY, promotion);
             if (moveIsLegal) {
                 refreshBoard();
-                if (!localGame) {
+                if (lobby != null) {
+                    try {
+                        lobby.sendMove(sending, promotion.toChar(startColor));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                } else if (!localGame) {
                     client.sendMove(sending, promotion.toChar(startColor));
                 }
             }
@@ -176,19 +290,30 @@ class UiMain extends JFrame {
     }
 
     private static void refreshBoard() {
+        Metrics.begin();
+        try {
+            drawBoard();
+        } finally {
+            Metrics.end(Metrics.Operation.REFRESH_BOARD);
+        }
+    }
+
+    private static void drawBoard() {
+        // One snapshot for the whole redraw, so a move arriving on the network
+        // thread part way through can't leave the board half updated
+        Position position = b.getPosition();
+        boolean colorToShow = localGame ? position.getTurn() : startColor;
         for (int i = 0; i < Board.SIZE; i++) {
             for (int j = 0; j < Board.SIZE; j++) {
 
                 char c;
                 if (startColor) {
-                    c = b.getBoard()[i][j];
+                    c = position.get(i, j);
                 } else {
-                    c = b.getBoard()[Board.SIZE - 1 - i][Board.SIZE - 1 - j];
+                    c = position.get(Board.SIZE - 1 - i, Board.SIZE - 1 - j);
                 }
 
-                boolean colorToShow = localGame ? b.getTurn() : startColor;
-                Set<Integer> attacking = b.getAttacking(colorToShow);
-                if (attacking.contains(Board.squareToInteger(i, j)) || (c != 0 && Piece.isWhite(c) == colorToShow)) {
+                if (position.isAttacking(colorToShow, Board.squareToInteger(i, j)) || (c != 0 && Piece.isWhite(c) == colorToShow)) {
                     ImageIcon icon = getIcon(c);
                     if (startColor) {
                         buttonArr[i][j].setIcon(icon);
@@ -235,10 +360,26 @@ class UiMain extends JFrame {
         return Piece.QUEEN;
     }
 
+    /**
+     * @return ImageIcon the piece's icon, or null for an empty square
+     */
     private static ImageIcon getIcon(char piece) {
-        ImageIcon icon = new ImageIcon(getImageFile(piece));
+        if (piece == 0) {
+            return null;
+        }
+        return icons.computeIfAbsent(piece, UiMain::loadIcon);
+    }
+
+    /**
+     * Reads the piece's image off the classpath, as packaged in the jar, or
+     * from the res folder when running from the source tree.
+     */
+    private static ImageIcon loadIcon(char piece) {
+        String file = getImageFile(piece);
+        URL resource = UiMain.class.getResource("/" + file);
+        ImageIcon icon = resource != null ? new ImageIcon(resource) : new ImageIcon(file);
         Image image = icon.getImage();
-        Image smoothImage = image.getScaledInstance(120, 120,  Image.SCALE_SMOOTH);
+        Image smoothImage = image.getScaledInstance(ICON_SIZE, ICON_SIZE, Image.SCALE_SMOOTH);
         return new ImageIcon(smoothImage);
     }
 
@@ -6,23 +6,15 @@ public class UnicodePrinter extends BoardPrinter {
         super(board);
     }
 
-    public void printBoard() {
-        char[][] arr = board.getBoard();
-
-        System.out.println("Turn: " + (board.getTurn() ? "White" : "Black"));
-
-        for (int y = arr[0].length - 1; y >= 0; y--) {
-            StringBuilder sb = new StringBuilder();
-            for (int x = 0; x < arr.length; x++) {
-                sb.append(getUnicode(arr[x][y]));
-                sb.append(' ');
+    char getSymbol(char c) {
+        return getUnicode(c);
+    }
 
-            }
-            System.out.println(sb);
-        }
+    char getHiddenSymbol() {
+        return '░';
     }
 
-    private char getUnicode(char c) {
+    static char getUnicode(char c) {
         switch (c) {
             case 'p': return '♟';
             case 'n': return '♞';
@@ -0,0 +1,49 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AnalysisServiceTest {
+
+    @Test
+    void reusesResultsForPositionsThatDifferOnlyInMoveCounters() throws Exception {
+        String first = "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1";
+        String later = "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 12 40";
+        try (AnalysisService service = new AnalysisService(2, 64)) {
+            long hits = Metrics.getCount(Metrics.Counter.ANALYSIS_CACHE_HITS);
+            List<Analysis> results = service.analyzeFens(Arrays.asList(first, later, "not a fen"));
+
+            assertEquals(1, Metrics.getCount(Metrics.Counter.ANALYSIS_CACHE_HITS) - hits);
+            assertEquals(1, service.getCacheSize());
+            assertEquals(first, results.get(0).getPosition().toFen());
+            assertEquals(later, results.get(1).getPosition().toFen());
+            assertEquals(results.get(0).getLegalMoves(), results.get(1).getLegalMoves());
+            assertEquals(results.get(0).getEvaluation(), results.get(1).getEvaluation());
+            assertNull(results.get(2));
+        }
+    }
+
+    @Test
+    void matchesAFreshAnalysisAndStaysWithinItsSize() throws Exception {
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            positions.add(Board.chess960(i).getPosition());
+        }
+        try (AnalysisService service = new AnalysisService(4, 64)) {
+            List<Analysis> results = service.analyze(positions);
+            List<Analysis> again = service.analyze(positions);
+            for (int i = 0; i < positions.size(); i++) {
+                assertEquals(results.get(i).toString(), again.get(i).toString());
+                assertEquals(new Board(positions.get(i).toFen()).getAllLegalMoves().size(),
+                    again.get(i).getLegalMoves());
+            }
+            assertTrue(service.getCacheSize() <= 64);
+        }
+    }
+}
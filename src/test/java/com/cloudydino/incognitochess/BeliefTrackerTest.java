@@ -0,0 +1,68 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class BeliefTrackerTest {
+
+    private static final int G8 = Board.squareToInteger(6, 7);
+
+    private static BeliefTracker track(String... fens) {
+        BeliefTracker tracker = new BeliefTracker(true, new Board(fens[0]).getPosition());
+        for (int i = 1; i < fens.length; i++) {
+            tracker.observe(new Board(fens[i]).getPosition());
+        }
+        return tracker;
+    }
+
+    private static long[] getMasks(BeliefTracker tracker) {
+        long[] masks = new long[tracker.size()];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = tracker.getMask(i);
+        }
+        return masks;
+    }
+
+    private static long getKingMask(BeliefTracker tracker) {
+        for (int i = 0; i < tracker.size(); i++) {
+            if (tracker.getType(i) == PieceCode.KING) {
+                return tracker.getMask(i);
+            }
+        }
+        throw new AssertionError("No king");
+    }
+
+    /**
+     * The castling rights in a Position are hidden from the player, so the
+     * tracker has to come to the same beliefs whatever they say.
+     */
+    @Test
+    void ignoresTheOpponentsHiddenCastlingRights() {
+        String start = "r3k2r/8/8/8/8/8/8/4K3 w - - 0 1";
+        String[] withRights = {start,
+            "r3k2r/8/8/8/8/8/4K3/8 b kq - 1 1",
+            "4k2r/r7/8/8/8/8/4K3/8 w k - 2 2",
+            "4k2r/r7/8/8/8/8/3K4/8 b k - 3 2",
+            "5rk1/r7/8/8/8/8/3K4/8 w - - 4 3"};
+        String[] withoutRights = new String[withRights.length];
+        for (int i = 0; i < withRights.length; i++) {
+            withoutRights[i] = withRights[i].replace(" kq ", " - ").replace(" k ", " - ");
+        }
+
+        assertArrayEquals(getMasks(track(withoutRights)), getMasks(track(withRights)));
+        // After one move the king can't have walked to g8, only castled there
+        assertEquals(0, getKingMask(track(Arrays.copyOf(withRights, 3))) >>> G8 & 1);
+    }
+
+    @Test
+    void letsTheOpponentCastleWhileItCouldStillHaveTheRight() {
+        String[] fens = {"r3k2r/8/8/8/8/8/8/4K3 w kq - 0 1",
+            "r3k2r/8/8/8/8/8/4K3/8 b kq - 1 1",
+            "r4rk1/8/8/8/8/8/4K3/8 w - - 2 2"};
+        assertNotEquals(0, getKingMask(track(fens)) >>> G8 & 1);
+    }
+}
@@ -0,0 +1,113 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the detector over a small archive of random games, in some of which
+ * one player always plays the engine's move, quickly and steadily.
+ */
+class CheatDetectorTest {
+
+    private static final String[] NAMES = {"alice", "bob", "carol", "dave", "cheater"};
+    private static final int GAMES = 30;
+    private static final int DEPTH = 1;
+
+    private static GameResult play(Random random, Search engine, String white, String black, long ended) {
+        Board board = new Board();
+        List<int[]> moves = new ArrayList<>();
+        List<Integer> millis = new ArrayList<>();
+        while (board.getGameStatus() == GameStatus.IN_PROGRESS && moves.size() < 60) {
+            List<int[]> legal = board.getAllLegalMoves();
+            int[] move;
+            if ((board.getTurn() ? white : black).equals("cheater") && moves.size() >= 10) {
+                int[] best = engine.bestMove(board);
+                move = new int[]{best[1], best[2], best[3], best[4]};
+                millis.add(3000 + random.nextInt(200));
+            } else {
+                move = legal.get(random.nextInt(legal.size()));
+                millis.add((int) Math.exp(random.nextGaussian() + 8));
+            }
+            assertTrue(board.move(move[0], move[1], move[2], move[3]));
+            moves.add(move);
+        }
+
+        int[] packed = new int[moves.size()];
+        int[] times = new int[moves.size()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = MoveLog.pack(moves.get(i), 'q');
+            times[i] = millis.get(i);
+        }
+        GameStatus status = board.getGameStatus() == GameStatus.IN_PROGRESS ? GameStatus.DRAW : board.getGameStatus();
+        return new GameResult(white, black, status, ended, packed.length, new Board().toFen(), packed, times);
+    }
+
+    private static ResultsStore writeArchive(Path file) throws Exception {
+        Random random = new Random(41);
+        Search engine = new Search(DEPTH);
+        ResultsStore store = new ResultsStore(file);
+        for (int i = 0; i < GAMES; i++) {
+            String white = NAMES[i % NAMES.length];
+            String black = NAMES[(i + 1 + i / NAMES.length) % NAMES.length];
+            store.append(play(random, engine, white, black, i));
+        }
+        // Saved without its moves, and with one that can't be played
+        store.append(new GameResult("alice", "bob", GameStatus.DRAW, GAMES, 10));
+        int[] illegal = {MoveLog.pack(new int[]{4, 1, 4, 4}, 'q')};
+        store.append(new GameResult("alice", "bob", GameStatus.DRAW, GAMES + 1, 1,
+            new Board().toFen(), illegal, new int[]{100}));
+        return store;
+    }
+
+    @Test
+    void ranksTheEnginePlayerFirst(@TempDir Path dir) throws Exception {
+        try (ResultsStore store = writeArchive(dir.resolve("results.log"));
+             CheatDetector detector = new CheatDetector(4, DEPTH)) {
+            detector.analyze(store);
+            assertEquals(GAMES, detector.getGameCount());
+            assertEquals(2, detector.getSkippedCount());
+
+            List<CheatDetector.Suspicion> report = detector.report(40);
+            assertEquals(NAMES.length, report.size());
+            CheatDetector.Suspicion top = report.get(0);
+            assertEquals("cheater", top.getStats().getName());
+            assertEquals(1.0, top.getStats().getMatchRate());
+            assertEquals(0.0, top.getStats().getAverageLoss());
+            for (CheatDetector.Suspicion other : report.subList(1, report.size())) {
+                assertTrue(top.getScore(0) > other.getScore(0), other.toString());
+                assertTrue(top.getScore(3) > other.getScore(3), other.toString());
+            }
+        }
+    }
+
+    @Test
+    void findsTheSameWhateverTheThreads(@TempDir Path dir) throws Exception {
+        try (ResultsStore store = writeArchive(dir.resolve("results.log"));
+             CheatDetector one = new CheatDetector(1, DEPTH);
+             CheatDetector many = new CheatDetector(4, DEPTH)) {
+            one.analyze(store);
+            many.analyze(store);
+            for (String name : NAMES) {
+                PlayerStats expected = one.getStats(name);
+                PlayerStats actual = many.getStats(name);
+                assertEquals(expected.toString(), actual.toString());
+                assertEquals(expected.getMatchRate(), actual.getMatchRate());
+                assertEquals(expected.getHiddenThreats(), actual.getHiddenThreats());
+                assertEquals(expected.getVisibleThreats(), actual.getVisibleThreats());
+            }
+
+            // Another pass adds to the totals
+            int moves = many.getStats("alice").getMoves();
+            many.analyze(store);
+            assertEquals(2 * moves, many.getStats("alice").getMoves());
+            assertEquals(2 * GAMES, many.getGameCount());
+        }
+    }
+}
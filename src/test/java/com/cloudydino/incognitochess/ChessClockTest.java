@@ -0,0 +1,95 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ChessClockTest {
+
+    @Test
+    void chargesOnlyTheSideToMoveAndAddsTheIncrement() {
+        ChessClock clock = new ChessClock(60_000, 2_000);
+        assertFalse(clock.isRunning());
+        assertEquals(60_000, clock.getRemaining(true, 5_000));
+
+        clock.start(1_000);
+        assertEquals(57_000, clock.getRemaining(true, 4_000));
+        assertEquals(60_000, clock.getRemaining(false, 4_000));
+
+        assertFalse(clock.press(false, 4_000));
+        assertTrue(clock.press(true, 4_000));
+        assertEquals(59_000, clock.getRemaining(true, 9_000));
+        assertEquals(55_000, clock.getRemaining(false, 9_000));
+
+        assertTrue(clock.press(false, 9_000));
+        assertEquals(57_000, clock.getRemaining(false, 20_000));
+        assertEquals(48_000, clock.getRemaining(true, 20_000));
+    }
+
+    @Test
+    void refusesThePressOfASideWhoseFlagFell() {
+        ChessClock clock = new ChessClock(10_000, 5_000);
+        clock.start(0);
+        assertEquals(0, clock.getRemaining(true, 12_000));
+        assertFalse(clock.press(true, 12_000));
+        // Nothing is charged, not even the increment
+        assertEquals(0, clock.getRemaining(true, 12_000));
+        assertEquals(10_000, clock.getRemaining(false, 12_000));
+    }
+
+    @Test
+    void startsOnTheFirstPressWhenNotStarted() {
+        ChessClock clock = new ChessClock(30_000, 25_000, 1_000);
+        assertTrue(clock.press(true, 100));
+        assertEquals(31_000, clock.getRemaining(true, 5_000));
+        assertEquals(20_000, clock.getRemaining(false, 5_100));
+    }
+
+    @Test
+    void endsARoomsGameWhenTheSideToMoveFlags() throws InterruptedException {
+        Lobby lobby = new Lobby(300, 0);
+        try {
+            LocalPlayer first = new LocalPlayer("first");
+            LocalPlayer second = new LocalPlayer("second");
+            lobby.queue(first);
+            lobby.queue(second);
+            LocalPlayer white = first.isWhite() ? first : second;
+            LocalPlayer black = first.isWhite() ? second : first;
+            assertTrue(GameRoomTest.play(white, "e2e4"));
+
+            long deadline = ChessClock.now() + 5_000;
+            while (black.getStatus() == null && ChessClock.now() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(GameStatus.WHITE_WON_ON_TIME, black.getStatus());
+            assertEquals(GameStatus.WHITE_WON_ON_TIME, white.getStatus());
+            assertFalse(GameRoomTest.play(black, "e7e5"));
+        } finally {
+            lobby.close();
+        }
+    }
+
+    @Test
+    void givesARoomsPlayersTheIncrementAfterEachMove() {
+        Lobby lobby = new Lobby(60_000, 10_000);
+        try {
+            LocalPlayer first = new LocalPlayer("first");
+            LocalPlayer second = new LocalPlayer("second");
+            lobby.queue(first);
+            lobby.queue(second);
+            LocalPlayer white = first.isWhite() ? first : second;
+            assertEquals(60_000, white.getRemaining(true));
+
+            assertTrue(GameRoomTest.play(white, "e2e4"));
+            assertTrue(white.getRemaining(true) > 60_000);
+            assertTrue(white.getRemaining(true) <= 70_000);
+            assertEquals(60_000, white.getRemaining(false), 1_000);
+            assertNull(white.getStatus());
+        } finally {
+            lobby.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Plays games in rooms through LocalPlayers, without any sockets.
+ */
+class GameRoomTest {
+
+    private Lobby lobby;
+    private LocalPlayer white;
+    private LocalPlayer black;
+
+    @BeforeEach
+    void startGame() {
+        lobby = new Lobby(0, 0);
+        LocalPlayer first = new LocalPlayer("first");
+        LocalPlayer second = new LocalPlayer("second");
+        lobby.queue(first);
+        lobby.queue(second);
+        assertNotNull(first.getRoom());
+        white = first.isWhite() ? first : second;
+        black = first.isWhite() ? second : first;
+    }
+
+    @AfterEach
+    void close() {
+        lobby.close();
+    }
+
+    /**
+     * @param move like "e2e4"
+     */
+    static boolean play(LocalPlayer player, String move, char promotion) {
+        return player.move(move.charAt(0) - 'a', move.charAt(1) - '1',
+            move.charAt(2) - 'a', move.charAt(3) - '1', promotion);
+    }
+
+    static boolean play(LocalPlayer player, String move) {
+        return play(player, move, player.isWhite() ? 'Q' : 'q');
+    }
+
+    /**
+     * Plays to a position where white's b7 pawn can take the a8 rook and
+     * promote.
+     */
+    private void playToPromotion() {
+        String[] moves = {"a2a4", "b7b5", "a4b5", "a7a6", "b5a6", "c8b7", "a6b7", "b8c6"};
+        for (int i = 0; i < moves.length; i++) {
+            assertTrue(play(i % 2 == 0 ? white : black, moves[i]), moves[i]);
+        }
+    }
+
+    @Test
+    void rejectsPromotionToAKingOrPawn() {
+        playToPromotion();
+        GameRoom room = white.getRoom();
+        String before = room.getBoard().toFen();
+
+        assertFalse(play(white, "b7a8", 'K'));
+        assertFalse(play(white, "b7a8", 'P'));
+        assertEquals(before, room.getBoard().toFen());
+        assertEquals(4, black.getReceived().size());
+
+        assertTrue(play(white, "b7a8", 'N'));
+        assertEquals('N', room.getBoard().getPosition().get(0, 7));
+    }
+
+    @Test
+    void rejectsMovesOutOfTurnIllegalOrOffTheBoard() {
+        GameRoom room = white.getRoom();
+        String before = room.getBoard().toFen();
+
+        assertFalse(play(black, "e7e5"));
+        assertFalse(play(white, "e2e5"));
+        assertFalse(white.move(4, 1, 4, 8));
+        assertFalse(white.getRoom().move(white, new int[]{4, 1, 4}, 'Q'));
+        assertFalse(play(white, "e2e4", 'X'));
+        assertFalse(room.move(new LocalPlayer("stranger"), new int[]{4, 1, 4, 3}, 'Q'));
+        assertEquals(before, room.getBoard().toFen());
+        assertTrue(black.getReceived().isEmpty());
+
+        assertTrue(play(white, "e2e4"));
+        assertFalse(play(white, "d2d4"));
+        assertArrayEquals(new int[]{4, 1, 4, 3}, black.getReceived().poll());
+        assertTrue(play(black, "e7e5"));
+    }
+
+    @Test
+    void endsTheGameAtMateAndRejectsMovesAfterIt() {
+        String[] moves = {"f2f3", "e7e5", "g2g4", "d8h4"};
+        for (int i = 0; i < moves.length; i++) {
+            assertTrue(play(i % 2 == 0 ? white : black, moves[i]), moves[i]);
+        }
+        assertEquals(GameStatus.BLACK_WON, white.getStatus());
+        assertEquals(GameStatus.BLACK_WON, black.getStatus());
+        assertTrue(white.getRoom().isOver());
+        assertFalse(play(white, "a2a3"));
+    }
+
+    /**
+     * A LocalPlayer that keeps what it was sent to catch up with when it
+     * resumed.
+     */
+    private static class Resumer extends LocalPlayer {
+        private volatile String snapshot;
+        private volatile int[] moves;
+
+        @Override
+        public void resynced(GameRoom room, boolean isWhite, long token, String snapshot, int[] moves) {
+            this.snapshot = snapshot;
+            this.moves = moves;
+            super.resynced(room, isWhite, token, snapshot, moves);
+        }
+
+        Board catchUp() {
+            Board board = new Board(snapshot);
+            for (int packed : moves) {
+                assertTrue(MoveLog.applyPacked(board, packed));
+            }
+            return board;
+        }
+    }
+
+    /**
+     * Plays random legal moves for both sides.
+     */
+    private void playRandomly(Random random, int plies) {
+        GameRoom room = white.getRoom();
+        for (int i = 0; i < plies; i++) {
+            Board board = new Board(room.getBoard().toFen());
+            List<int[]> moves = board.getAllLegalMoves();
+            int[] move = moves.get(random.nextInt(moves.size()));
+            LocalPlayer mover = board.getTurn() ? white : black;
+            assertTrue(mover.move(move[0], move[1], move[2], move[3], board.getTurn() ? 'Q' : 'q'));
+        }
+        assertFalse(room.isOver());
+    }
+
+    @Test
+    void resumesASeatWithTheSnapshotAndTheMovesSinceIt() {
+        playRandomly(new Random(28), MoveLog.SNAPSHOT_INTERVAL + 5);
+        GameRoom room = white.getRoom();
+        lobby.disconnected(white, room);
+
+        Resumer resumer = new Resumer();
+        assertSame(room, lobby.resume(white.getToken(), resumer));
+        assertTrue(resumer.isWhite());
+        assertEquals(white.getToken(), resumer.getToken());
+        assertEquals(5, resumer.moves.length);
+        assertEquals(room.getBoard().toFen(), resumer.catchUp().toFen());
+
+        // Black to move; whoever holds the seat now plays it
+        black.getReceived().clear();
+        playRandomly(new Random(29), 1);
+        assertEquals(1, resumer.getReceived().size());
+        Board board = new Board(room.getBoard().toFen());
+        int[] move = board.getAllLegalMoves().get(0);
+        assertFalse(white.move(move[0], move[1], move[2], move[3]));
+        assertTrue(resumer.move(move[0], move[1], move[2], move[3]));
+        assertEquals(1, black.getReceived().size());
+    }
+
+    @Test
+    void refusesUnknownAndFinishedTokens() {
+        playRandomly(new Random(28), 3);
+        GameRoom room = white.getRoom();
+        long token = black.getToken();
+        assertNull(lobby.resume(token ^ 1, new Resumer()));
+
+        lobby.leave(white, room);
+        assertNull(lobby.resume(token, new Resumer()));
+        assertNull(lobby.getRegistry().getSession(token));
+    }
+
+    @Test
+    void rejectsAKingAsThePromotionOfAnyMove() {
+        assertFalse(play(white, "e2e4", 'K'));
+        assertTrue(black.getReceived().isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LobbyTest {
+
+    private static final int THREADS = 8;
+
+    private Lobby lobby;
+    private ExecutorService pool;
+
+    @BeforeEach
+    void start() {
+        lobby = new Lobby(0, 0);
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void close() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        lobby.close();
+    }
+
+    /**
+     * Runs every task at once, as near as the pool allows.
+     */
+    private <T> List<T> race(List<Callable<T>> tasks) throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(() -> {
+                go.await();
+                return task.call();
+            }));
+        }
+        go.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    @Test
+    void pairsEveryoneWhoQueuesAtOnce() throws Exception {
+        List<LocalPlayer> players = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            LocalPlayer player = new LocalPlayer("p" + i);
+            players.add(player);
+            tasks.add(() -> {
+                lobby.queue(player);
+                return null;
+            });
+        }
+        race(tasks);
+
+        Map<GameRoom, List<LocalPlayer>> seated = new HashMap<>();
+        for (LocalPlayer player : players) {
+            assertNotNull(player.getRoom(), player.getName());
+            seated.computeIfAbsent(player.getRoom(), room -> new ArrayList<>()).add(player);
+        }
+        assertEquals(100, seated.size());
+        assertEquals(100, lobby.getRegistry().size());
+        for (List<LocalPlayer> pair : seated.values()) {
+            assertEquals(2, pair.size());
+            assertNotEquals(pair.get(0).isWhite(), pair.get(1).isWhite());
+            assertNotEquals(pair.get(0).getToken(), pair.get(1).getToken());
+        }
+    }
+
+    @Test
+    void seatsOnlyOneOfThePlayersJoiningARoomAtOnce() throws Exception {
+        LocalPlayer creator = new LocalPlayer("creator");
+        GameRoom room = lobby.createRoom(creator);
+        assertNull(creator.getRoom());
+
+        List<LocalPlayer> joiners = new ArrayList<>();
+        List<Callable<GameRoom>> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            LocalPlayer player = new LocalPlayer("j" + i);
+            joiners.add(player);
+            tasks.add(() -> lobby.joinRoom(room.getId(), player));
+        }
+        List<GameRoom> joined = race(tasks);
+
+        int seated = 0;
+        for (int i = 0; i < joiners.size(); i++) {
+            if (joined.get(i) != null) {
+                seated++;
+                assertSame(room, joiners.get(i).getRoom());
+                assertNotEquals(creator.isWhite(), joiners.get(i).isWhite());
+            } else {
+                assertNull(joiners.get(i).getRoom());
+            }
+        }
+        assertEquals(1, seated);
+        assertSame(room, creator.getRoom());
+    }
+
+    @Test
+    void doesNotPairAPlayerWhoLeftTheQueue() {
+        LocalPlayer gone = new LocalPlayer("gone");
+        LocalPlayer first = new LocalPlayer("first");
+        LocalPlayer second = new LocalPlayer("second");
+        lobby.queue(gone);
+        lobby.queue(gone);
+        lobby.leave(gone, null);
+
+        lobby.queue(first);
+        assertNull(first.getRoom());
+        lobby.queue(second);
+        assertNull(gone.getRoom());
+        assertSame(first.getRoom(), second.getRoom());
+        assertNotNull(first.getRoom());
+    }
+
+    @Test
+    void closesACreatedRoomItsPlayerLeaves() {
+        LocalPlayer creator = new LocalPlayer("creator");
+        GameRoom room = lobby.createRoom(creator);
+        lobby.leave(creator, room);
+
+        assertTrue(room.isOver());
+        assertNull(lobby.joinRoom(room.getId(), new LocalPlayer("late")));
+        assertEquals(0, lobby.getRegistry().size());
+    }
+
+    @Test
+    void forfeitsAStartedGameItsPlayerLeaves() {
+        LocalPlayer first = new LocalPlayer("first");
+        LocalPlayer second = new LocalPlayer("second");
+        lobby.queue(first);
+        lobby.queue(second);
+        LocalPlayer white = first.isWhite() ? first : second;
+        LocalPlayer black = first.isWhite() ? second : first;
+        GameRoom room = white.getRoom();
+        assertTrue(GameRoomTest.play(white, "e2e4"));
+
+        lobby.leave(black, room);
+        assertEquals(GameStatus.WHITE_WON, white.getStatus());
+        assertEquals(GameStatus.WHITE_WON, black.getStatus());
+        assertTrue(room.isOver());
+        assertNull(lobby.resume(white.getToken(), white));
+        assertNull(lobby.joinRoom(room.getId(), new LocalPlayer("late")));
+    }
+}
@@ -0,0 +1,256 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Plays games through LobbyConnections against a cluster in this JVM, and
+ * checks they carry on from where they were when the node running them is
+ * removed or killed.
+ */
+class LocalClusterTest {
+
+    private static final int GAMES = 6;
+    private static final int PLIES = 6;
+    private static final long TIMEOUT_MILLIS = 20_000;
+
+    private final LocalCluster cluster = new LocalCluster(0, 0);
+    private final List<Seat> seats = new ArrayList<>();
+    private final Random random = new Random(42);
+
+    @AfterEach
+    void close() {
+        for (Seat seat : seats) {
+            seat.connection.disconnect();
+        }
+        cluster.close();
+    }
+
+    /**
+     * One side of a game, mirroring it on its own Board.
+     */
+    private static class Seat implements LobbyConnection.Listener {
+
+        final LobbyConnection connection;
+        final BlockingQueue<Integer> rooms = new LinkedBlockingQueue<>();
+        private Board board;
+        private boolean white;
+        private int received;
+        private int resyncs;
+        private int rejected;
+        private GameStatus status;
+
+        Seat(List<String> nodes, int first) throws IOException {
+            InetSocketAddress address = HashRing.toAddress(nodes.get(first));
+            connection = new LobbyConnection(address.getHostString(), address.getPort(), this);
+            for (int i = 1; i < nodes.size(); i++) {
+                InetSocketAddress fallback = HashRing.toAddress(nodes.get((first + i) % nodes.size()));
+                connection.addFallback(fallback.getHostString(), fallback.getPort());
+            }
+            connection.connect();
+            Thread thread = new Thread(connection, "seat");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void roomAssigned(int roomId) {
+            rooms.add(roomId);
+        }
+
+        public synchronized void gameStarted(int roomId, boolean isWhite) {
+            board = new Board();
+            white = isWhite;
+        }
+
+        public synchronized void resynced(int roomId, boolean isWhite, String snapshot, int[] moves) {
+            board = new Board(snapshot);
+            for (int move : moves) {
+                MoveLog.applyPacked(board, move);
+            }
+            white = isWhite;
+            resyncs++;
+        }
+
+        public synchronized void moveReceived(int[] move, char promotion) {
+            board.move(move[0], move[1], move[2], move[3], Piece.fromChar(promotion));
+            received++;
+        }
+
+        public synchronized void moveRejected() {
+            rejected++;
+        }
+
+        public void clockUpdated(long whiteMillis, long blackMillis) {
+        }
+
+        public synchronized void gameOver(GameStatus status) {
+            this.status = status;
+        }
+
+        synchronized boolean isPlaying() {
+            return board != null;
+        }
+
+        synchronized boolean isToMove() {
+            return board != null && board.getTurn() == white;
+        }
+
+        synchronized String getFen() {
+            return board.toFen();
+        }
+
+        synchronized int getReceived() {
+            return received;
+        }
+
+        synchronized int getResyncs() {
+            return resyncs;
+        }
+
+        synchronized int getRejected() {
+            return rejected;
+        }
+
+        synchronized GameStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Plays a random legal move here and sends it.
+         */
+        void move(Random random) throws IOException {
+            int[] move;
+            synchronized (this) {
+                List<int[]> legal = board.getAllLegalMoves();
+                move = legal.get(random.nextInt(legal.size()));
+                assertTrue(board.move(move[0], move[1], move[2], move[3]));
+            }
+            connection.sendMove(move, 'Q');
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Starts the games, spread over the nodes, each player connected to the
+     * node its room was created on.
+     */
+    private void startGames() throws Exception {
+        List<String> nodes = cluster.getAddresses();
+        for (int i = 0; i < GAMES; i++) {
+            Seat creator = new Seat(nodes, i % nodes.size());
+            Seat joiner = new Seat(nodes, i % nodes.size());
+            creator.connection.create();
+            Integer roomId = creator.rooms.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertTrue(roomId != null && roomId != -1, "room " + roomId);
+            joiner.connection.join(roomId);
+            await(() -> creator.isPlaying() && joiner.isPlaying(), "game " + i + " to start");
+            seats.add(creator);
+            seats.add(joiner);
+        }
+    }
+
+    /**
+     * Plays that many plies of every game, waiting for each move to reach the
+     * opponent.
+     */
+    private void playAll(int plies) throws Exception {
+        for (int i = 0; i < seats.size(); i += 2) {
+            Seat first = seats.get(i);
+            Seat second = seats.get(i + 1);
+            for (int ply = 0; ply < plies; ply++) {
+                Seat mover = first.isToMove() ? first : second;
+                Seat other = mover == first ? second : first;
+                int received = other.getReceived();
+                mover.move(random);
+                await(() -> other.getReceived() > received, "a move of game " + i / 2);
+                assertEquals(mover.getFen(), other.getFen());
+            }
+        }
+        for (Seat seat : seats) {
+            assertEquals(0, seat.getRejected());
+            assertNull(seat.getStatus());
+        }
+    }
+
+    private int countRooms() {
+        int rooms = 0;
+        for (ShardNode node : cluster.getNodes()) {
+            rooms += node.getLobby().getRegistry().size();
+        }
+        return rooms;
+    }
+
+    /**
+     * Waits for every player of a game the node was running to resume, and
+     * checks they all pick up the same position they left.
+     */
+    private void awaitResumed(List<Integer> moved, List<String> fens) throws InterruptedException {
+        for (int i : moved) {
+            Seat seat = seats.get(i);
+            await(() -> seat.getResyncs() > 0, "seat " + i + " to resume");
+            assertEquals(fens.get(i), seat.getFen());
+        }
+    }
+
+    private void checkGracefulOrFailover(boolean kill) throws Exception {
+        cluster.addNode();
+        cluster.addNode();
+        cluster.addNode();
+        startGames();
+        playAll(PLIES);
+        // Let the copies of the last moves reach the backups
+        Thread.sleep(200);
+
+        ShardNode victim = cluster.getNodes().get(0);
+        List<Integer> moved = new ArrayList<>();
+        List<String> fens = new ArrayList<>();
+        for (int i = 0; i < seats.size(); i++) {
+            fens.add(seats.get(i).getFen());
+            if ((i / 2) % 3 == 0) {
+                moved.add(i);
+            }
+        }
+        if (kill) {
+            cluster.killNode(victim);
+        } else {
+            cluster.removeNode(victim);
+        }
+
+        awaitResumed(moved, fens);
+        await(() -> countRooms() == GAMES, "every game to have a room");
+        playAll(PLIES);
+        assertEquals(GAMES, countRooms());
+    }
+
+    @Test
+    void carriesGamesOnWhenTheirNodeIsRemoved() throws Exception {
+        checkGracefulOrFailover(false);
+    }
+
+    @Test
+    void carriesGamesOnWhenTheirNodeIsKilled() throws Exception {
+        checkGracefulOrFailover(true);
+    }
+}
@@ -0,0 +1,40 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class MoveLogTest {
+
+    @Test
+    void packsMovesAndPromotions() {
+        int[] move = {7, 6, 6, 7};
+        int packed = MoveLog.pack(move, 'n');
+        assertArrayEquals(move, MoveLog.unpackMove(packed));
+        assertEquals('n', MoveLog.unpackPromotion(packed));
+    }
+
+    @Test
+    void rebuildsTheGameFromEachSnapshot() {
+        Random random = new Random(28);
+        Board board = Board.chess960(random.nextInt(960));
+        MoveLog log = new MoveLog(board, 4);
+
+        for (int ply = 1; ply <= 3 * MoveLog.SNAPSHOT_INTERVAL + 5; ply++) {
+            List<int[]> moves = board.getAllLegalMoves();
+            int[] move = moves.get(random.nextInt(moves.size()));
+            char promotion = board.getTurn() ? 'Q' : 'q';
+            assertTrue(board.move(move[0], move[1], move[2], move[3], Piece.fromChar(promotion)));
+            log.add(board, move, promotion);
+
+            assertEquals(4 + ply, log.getPly());
+            assertEquals(ply % MoveLog.SNAPSHOT_INTERVAL, log.getMoves().length);
+            assertEquals(log.getPly() - log.getMoves().length, log.getSnapshotPly());
+            assertEquals(board.toFen(), log.toBoard().toFen());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Counts every legal move sequence to a fixed depth and checks the totals
+ * against the published perft numbers, which catches almost any mistake in
+ * move generation: castling, en passant, promotions, pins and checks.
+ */
+class PerftTest {
+
+    static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+    private static final Piece[] PROMOTIONS = {Piece.QUEEN, Piece.ROOK, Piece.BISHOP, Piece.KNIGHT};
+
+    /**
+     * @return long how many move sequences of that many plies there are, each
+     * promotion counted once per piece it can promote to
+     */
+    static long perft(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long nodes = 0;
+        for (int[] move : board.getAllLegalMoves()) {
+            boolean promotes = board.doesPromote(move[0], move[1], move[3]);
+            for (Piece promotion : PROMOTIONS) {
+                board.move(move[0], move[1], move[2], move[3], promotion);
+                nodes += perft(board, depth - 1);
+                board.unmove();
+                if (!promotes) {
+                    break;
+                }
+            }
+        }
+        return nodes;
+    }
+
+    @Test
+    void startPosition() {
+        Board board = new Board();
+        assertEquals(20, perft(board, 1));
+        assertEquals(400, perft(board, 2));
+        assertEquals(8902, perft(board, 3));
+        assertEquals(197281, perft(board, 4));
+    }
+
+    @Test
+    void kiwipete() {
+        Board board = new Board(KIWIPETE);
+        assertEquals(48, perft(board, 1));
+        assertEquals(2039, perft(board, 2));
+        assertEquals(97862, perft(board, 3));
+    }
+
+    @Test
+    void enPassantAndDiscoveredChecks() {
+        Board board = new Board("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1");
+        assertEquals(14, perft(board, 1));
+        assertEquals(191, perft(board, 2));
+        assertEquals(2812, perft(board, 3));
+        assertEquals(43238, perft(board, 4));
+    }
+
+    @Test
+    void promotions() {
+        Board board = new Board("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1");
+        assertEquals(6, perft(board, 1));
+        assertEquals(264, perft(board, 2));
+        assertEquals(9467, perft(board, 3));
+    }
+
+    @Test
+    void promotionsWithCheck() {
+        Board board = new Board("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8");
+        assertEquals(44, perft(board, 1));
+        assertEquals(1486, perft(board, 2));
+        assertEquals(62379, perft(board, 3));
+    }
+
+    @Test
+    void chess960StandardStart() {
+        Board board = Board.chess960(518);
+        assertEquals(new Board().toFen(), board.toFen());
+        assertEquals(197281, perft(board, 4));
+    }
+
+    @Test
+    void chess960() {
+        assertEquals(12189, perft(new Board("bqnb1rkr/pp3ppp/3ppn2/2p5/5P2/P2P4/NPP1P1PP/BQ1BNRKR w HFhf - 2 9"), 3));
+        assertEquals(18002, perft(new Board("2nnrbkr/p1qppppp/8/1ppb4/6PP/3PP3/PPP2P2/BQNNRBKR w HEhe - 1 9"), 3));
+        assertEquals(10471, perft(new Board("b1q1rrkb/pppppppp/3nn3/8/P7/1PPP4/4PPPP/BQNNRKRB w GEge - 1 9"), 3));
+    }
+}
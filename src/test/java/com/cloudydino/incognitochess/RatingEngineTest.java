@@ -0,0 +1,76 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RatingEngineTest {
+
+    /**
+     * The worked example from Glickman's "Example of the Glicko-2 system".
+     */
+    @Test
+    void glickmansExample() {
+        Rating player = new Rating("player", 1500, 200, 0.06, 0, 0);
+        Rating[] opponents = {
+            new Rating("a", 1400, 30, 0.06, 0, 0),
+            new Rating("b", 1550, 100, 0.06, 0, 0),
+            new Rating("c", 1700, 300, 0.06, 0, 0),
+        };
+        double[] scores = {1, 0, 0};
+
+        Rating updated = RatingEngine.update(player, opponents, scores, 1);
+        assertEquals(1464.05, updated.getRating(), 0.01);
+        assertEquals(151.52, updated.getDeviation(), 0.01);
+        assertEquals(0.05999, updated.getVolatility(), 0.00001);
+        assertEquals(3, updated.getGames());
+        assertEquals(1, updated.getPeriod());
+    }
+
+    @Test
+    void skipsGamesSavedAfterTheirPeriodWasRated(@TempDir Path dir) throws Exception {
+        long period = 1000;
+        try (ResultsStore store = new ResultsStore(dir.resolve("results.log"));
+             RatingEngine engine = new RatingEngine(2, period)) {
+            store.append(new GameResult("alice", "bob", GameStatus.WHITE_WON, 100, 40));
+            store.append(new GameResult("alice", "carol", GameStatus.WHITE_WON, 1100, 40));
+            engine.catchUp(store, 2500);
+            Rating alice = engine.getRating("alice");
+            assertEquals(2, alice.getGames());
+            assertEquals(1, alice.getPeriod());
+
+            // Ended in period 0, which is already rated
+            store.append(new GameResult("bob", "alice", GameStatus.WHITE_WON, 200, 40));
+            store.append(new GameResult("bob", "carol", GameStatus.WHITE_WON, 2200, 40));
+            engine.catchUp(store, 3500);
+            assertEquals(alice.getRating(), engine.getRating("alice").getRating());
+            assertEquals(2, engine.getRating("alice").getGames());
+            assertEquals(2, engine.getRating("bob").getGames());
+            assertEquals(2, engine.getRating("bob").getPeriod());
+        }
+    }
+
+    @Test
+    void waitsForGamesThatEndJustBeforeThePeriodDoes(@TempDir Path dir) throws Exception {
+        long period = 2000;
+        try (ResultsStore store = new ResultsStore(dir.resolve("results.log"));
+             RatingEngine engine = new RatingEngine(2, period)) {
+            // Start well clear of a boundary
+            while (System.currentTimeMillis() % period > period / 4) {
+                Thread.sleep(10);
+            }
+            long boundary = System.currentTimeMillis() / period * period + period;
+            engine.start(store);
+            store.append(new GameResult("alice", "bob", GameStatus.WHITE_WON, boundary - 500, 40));
+
+            // Ended a moment before the boundary, but reaches the store after it
+            Thread.sleep(boundary + 100 - System.currentTimeMillis());
+            store.submit(new GameResult("alice", "carol", GameStatus.WHITE_WON, boundary - 1, 40));
+
+            Thread.sleep(boundary + period / 2 + 400 - System.currentTimeMillis());
+            assertEquals(2, engine.getRating("alice").getGames());
+        }
+    }
+}
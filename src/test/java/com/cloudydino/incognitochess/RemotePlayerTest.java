@@ -0,0 +1,98 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Speaks the LobbyServer protocol over real sockets.
+ */
+class RemotePlayerTest {
+
+    private LobbyServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new LobbyServer(new Lobby(0, 0), 0);
+        server.bind();
+        Thread thread = new Thread(server, "lobby");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    /**
+     * @return byte the next message other than CLOCK, with its arguments read
+     */
+    private static byte next(DataInputStream in) throws IOException {
+        while (true) {
+            byte message = in.readByte();
+            switch (message) {
+                case LobbyServer.ROOM:
+                    in.readInt();
+                    return message;
+                case LobbyServer.START:
+                    in.readInt();
+                    in.readBoolean();
+                    in.readLong();
+                    return message;
+                case LobbyServer.CLOCK:
+                    in.readLong();
+                    in.readLong();
+                    break;
+                case LobbyServer.METRICS:
+                    in.readUTF();
+                    return message;
+                default:
+                    throw new IOException("Unexpected message " + message);
+            }
+        }
+    }
+
+    @Test
+    void ignoresQueueCreateAndJoinDuringAGame() throws IOException {
+        try (Socket first = new Socket("127.0.0.1", server.getPort());
+             Socket second = new Socket("127.0.0.1", server.getPort())) {
+            DataOutputStream firstOut = new DataOutputStream(first.getOutputStream());
+            DataInputStream firstIn = new DataInputStream(first.getInputStream());
+            DataOutputStream secondOut = new DataOutputStream(second.getOutputStream());
+            DataInputStream secondIn = new DataInputStream(second.getInputStream());
+
+            firstOut.writeByte(LobbyServer.CREATE);
+            firstOut.flush();
+            assertEquals(LobbyServer.ROOM, firstIn.readByte());
+            int roomId = firstIn.readInt();
+
+            // Still waiting in its room, so a second one isn't made
+            firstOut.writeByte(LobbyServer.CREATE);
+            firstOut.writeByte(LobbyServer.METRICS);
+            firstOut.flush();
+            assertEquals(LobbyServer.METRICS, next(firstIn));
+
+            secondOut.writeByte(LobbyServer.JOIN);
+            secondOut.writeInt(roomId);
+            secondOut.flush();
+            assertEquals(LobbyServer.START, next(firstIn));
+            assertEquals(LobbyServer.START, next(secondIn));
+
+            firstOut.writeByte(LobbyServer.QUEUE);
+            firstOut.writeByte(LobbyServer.CREATE);
+            firstOut.writeByte(LobbyServer.JOIN);
+            firstOut.writeInt(roomId);
+            firstOut.writeByte(LobbyServer.METRICS);
+            firstOut.flush();
+            assertEquals(LobbyServer.METRICS, next(firstIn));
+            assertEquals(1, server.getLobby().getRegistry().size());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks every way of moving around a Replay against the positions of the
+ * same game played straight through.
+ */
+class ReplayTest {
+
+    private static final char[] PROMOTIONS = {'Q', 'R', 'B', 'N'};
+
+    private final Position start;
+    private final int[] moves;
+    private final List<String> fens = new ArrayList<>();
+
+    ReplayTest() {
+        Random random = new Random(38);
+        Board board = Board.chess960(random.nextInt(960));
+        start = board.getPosition();
+        fens.add(board.toFen());
+
+        List<Integer> played = new ArrayList<>();
+        while (played.size() < 150) {
+            List<int[]> legal = board.getAllLegalMoves();
+            if (legal.isEmpty()) {
+                break;
+            }
+            int[] move = legal.get(random.nextInt(legal.size()));
+            char promotion = PROMOTIONS[random.nextInt(PROMOTIONS.length)];
+            if (!board.getTurn()) {
+                promotion = Character.toLowerCase(promotion);
+            }
+            assertTrue(board.move(move[0], move[1], move[2], move[3], Piece.fromChar(promotion)));
+            played.add(MoveLog.pack(move, promotion));
+            fens.add(board.toFen());
+        }
+        moves = new int[played.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = played.get(i);
+        }
+    }
+
+    private void assertAt(int ply, Replay replay) {
+        assertEquals(ply, replay.getPly());
+        assertEquals(fens.get(ply), replay.getPosition().toFen(), "ply " + ply);
+    }
+
+    @Test
+    void stepsForwardAndBackThroughTheGame() {
+        for (int interval : new int[]{1, 5, Replay.DEFAULT_INTERVAL, 1000}) {
+            Replay replay = new Replay(start, moves, interval);
+            assertAt(0, replay);
+            assertFalse(replay.back());
+            while (replay.forward()) {
+                assertAt(replay.getPly(), replay);
+            }
+            assertEquals(moves.length, replay.getPly());
+            while (replay.back()) {
+                assertAt(replay.getPly(), replay);
+            }
+            assertEquals(0, replay.getPly());
+        }
+    }
+
+    @Test
+    void seeksToAnyPlyFromAnywhere() {
+        Random random = new Random(16);
+        for (int interval : new int[]{1, 5, Replay.DEFAULT_INTERVAL, 1000}) {
+            Replay replay = new Replay(start, moves, interval);
+            for (int i = 0; i < 300; i++) {
+                int ply = random.nextInt(moves.length + 1);
+                replay.seek(ply);
+                assertAt(ply, replay);
+                if (random.nextBoolean() && replay.back()) {
+                    assertAt(ply - 1, replay);
+                } else if (replay.forward()) {
+                    assertAt(ply + 1, replay);
+                }
+            }
+        }
+    }
+
+    @Test
+    void readsBackWhatItWrites() throws Exception {
+        Replay replay = new Replay(start, moves, Replay.DEFAULT_INTERVAL);
+        StringBuilder text = new StringBuilder();
+        replay.write(text);
+
+        Replay read = Replay.read(new StringReader(text.toString()));
+        assertEquals(moves.length, read.length());
+        read.seek(moves.length);
+        assertAt(moves.length, read);
+        for (int i = 0; i < moves.length; i++) {
+            assertArrayEquals(MoveLog.unpackMove(moves[i]), MoveLog.unpackMove(read.getMove(i + 1)));
+        }
+    }
+
+    @Test
+    void rejectsIllegalMovesAndMissingPlies() {
+        Replay replay = new Replay(start, moves, Replay.DEFAULT_INTERVAL);
+        assertThrows(IllegalArgumentException.class, () -> replay.seek(-1));
+        assertThrows(IllegalArgumentException.class, () -> replay.seek(moves.length + 1));
+        assertThrows(IllegalArgumentException.class, () -> new Replay(start, moves, 0));
+
+        int[] backwards = {MoveLog.pack(new int[]{4, 1, 4, 0}, 'Q')};
+        assertThrows(IllegalArgumentException.class, () -> new Replay(new Board().getPosition(), backwards, 4));
+        assertThrows(IllegalArgumentException.class,
+            () -> Replay.read(new StringReader("startpos\ne2e4 e7e5 e4e5\n")));
+    }
+}
@@ -0,0 +1,30 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResultsStoreTest {
+
+    @Test
+    void writerSkipsResultsItCantSave(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("results.log");
+        char[] name = new char[ResultsStore.MAX_NAME_BYTES + 1];
+        Arrays.fill(name, 'x');
+
+        try (ResultsStore store = new ResultsStore(file)) {
+            store.submit(new GameResult("alice", "bob", GameStatus.WHITE_WON, 100, 40));
+            store.submit(new GameResult(new String(name), "bob", GameStatus.DRAW, 200, 40));
+            store.submit(new GameResult("bob", "alice", GameStatus.BLACK_WON, 300, 40));
+        }
+
+        try (ResultsStore store = new ResultsStore(file)) {
+            assertEquals(2, store.size());
+            assertEquals(100, store.get(0).getEndedMillis());
+            assertEquals(300, store.get(1).getEndedMillis());
+        }
+    }
+}
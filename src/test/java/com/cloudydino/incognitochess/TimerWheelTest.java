@@ -0,0 +1,71 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTest {
+
+    private static final long TICK = 5;
+
+    // Few slots, so the longer delays go round the wheel more than once
+    private final TimerWheel wheel = new TimerWheel(TICK, 8);
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    void firesEachTimeoutNoSoonerThanItsDelay() throws InterruptedException {
+        long[] delays = {0, 7, 40, 41, 130, 300};
+        AtomicLongArray fired = new AtomicLongArray(delays.length);
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long scheduled = ChessClock.now();
+        for (int i = 0; i < delays.length; i++) {
+            int index = i;
+            wheel.schedule(() -> {
+                fired.set(index, ChessClock.now());
+                done.countDown();
+            }, delays[i]);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            long late = fired.get(i) - scheduled - delays[i];
+            assertTrue(late >= 0, "fired " + -late + "ms early");
+            assertTrue(late < 500, "fired " + late + "ms late");
+        }
+    }
+
+    @Test
+    void skipsCancelledTimeouts() throws InterruptedException {
+        AtomicBoolean cancelledRan = new AtomicBoolean();
+        CountDownLatch after = new CountDownLatch(1);
+        TimerWheel.Timeout cancelled = wheel.schedule(() -> cancelledRan.set(true), 50);
+        wheel.schedule(after::countDown, 100);
+        cancelled.cancel();
+
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertFalse(cancelledRan.get());
+    }
+
+    @Test
+    void keepsGoingAfterATaskThrows() throws InterruptedException {
+        CountDownLatch after = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            throw new IllegalStateException("thrown on purpose");
+        }, 10);
+        wheel.schedule(after::countDown, 60);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertEquals(0, after.getCount());
+    }
+}
@@ -0,0 +1,102 @@
+package com.cloudydino.incognitochess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that Board.unmove puts back exactly the board the move started
+ * from, including the evaluation terms move() updates incrementally, by
+ * comparing against a board freshly read from the same FEN.
+ */
+class UnmoveTest {
+
+    private static final Piece[] PROMOTIONS = {Piece.QUEEN, Piece.ROOK, Piece.BISHOP, Piece.KNIGHT};
+
+    private static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.toFen(), actual.toFen());
+        assertEquals(expected.getMaterial(), actual.getMaterial());
+        assertEquals(expected.getMiddlegameScore(), actual.getMiddlegameScore());
+        assertEquals(expected.getEndgameScore(), actual.getEndgameScore());
+        assertEquals(expected.getPhase(), actual.getPhase());
+        assertEquals(expected.getEvaluation(), actual.getEvaluation());
+        assertEquals(expected.getAttackMask(true), actual.getAttackMask(true));
+        assertEquals(expected.getAttackMask(false), actual.getAttackMask(false));
+        assertEquals(expected.isInCheck(true), actual.isInCheck(true));
+        assertEquals(expected.isInCheck(false), actual.isInCheck(false));
+    }
+
+    /**
+     * Makes every move, promotions to each piece included, to the given depth
+     * and checks the board after taking each one back.
+     */
+    private static void checkEveryMove(Board board, int depth) {
+        if (depth == 0) {
+            return;
+        }
+        Board before = new Board(board.toFen());
+        for (int[] move : board.getAllLegalMoves()) {
+            boolean promotes = board.doesPromote(move[0], move[1], move[3]);
+            for (Piece promotion : PROMOTIONS) {
+                assertTrue(board.move(move[0], move[1], move[2], move[3], promotion));
+                // The incremental terms after the move must match too
+                assertSameBoard(new Board(board.toFen()), board);
+                checkEveryMove(board, depth - 1);
+                assertTrue(board.unmove());
+                assertSameBoard(before, board);
+                if (!promotes) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Test
+    void restoresKiwipete() {
+        checkEveryMove(new Board(PerftTest.KIWIPETE), 2);
+    }
+
+    @Test
+    void restoresPromotions() {
+        checkEveryMove(new Board("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1"), 2);
+    }
+
+    @Test
+    void restoresChess960Castling() {
+        // The king and rooks land on each other's squares castling here
+        checkEveryMove(new Board("1r2k1r1/pppppppp/8/8/8/8/PPPPPPPP/1R2K1R1 w GBgb - 0 1"), 2);
+        checkEveryMove(new Board("b1q1rrkb/pppppppp/3nn3/8/P7/1PPP4/4PPPP/BQNNRKRB w GEge - 1 9"), 2);
+    }
+
+    @Test
+    void takesBackUpToMaxUndoMoves() {
+        Random random = new Random(960);
+        Board board = Board.chess960(random.nextInt(960));
+        List<String> fens = new ArrayList<>();
+        fens.add(board.toFen());
+
+        while (fens.size() <= 200) {
+            List<int[]> moves = board.getAllLegalMoves();
+            if (moves.isEmpty()) {
+                break;
+            }
+            int[] move = moves.get(random.nextInt(moves.size()));
+            assertTrue(board.move(move[0], move[1], move[2], move[3]));
+            fens.add(board.toFen());
+        }
+        int plies = fens.size() - 1;
+        assertTrue(plies > Board.MAX_UNDO);
+        assertEquals(Board.MAX_UNDO, board.getUndoCount());
+
+        for (int i = 1; i <= Board.MAX_UNDO; i++) {
+            assertTrue(board.unmove());
+            assertSameBoard(new Board(fens.get(plies - i)), board);
+        }
+        assertFalse(board.unmove());
+    }
+}